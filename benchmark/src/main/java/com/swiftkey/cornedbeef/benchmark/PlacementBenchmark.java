@@ -0,0 +1,156 @@
+package com.swiftkey.cornedbeef.benchmark;
+
+import com.swiftkey.cornedbeef.geometry.Bounds;
+import com.swiftkey.cornedbeef.geometry.Placement;
+import com.swiftkey.cornedbeef.geometry.PlacementRequest;
+import com.swiftkey.cornedbeef.geometry.PlacementResult;
+import com.swiftkey.cornedbeef.geometry.PopupGeometry;
+import com.swiftkey.cornedbeef.geometry.PopupPlacer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the placement of coach mark popups at several screen sizes and
+ * positions along the anchor. Run with {@code ./gradlew :benchmark:jmh}, which
+ * reports ns/op and, through the GC profiler, the bytes allocated per op.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PlacementBenchmark {
+
+    private static final int PADDING = 16;
+    private static final int ARROW_WIDTH = 24;
+    private static final int POPUP_WIDTH = 400;
+    private static final int POPUP_HEIGHT = 160;
+    private static final int ANCHOR_WIDTH = 200;
+    private static final int ANCHOR_HEIGHT = 96;
+
+    /**
+     * The state of {@link #placeSingle}, which only varies with the screen
+     * and the target, so that it isn't run again for every batch size
+     */
+    @State(Scope.Thread)
+    public static class SingleState {
+
+        /**
+         * The screen size, as widthxheight
+         */
+        @Param({"720x1280", "1080x1920", "1440x3200"})
+        public String screen;
+
+        /**
+         * The position along the anchor at which the pointy mark points
+         */
+        @Param({"0", "0.25", "0.5", "1.0"})
+        public float target;
+
+        private int mScreenWidth;
+        private int mScreenHeight;
+        private int mAnchorX;
+        private int mAnchorY;
+
+        @Setup
+        public void setUp() {
+            mScreenWidth = parseWidth(screen);
+            mScreenHeight = parseHeight(screen);
+
+            // Place the anchor so that the target moves it from the left edge to the right
+            mAnchorX = (int) (target * (mScreenWidth - ANCHOR_WIDTH));
+            mAnchorY = mScreenHeight / 2;
+        }
+    }
+
+    /**
+     * The state of {@link #placeBatch}, which only varies with the screen and
+     * the batch size, so that it isn't run again for every target
+     */
+    @State(Scope.Thread)
+    public static class BatchState {
+
+        /**
+         * The screen size, as widthxheight
+         */
+        @Param({"720x1280", "1080x1920", "1440x3200"})
+        public String screen;
+
+        /**
+         * The number of popups placed
+         */
+        @Param({"4", "16", "64"})
+        public int batchSize;
+
+        private Bounds mFrame;
+        private List<PlacementRequest> mBatch;
+
+        @Setup
+        public void setUp() {
+            final int screenWidth = parseWidth(screen);
+            final int screenHeight = parseHeight(screen);
+            mFrame = new Bounds(0, 0, screenWidth, screenHeight);
+
+            // Anchors are scattered over the screen, with a fixed seed so that runs are comparable
+            final Random random = new Random(42);
+            final Placement[] placements = Placement.values();
+            mBatch = new ArrayList<>(batchSize);
+            for (int i = 0; i < batchSize; i++) {
+                final int x = random.nextInt(screenWidth - ANCHOR_WIDTH);
+                final int y = random.nextInt(screenHeight - ANCHOR_HEIGHT);
+                mBatch.add(new PlacementRequest(new Bounds(x, y, x + ANCHOR_WIDTH, y + ANCHOR_HEIGHT),
+                        POPUP_WIDTH, POPUP_HEIGHT, placements[i % placements.length]));
+            }
+        }
+    }
+
+    /**
+     * The calculations made for a single bubble coach mark on every frame
+     */
+    @Benchmark
+    public void placeSingle(SingleState state, Blackhole blackhole) {
+        final int popupWidth = PopupGeometry.getPopupWidth(ARROW_WIDTH,
+                state.mScreenWidth - 2 * PADDING, POPUP_WIDTH, ANCHOR_WIDTH, state.target);
+        final int popupX = PopupGeometry.getPopupX(state.mAnchorX, ANCHOR_WIDTH,
+                popupWidth, state.mScreenWidth, PADDING);
+        final int popupY = PopupGeometry.getPopupY(state.mAnchorY, ANCHOR_HEIGHT,
+                POPUP_HEIGHT, state.mScreenHeight, false);
+        final int arrowMargin = PopupGeometry.getArrowLeftMargin(state.target, ANCHOR_WIDTH,
+                ARROW_WIDTH, state.mAnchorX, popupX, 0, popupWidth - ARROW_WIDTH);
+        blackhole.consume(popupX);
+        blackhole.consume(popupY);
+        blackhole.consume(arrowMargin);
+    }
+
+    /**
+     * Placing a batch of popups so that none of them overlap
+     */
+    @Benchmark
+    public PlacementResult[] placeBatch(BatchState state) {
+        return PopupPlacer.placePopups(state.mBatch, state.mFrame, PADDING, false);
+    }
+
+    private static int parseWidth(String screen) {
+        return Integer.parseInt(screen.substring(0, screen.indexOf('x')));
+    }
+
+    private static int parseHeight(String screen) {
+        return Integer.parseInt(screen.substring(screen.indexOf('x') + 1));
+    }
+}
@@ -0,0 +1,55 @@
+package com.swiftkey.cornedbeef;
+
+import android.graphics.Rect;
+
+import androidx.annotation.NonNull;
+
+/**
+ * An {@link AnchorProvider} supplies the bounds of a coach mark's anchor (or
+ * target) when there is no {@link android.view.View} of its own to anchor to,
+ * e.g. a bar in a chart or a marker on a map which is drawn directly onto a
+ * {@link android.graphics.Canvas}.
+ * <p>
+ * Bounds are requested on demand, so implementations should be cheap and
+ * should not allocate. Whenever the bounds change outside of a layout or draw
+ * pass of the anchor view (e.g. because the data behind a chart changed),
+ * implementations should notify their registered
+ * {@link OnAnchorChangedListener}s so that the coach mark can follow.
+ *
+ * @see ViewRegionAnchorProvider
+ */
+public interface AnchorProvider {
+
+    /**
+     * Interface used to notify a coach mark that the bounds returned by
+     * {@link AnchorProvider#getAnchorBounds(Rect)} have changed.
+     */
+    interface OnAnchorChangedListener {
+        /**
+         * This method will be invoked, on the UI thread, when the anchor bounds change.
+         */
+        void onAnchorChanged();
+    }
+
+    /**
+     * Get the current bounds of the anchor, in screen coordinates
+     *
+     * @param outBounds the rect to populate with the anchor bounds
+     */
+    void getAnchorBounds(@NonNull Rect outBounds);
+
+    /**
+     * Register a listener to be called when the anchor bounds change
+     *
+     * @param listener the listener to add
+     */
+    void addOnAnchorChangedListener(@NonNull OnAnchorChangedListener listener);
+
+    /**
+     * Unregister a listener previously added with
+     * {@link #addOnAnchorChangedListener(OnAnchorChangedListener)}
+     *
+     * @param listener the listener to remove
+     */
+    void removeOnAnchorChangedListener(@NonNull OnAnchorChangedListener listener);
+}
@@ -2,7 +2,6 @@ package com.swiftkey.cornedbeef;
 
 import android.content.Context;
 import android.content.res.ColorStateList;
-import android.graphics.Point;
 import android.graphics.drawable.GradientDrawable;
 import android.os.Build;
 import android.util.Log;
@@ -11,13 +10,20 @@ import android.view.View;
 import android.view.ViewGroup;
 import android.view.ViewGroup.LayoutParams;
 import android.view.ViewGroup.MarginLayoutParams;
+import android.view.WindowInsets;
+import android.view.WindowInsetsAnimation;
 import android.widget.ImageView;
 import android.widget.LinearLayout;
 import android.widget.PopupWindow;
 
 import androidx.annotation.ColorInt;
+import androidx.annotation.NonNull;
 import androidx.annotation.RequiresApi;
 
+import com.swiftkey.cornedbeef.geometry.PopupGeometry;
+
+import java.util.List;
+
 /**
  * {@link BubbleCoachMark}s are displayed as speech bubble with a 'pointy mark'.
  * The speech bubble is implemented as an android {@link PopupWindow}. By
@@ -27,6 +33,10 @@ import androidx.annotation.RequiresApi;
  * positioned off the side of the screen it is shifted left or right
  * accordingly. The pointy mark always points to the same location on the
  * anchor, regardless of the position of the speech bubble.
+ * <p>
+ * On Android 11 and above, bubbles can be made to follow their anchor while
+ * the soft keyboard animates in or out, which is useful for bubbles anchored
+ * to input fields. See {@link BubbleCoachMarkBuilder#setFollowImeAnimation(boolean)}.
  * 
  * @author lachie
  * 
@@ -39,29 +49,45 @@ public class BubbleCoachMark extends InternallyAnchoredCoachMark {
     private final boolean mShowBelowAnchor;
     private final int mMinArrowMargin;
 
+    private final ImeAnimationCallback mImeAnimationCallback;
+
     private int mMinWidth;
+    private int mMeasuredScreenWidth;
     private int mArrowWidth;
     private ImageView mTopArrow;
     private ImageView mBottomArrow;
     private ViewGroup mContentHolder;
+    private int mPopupX;
+    private int mPopupY;
+    private boolean mImeAnimating;
+    // Whether the IME animation callback is set on the anchor, so that only a
+    // callback this coach mark set is cleared when it is dismissed
+    private boolean mImeAnimationCallbackSet;
+    private CoachMarkDimens<Integer> mPopupDimens;
 
     public BubbleCoachMark(BubbleCoachMarkBuilder builder) {
         super(builder);
         
         mTarget = builder.target;
         mShowBelowAnchor = builder.showBelowAnchor;
+        mImeAnimationCallback = builder.followImeAnimation
+                && Build.VERSION.SDK_INT >= Build.VERSION_CODES.R
+                ? new ImeAnimationCallback() : null;
         mMinArrowMargin = (int) mContext.getResources()
                 .getDimension(R.dimen.coach_mark_border_radius) + MIN_ARROW_MARGIN;
 
         // Set the bubble color, if possible. We could change the color in lower APIs but we'd
         // have to use the support library, increasing the size of the CornedBeef library.
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            CoachMarkTrace.beginSection(CoachMarkTrace.MUTATE_DRAWABLE);
             try {
                 mTopArrow.setImageTintList(ColorStateList.valueOf(builder.bubbleColor));
                 mBottomArrow.setImageTintList(ColorStateList.valueOf(builder.bubbleColor));
                 ((GradientDrawable) mContentHolder.getBackground().mutate()).setColor(builder.bubbleColor);
             } catch (Exception e) {
                 Log.e("BubbleCoachMark", "Could not change the coach mark color");
+            } finally {
+                CoachMarkTrace.endSection();
             }
         }
     }
@@ -73,26 +99,49 @@ public class BubbleCoachMark extends InternallyAnchoredCoachMark {
         mContentHolder = view.findViewById(R.id.coach_mark_content);
         mContentHolder.addView(content);
         
-        // Measure the coach mark to get the minimum width (constrained by screen width and padding) 
-        final int maxWidth = mContext.getResources()
-                .getDisplayMetrics().widthPixels - 2 * mPadding;
-        view.measure(View.MeasureSpec.makeMeasureSpec(maxWidth, View.MeasureSpec.AT_MOST), 0);
-        
-        mMinWidth = view.getMeasuredWidth();
+        measureMinWidth(view);
         mTopArrow = view.findViewById(R.id.top_arrow);
         mBottomArrow = view.findViewById(R.id.bottom_arrow);
 
-        // Ensure that content holder expands to fill the coach mark
-        mContentHolder.setLayoutParams(new LinearLayout.LayoutParams(
-                android.view.ViewGroup.LayoutParams.MATCH_PARENT,
-                android.view.ViewGroup.LayoutParams.WRAP_CONTENT));
-
         // It is assumed that the top and bottom arrows are identical
         mArrowWidth = mBottomArrow.getMeasuredWidth();
 
         return view;
     }
     
+    /**
+     * Measure the coach mark to get the minimum width (constrained by screen width and padding)
+     * and then ensure that the content holder expands to fill the coach mark
+     */
+    private void measureMinWidth(View view) {
+        mMeasuredScreenWidth = mContext.getResources().getDisplayMetrics().widthPixels;
+        final int maxWidth = mMeasuredScreenWidth - 2 * mPadding;
+        mContentHolder.setLayoutParams(new LinearLayout.LayoutParams(
+                android.view.ViewGroup.LayoutParams.WRAP_CONTENT,
+                android.view.ViewGroup.LayoutParams.WRAP_CONTENT));
+        CoachMarkTrace.beginSection(CoachMarkTrace.MEASURE);
+        CoachMarkStrictMode.onInflateOrMeasure("Measuring a bubble coach mark");
+        try {
+            view.measure(View.MeasureSpec.makeMeasureSpec(maxWidth, View.MeasureSpec.AT_MOST), 0);
+        } finally {
+            CoachMarkTrace.endSection();
+        }
+        
+        mMinWidth = view.getMeasuredWidth();
+
+        mContentHolder.setLayoutParams(new LinearLayout.LayoutParams(
+                android.view.ViewGroup.LayoutParams.MATCH_PARENT,
+                android.view.ViewGroup.LayoutParams.WRAP_CONTENT));
+    }
+
+    @Override
+    protected void onDisplayFrameChanged() {
+        // The screen width may have changed, e.g. after rotation
+        if (mContext.getResources().getDisplayMetrics().widthPixels != mMeasuredScreenWidth) {
+            measureMinWidth(getContentView());
+        }
+    }
+    
     @Override
     protected PopupWindow createNewPopupWindow(View contentView) {
         PopupWindow popup = new PopupWindow(
@@ -105,6 +154,13 @@ public class BubbleCoachMark extends InternallyAnchoredCoachMark {
         popup.setTouchable(true);
         return popup;
     }
+
+    @Override
+    protected boolean isPassThrough(float x, float y) {
+        // Only touches outside of the bubble, e.g. in a full screen popup, are passed through
+        final View content = getContentView();
+        return x < 0 || x >= content.getWidth() || y < 0 || y >= content.getHeight();
+    }
     
     @Override
     protected CoachMarkDimens<Integer> getPopupDimens(CoachMarkDimens<Integer> anchorDimens) {
@@ -116,10 +172,14 @@ public class BubbleCoachMark extends InternallyAnchoredCoachMark {
         
         final int popupHeight = getContentView().getMeasuredHeight();
         
-        final Point popupPos = CoachMarkUtils.getPopupPosition(anchorDimens, popupWidth, 
-                popupHeight, screenWidth, screenHeight, mPadding, mShowBelowAnchor);
+        // Calculate x and y separately, as this is called on every frame
+        final int popupX = PopupGeometry.getPopupX(anchorDimens.x, anchorDimens.width,
+                popupWidth, screenWidth, mPadding);
+        final int popupY = PopupGeometry.getPopupY(anchorDimens.y, anchorDimens.height,
+                popupHeight, screenHeight, mShowBelowAnchor);
         
-        return new CoachMarkDimens<Integer>(popupPos.x, popupPos.y, popupWidth, popupHeight);
+        mPopupDimens = updateDimens(mPopupDimens, popupX, popupY, popupWidth, popupHeight);
+        return mPopupDimens;
     }
     
     @Override
@@ -129,7 +189,7 @@ public class BubbleCoachMark extends InternallyAnchoredCoachMark {
         final MarginLayoutParams params; 
         
         // Check if the popup is being shown above or below the anchor
-        if(popupDimens.getPos().y > anchorDimens.y) {
+        if(popupDimens.y > anchorDimens.y) {
             currentArrow = mTopArrow;
             mTopArrow.setVisibility(View.VISIBLE);
             mBottomArrow.setVisibility(View.GONE);
@@ -141,7 +201,7 @@ public class BubbleCoachMark extends InternallyAnchoredCoachMark {
         
         leftMargin = CoachMarkUtils.getArrowLeftMargin(mTarget,
                 anchorDimens.width, mArrowWidth, anchorDimens.x,
-                popupDimens.getPos().x, mMinArrowMargin, 
+                popupDimens.x, mMinArrowMargin, 
                 popupDimens.width - mMinArrowMargin - mArrowWidth);
 
         params = (MarginLayoutParams) currentArrow.getLayoutParams();
@@ -149,12 +209,124 @@ public class BubbleCoachMark extends InternallyAnchoredCoachMark {
             params.leftMargin = leftMargin;
             currentArrow.setLayoutParams(params);
         }        
+
+        mPopupX = popupDimens.x;
+        mPopupY = popupDimens.y;
+    }
+
+    @Override
+    public void show() {
+        super.show();
+        if (mImeAnimationCallback != null && Build.VERSION.SDK_INT >= Build.VERSION_CODES.R
+                && isActive() && !mImeAnimationCallbackSet) {
+            mAnchor.setWindowInsetsAnimationCallback(mImeAnimationCallback);
+            mImeAnimationCallbackSet = true;
+        }
+    }
+
+    @Override
+    public void dismiss() {
+        if (mImeAnimationCallbackSet && Build.VERSION.SDK_INT >= Build.VERSION_CODES.R) {
+            mAnchor.setWindowInsetsAnimationCallback(null);
+            mImeAnimationCallbackSet = false;
+            mImeAnimationCallback.reset();
+        }
+        super.dismiss();
+    }
+
+    @Override
+    protected void updatePosition() {
+        // While the IME is animating the position is driven by its progress instead
+        if (!mImeAnimating) {
+            super.updatePosition();
+        }
+    }
+
+    /**
+     * Callback which moves the bubble along with its anchor while the IME animates.
+     * The anchor's position is interpolated between where it was before the
+     * animation and where it has been laid out for the end of it, and the bubble
+     * keeps its offset from the anchor. Only the window's position is updated on
+     * each frame, so its content is not measured or laid out again. Whether the
+     * bubble should be above or below the anchor is only decided once, at the end.
+     */
+    @RequiresApi(api = Build.VERSION_CODES.R)
+    private class ImeAnimationCallback extends WindowInsetsAnimation.Callback {
+
+        private WindowInsetsAnimation mImeAnimation;
+        private CoachMarkDimens<Integer> mStartAnchorDimens;
+        private CoachMarkDimens<Integer> mEndAnchorDimens;
+        private int mOffsetX;
+        private int mOffsetY;
+
+        ImeAnimationCallback() {
+            super(DISPATCH_MODE_CONTINUE_ON_SUBTREE);
+        }
+
+        @Override
+        public void onPrepare(@NonNull WindowInsetsAnimation animation) {
+            if ((animation.getTypeMask() & WindowInsets.Type.ime()) == 0 || !isShowing()) {
+                return;
+            }
+            mImeAnimation = animation;
+            mImeAnimating = true;
+            mStartAnchorDimens = getAnchorDimens();
+            mOffsetX = mPopupX - mStartAnchorDimens.x;
+            mOffsetY = mPopupY - mStartAnchorDimens.y;
+        }
+
+        @NonNull
+        @Override
+        public WindowInsetsAnimation.Bounds onStart(@NonNull WindowInsetsAnimation animation,
+                @NonNull WindowInsetsAnimation.Bounds bounds) {
+            if (animation == mImeAnimation) {
+                // The anchor has now been laid out in its end state
+                mEndAnchorDimens = getAnchorDimens();
+            }
+            return bounds;
+        }
+
+        @NonNull
+        @Override
+        public WindowInsets onProgress(@NonNull WindowInsets insets,
+                @NonNull List<WindowInsetsAnimation> runningAnimations) {
+            if (mEndAnchorDimens != null && isShowing()) {
+                final float fraction = mImeAnimation.getInterpolatedFraction();
+                final int x = lerp(mStartAnchorDimens.x, mEndAnchorDimens.x, fraction) + mOffsetX;
+                final int y = lerp(mStartAnchorDimens.y, mEndAnchorDimens.y, fraction) + mOffsetY;
+                mPopup.update(x, y, -1, -1);
+            }
+            return insets;
+        }
+
+        @Override
+        public void onEnd(@NonNull WindowInsetsAnimation animation) {
+            if (animation != mImeAnimation) {
+                return;
+            }
+            reset();
+            if (isShowing()) {
+                updatePosition();
+            }
+        }
+
+        void reset() {
+            mImeAnimation = null;
+            mStartAnchorDimens = null;
+            mEndAnchorDimens = null;
+            mImeAnimating = false;
+        }
+    }
+
+    private static int lerp(int start, int end, float fraction) {
+        return Math.round(start + (end - start) * fraction);
     }
     
     public static class BubbleCoachMarkBuilder extends InternallyAnchoredCoachMarkBuilder {
 
         // Optional parameters with default values
         boolean showBelowAnchor = false;
+        boolean followImeAnimation = false;
         float target = 0.5f;
         @ColorInt int bubbleColor;
         
@@ -184,6 +356,27 @@ public class BubbleCoachMark extends InternallyAnchoredCoachMark {
             return this;
         }
         
+        /**
+         * Move the bubble along with its anchor while the soft keyboard animates
+         * in or out, rather than following it a few frames late. This has no
+         * effect below Android 11 (30).
+         * <p>
+         * A view has only one {@link WindowInsetsAnimation.Callback}, so while the
+         * bubble is showing it takes over the anchor's, replacing any callback the
+         * app set on the anchor, and clears it when the bubble is dismissed.
+         * Callbacks set on the anchor's ancestors are unaffected, so an app which
+         * needs its own callback should set it on a parent of the anchor, with
+         * {@link WindowInsetsAnimation.Callback#DISPATCH_MODE_CONTINUE_ON_SUBTREE}
+         * so that the animation still reaches the anchor.
+         *
+         * @param followImeAnimation
+         *      true if this coach mark should follow IME animations
+         */
+        public BubbleCoachMarkBuilder setFollowImeAnimation(boolean followImeAnimation) {
+            this.followImeAnimation = followImeAnimation;
+            return this;
+        }
+        
         /**
          * Set the position of the pointy mark along the anchor
          * 
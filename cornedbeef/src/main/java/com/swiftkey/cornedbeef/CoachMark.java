@@ -1,16 +1,22 @@
 package com.swiftkey.cornedbeef;
 
+import android.app.Activity;
+import android.content.ComponentCallbacks;
 import android.content.Context;
+import android.content.res.Configuration;
 import android.graphics.Color;
 import android.graphics.Point;
 import android.graphics.Rect;
 import android.graphics.drawable.ColorDrawable;
+import android.os.SystemClock;
 import android.util.TypedValue;
+import android.view.Display;
 import android.view.Gravity;
 import android.view.LayoutInflater;
 import android.view.MotionEvent;
 import android.view.View;
 import android.view.View.OnAttachStateChangeListener;
+import android.view.View.OnLayoutChangeListener;
 import android.view.View.OnTouchListener;
 import android.view.ViewTreeObserver.OnPreDrawListener;
 import android.view.WindowManager;
@@ -20,11 +26,16 @@ import android.widget.TextView;
 import androidx.annotation.ColorInt;
 import androidx.annotation.IntDef;
 import androidx.annotation.LayoutRes;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 import androidx.annotation.Px;
 import androidx.annotation.StyleRes;
 
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 /**
  * A CoachMark is a temporary popup that can be positioned above a {@link View}
@@ -89,23 +100,58 @@ public abstract class CoachMark {
     protected final Context mContext;
     protected final View mTokenView;
     protected final View mAnchor;
+    protected final AnchorProvider mAnchorProvider;
     @Px protected final int mPadding;
+    @CoachMarkRenderProfile.Tier protected final int mRenderTier;
 
     private final OnPreDrawListener mPreDrawListener;
     private final OnDismissListener mDismissListener;
     private final OnShowListener mShowListener;
     private final OnAttachStateChangeListener mOnAttachStateChangeListener;
+    private final AnchorProvider.OnAnchorChangedListener mAnchorChangedListener;
+    private final ComponentCallbacks mComponentCallbacks;
+    private final OnLayoutChangeListener mRootLayoutChangeListener;
     private final OnTimeoutListener mTimeoutListener;
     private final long mTimeoutInMs;
     private final boolean mShouldDismissOnAnchorDetach;
     protected final boolean mPopupFitsSystemWindows;
+    protected final boolean mNonModal;
+    private final TouchForwarder mTouchForwarder = new TouchForwarder();
+    private final String mId;
+    private final String mTraceSliceName;
+    private final CoachMarkMetrics.Recorder mMetricsRecorder;
+    protected final CoachMarkSeenStore mSeenStore;
+    private final int mMaxShowCount;
 
     private Runnable mTimeoutDismissRunnable;
+    private long mShowTimeMs;
+    private boolean mDismissingSilently;
+    private boolean mRestored;
+    private boolean mActive;
+    private boolean mFocusable;
+    private SharedTimeout mSharedTimeout;
+    private OnDismissListener mTourDismissListener;
+
+    // The transactions opened by showAll and dismissAll, which are only used on the UI thread
+    private static ShowTransaction sShowTransaction;
+    private static List<OnDismissListener> sDismissTransaction;
 
-    protected Rect mDisplayFrame;
+    /**
+     * The visible display frame of the anchor's window. This is cached while
+     * the coach mark is showing and only refreshed after the window's root
+     * view has been laid out again or the configuration has changed.
+     */
+    protected final Rect mDisplayFrame = new Rect();
+    private final Rect mNewDisplayFrame = new Rect();
+    private final int[] mTokenRootViewLoc = new int[2];
+    private boolean mDisplayFrameStale = true;
+    private View mAnchorRootView;
+    private View mTokenRootView;
 
     protected CoachMark(CoachMarkBuilder builder) {
+        mMetricsRecorder = CoachMarkMetrics.startRecording(System.nanoTime());
         mAnchor = builder.anchor;
+        mAnchorProvider = builder.anchorProvider;
         mContext = builder.context;
         mTimeoutInMs = builder.timeout;
         mDismissListener = builder.dismissListener;
@@ -117,18 +163,36 @@ public abstract class CoachMark {
                 mContext.getResources().getDisplayMetrics());
         mShouldDismissOnAnchorDetach = builder.shouldDismissOnAnchorDetach;
         mPopupFitsSystemWindows = builder.popupWindowFitToWindow;
+        mNonModal = builder.nonModal;
+        mId = builder.id;
+        mSeenStore = builder.seenStore;
+        mMaxShowCount = builder.maxShowCount;
+        mRenderTier = CoachMarkRenderProfile.resolveTier(mContext, builder.renderTier);
+
+        mTraceSliceName = CoachMarkTrace.getSliceName(this, mId);
 
         // Create the coach mark view
-        View view = createContentView(builder.content, builder);
+        CoachMarkTrace.beginSection(CoachMarkTrace.CREATE_CONTENT_VIEW);
+        CoachMarkStrictMode.onInflateOrMeasure("Creating the coach mark view");
+        View view;
+        try {
+            view = createContentView(builder.content, builder);
+        } finally {
+            CoachMarkTrace.endSection();
+        }
 
         // Create and initialise the PopupWindow
-        mPopup = createNewPopupWindow(view);
+        CoachMarkTrace.beginSection(CoachMarkTrace.CREATE_POPUP_WINDOW);
+        try {
+            mPopup = createNewPopupWindow(view);
+        } finally {
+            CoachMarkTrace.endSection();
+        }
         if (mPopupFitsSystemWindows) {
             mPopup.setWidth(WindowManager.LayoutParams.MATCH_PARENT);
             mPopup.setHeight(WindowManager.LayoutParams.MATCH_PARENT);
-            mPopup.setFocusable(true); // full screen must be focusable
         }
-        mPopup.setAnimationStyle(builder.animationStyle);
+        mPopup.setAnimationStyle(isLowRenderTier() ? NO_ANIMATION : builder.animationStyle);
         mPopup.setInputMethodMode(PopupWindow.INPUT_METHOD_NOT_NEEDED);
         if (builder.popupWindowBackgroundColor != null) {
             mPopup.setBackgroundDrawable(new ColorDrawable(builder.popupWindowBackgroundColor));
@@ -138,6 +202,14 @@ public abstract class CoachMark {
 
         mPreDrawListener = new CoachMarkPreDrawListener();
         mOnAttachStateChangeListener = new CoachMarkOnAttachStateChangeListener();
+        mAnchorChangedListener = new CoachMarkOnAnchorChangedListener();
+        mComponentCallbacks = new CoachMarkComponentCallbacks();
+        mRootLayoutChangeListener = new CoachMarkRootLayoutChangeListener();
+
+        if (mMetricsRecorder != null) {
+            mMetricsRecorder.onBuilt();
+        }
+        CoachMarkStrictMode.onBuilt(this);
     }
 
     /**
@@ -151,7 +223,8 @@ public abstract class CoachMark {
     protected abstract PopupWindow createNewPopupWindow(View contentView);
 
     /**
-     * Get the dimensions of the anchor view
+     * Get the dimensions of the anchor view, or of the region supplied by
+     * {@link CoachMark#mAnchorProvider} if one was set
      */
     protected abstract CoachMarkDimens<Integer> getAnchorDimens();
 
@@ -166,16 +239,151 @@ public abstract class CoachMark {
     protected abstract void updateView(CoachMarkDimens<Integer> popupDimens, CoachMarkDimens<Integer> anchorDimens);
 
     /**
-     * Show the coach mark and start listening for changes to the anchor view
+     * Whether the popup window covers the whole screen, rather than being
+     * positioned and sized to the dimensions returned by
+     * {@link #getPopupDimens(CoachMarkDimens)}. By default this is the case
+     * when {@link CoachMarkBuilder#setPopupWindowFitsSystemWindows(boolean)}
+     * is set.
+     */
+    protected boolean isPopupFullScreen() {
+        return mPopupFitsSystemWindows;
+    }
+
+    /**
+     * Whether the coach mark is rendered on the low tier, without entrance
+     * animations and with simpler holes
+     *
+     * @see CoachMarkRenderProfile
+     */
+    protected boolean isLowRenderTier() {
+        return mRenderTier == CoachMarkRenderProfile.TIER_LOW;
+    }
+
+    /**
+     * Whether a touch stream starting at the given point should be passed
+     * through to the window underneath when the coach mark is non-modal, e.g.
+     * because it is inside a punch hole or outside of the coach mark's content
+     *
+     * @param x the x coordinate relative to the popup window
+     * @param y the y coordinate relative to the popup window
+     * @see CoachMarkBuilder#setNonModal(boolean)
+     */
+    protected boolean isPassThrough(float x, float y) {
+        return false;
+    }
+
+    /**
+     * Called while the coach mark is showing when the device configuration
+     * changes, so that subclasses can refresh any resources or layout
+     * direction dependent values they resolved up front
+     */
+    protected void onConfigurationChanged(Configuration newConfig) {
+    }
+
+    /**
+     * Called before the coach mark is positioned when {@link CoachMark#mDisplayFrame}
+     * has changed, e.g. after rotation, a multi-window resize or the status bar
+     * being shown or hidden, so that subclasses can recompute any geometry which
+     * depends on it
+     */
+    protected void onDisplayFrameChanged() {
+    }
+
+    /**
+     * Get the location on screen of the root view of {@link CoachMark#mTokenView},
+     * which is cached in the same way as {@link CoachMark#mDisplayFrame}
+     *
+     * @return the cached location, which must not be modified
+     */
+    protected int[] getTokenRootViewLocationOnScreen() {
+        updateDisplayFrame();
+        return mTokenRootViewLoc;
+    }
+
+    /**
+     * Get the ID given to this coach mark by {@link CoachMarkBuilder#setId(String)}, if any
+     */
+    public String getId() {
+        return mId;
+    }
+
+    /**
+     * Check whether this coach mark has already been shown as many times as
+     * allowed by its {@link CoachMarkSeenStore}
+     *
+     * @see CoachMarkBuilder#isSuppressed()
+     */
+    public boolean isSuppressed() {
+        return isSuppressed(mSeenStore, mId, mMaxShowCount);
+    }
+
+    private static boolean isSuppressed(CoachMarkSeenStore seenStore, String id, int maxShowCount) {
+        return seenStore != null && id != null && seenStore.getShowCount(id) >= maxShowCount;
+    }
+
+    /**
+     * Show the coach mark and start listening for changes to the anchor view.
+     * This does nothing if the coach mark is already showing.
+     * <p>
+     * If showing it fails, anything already set up is undone, without calling
+     * the dismiss listener, before the exception is rethrown.
      */
     public void show() {
-        // It is assumed that the displayFrame will not change for as long as
-        // the coach mark is visible - otherwise, the positioning may be off
-        mDisplayFrame = getDisplayFrame(mAnchor);
-        final CoachMarkDimens<Integer> anchorDimens = getAnchorDimens();
+        if (mActive) {
+            return;
+        }
+        CoachMarkTrace.beginSection(CoachMarkTrace.SHOW);
+        try {
+            showInternal();
+        } catch (RuntimeException | Error e) {
+            dismissSilently();
+            throw e;
+        } finally {
+            CoachMarkTrace.endSection();
+        }
+    }
+
+    private void showInternal() {
+        mActive = true;
+        mShowTimeMs = SystemClock.uptimeMillis();
+        CoachMarkTrace.beginAsyncSection(mTraceSliceName, System.identityHashCode(this));
+        if (mMetricsRecorder != null) {
+            mMetricsRecorder.onShow();
+        }
+
+        // The display frame is tracked through layout changes of the root views
+        // for as long as the coach mark is visible
+        mAnchorRootView = mAnchor.getRootView();
+        mTokenRootView = mTokenView.getRootView();
+        mAnchorRootView.addOnLayoutChangeListener(mRootLayoutChangeListener);
+        if (mTokenRootView != mAnchorRootView) {
+            mTokenRootView.addOnLayoutChangeListener(mRootLayoutChangeListener);
+        }
+        CoachMarkTrace.beginSection(CoachMarkTrace.FIRST_GEOMETRY);
+        final CoachMarkDimens<Integer> popupDimens;
+        try {
+            mDisplayFrameStale = true;
+            updateDisplayFrame();
+            final CoachMarkDimens<Integer> anchorDimens = getAnchorDimens();
+
+            popupDimens = getPopupDimens(anchorDimens);
+            updateView(popupDimens, anchorDimens);
+        } finally {
+            CoachMarkTrace.endSection();
+        }
 
-        final CoachMarkDimens<Integer> popupDimens = getPopupDimens(anchorDimens);
-        updateView(popupDimens, anchorDimens);
+        mAnchor.getViewTreeObserver().addOnPreDrawListener(mPreDrawListener);
+        if (mAnchorProvider != null) {
+            mAnchorProvider.addOnAnchorChangedListener(mAnchorChangedListener);
+        }
+        mContext.registerComponentCallbacks(mComponentCallbacks);
+        mAnchor.addOnAttachStateChangeListener(mOnAttachStateChangeListener);
+
+        if (sShowTransaction != null) {
+            // The window is added once every coach mark in the transaction has been laid out
+            sShowTransaction.add(this, popupDimens);
+            return;
+        }
 
         // Dismiss coach mark after the timeout has passed if it is greater than 0.
         if (mTimeoutInMs > 0) {
@@ -194,37 +402,261 @@ public abstract class CoachMark {
             };
             getContentView().postDelayed(mTimeoutDismissRunnable, mTimeoutInMs);
         }
+        showPopup(popupDimens);
+        onPopupShown();
+    }
 
-        if (mPopupFitsSystemWindows) {
+    /**
+     * Add the popup window at the position computed by {@link #show()}
+     */
+    private void showPopup(CoachMarkDimens<Integer> popupDimens) {
+        // A full screen window must be focusable, but a smaller one is only if asked for
+        mPopup.setFocusable(mFocusable || isPopupFullScreen());
+        if (isPopupFullScreen()) {
             mPopup.showAtLocation(mTokenView, Gravity.NO_GRAVITY, 0, 0);
         } else {
             mPopup.showAtLocation(mTokenView, Gravity.NO_GRAVITY, popupDimens.x, popupDimens.y);
             mPopup.setWidth(popupDimens.width);
         }
+        if (mMetricsRecorder != null) {
+            final Display display = mTokenView.getDisplay();
+            mMetricsRecorder.onPopupAdded(mPopup.getContentView().getViewTreeObserver(),
+                    popupDimens, display != null ? display.getRefreshRate() : 0);
+        }
+    }
 
-        mAnchor.getViewTreeObserver().addOnPreDrawListener(mPreDrawListener);
+    /**
+     * Record that the coach mark has been shown and notify its listener
+     */
+    private void onPopupShown() {
+        if (mSeenStore != null && mId != null && !mRestored) {
+            mSeenStore.recordShown(mId);
+        }
         if (mShowListener != null) {
             mShowListener.onShow();
         }
-        mAnchor.addOnAttachStateChangeListener(mOnAttachStateChangeListener);
     }
 
     /**
-     * Dismiss the coach mark and stop listening for changes to the anchor view
+     * Dismiss the coach mark and stop listening for changes to the anchor view.
+     * This does nothing if the coach mark is not showing.
      */
     public void dismiss() {
+        if (!mActive) {
+            return;
+        }
+        CoachMarkTrace.beginSection(CoachMarkTrace.DISMISS);
+        try {
+            dismissInternal();
+        } finally {
+            CoachMarkTrace.endSection();
+        }
+    }
+
+    /**
+     * Dismiss the coach mark, if it is showing, without calling its dismiss listener
+     */
+    private void dismissSilently() {
+        mDismissingSilently = true;
+        try {
+            dismiss();
+        } finally {
+            mDismissingSilently = false;
+        }
+    }
+
+    private void dismissInternal() {
+        mActive = false;
+        CoachMarkTrace.endAsyncSection(mTraceSliceName, System.identityHashCode(this));
         mAnchor.destroyDrawingCache();
         mAnchor.removeOnAttachStateChangeListener(mOnAttachStateChangeListener);
         mAnchor.getViewTreeObserver().removeOnPreDrawListener(mPreDrawListener);
+        if (mAnchorProvider != null) {
+            mAnchorProvider.removeOnAnchorChangedListener(mAnchorChangedListener);
+        }
+        mContext.unregisterComponentCallbacks(mComponentCallbacks);
+        if (mAnchorRootView != null) {
+            mAnchorRootView.removeOnLayoutChangeListener(mRootLayoutChangeListener);
+            mTokenRootView.removeOnLayoutChangeListener(mRootLayoutChangeListener);
+            mAnchorRootView = null;
+            mTokenRootView = null;
+        }
         mPopup.getContentView().removeCallbacks(mTimeoutDismissRunnable);
+        if (mSharedTimeout != null) {
+            mSharedTimeout.remove(this);
+            mSharedTimeout = null;
+        }
+
+        if (mMetricsRecorder != null) {
+            mMetricsRecorder.flush(getClass().getSimpleName(), mId,
+                    mAnchor.getViewTreeObserver(), mContext.getResources().getInteger(
+                            android.R.integer.config_shortAnimTime));
+        }
 
         mPopup.dismiss();
 
-        if (mDismissListener != null) {
-            mDismissListener.onDismiss();
+        if (!mDismissingSilently) {
+            notifyDismissed(mDismissListener);
+            notifyDismissed(mTourDismissListener);
         }
     }
 
+    private static void notifyDismissed(OnDismissListener listener) {
+        if (listener == null) {
+            return;
+        }
+        if (sDismissTransaction != null) {
+            sDismissTransaction.add(listener);
+        } else {
+            listener.onDismiss();
+        }
+    }
+
+    /**
+     * Show several coach marks at once, e.g. all of the coach marks for a screen.
+     * <p>
+     * The geometry of every coach mark is computed before any of their windows
+     * are added, and the windows are then added one after another so that they
+     * all appear in the same frame. Rather than each having its own timeout,
+     * the coach marks which have a timeout are dismissed together when the
+     * shortest of their timeouts has passed.
+     * <p>
+     * If any of the coach marks fails to show, those which were already laid
+     * out or added are dismissed, without calling their dismiss listeners,
+     * before the exception is rethrown.
+     * <p>
+     * This must be called on the UI thread.
+     */
+    public static void showAll(CoachMark... coachMarks) {
+        showAll(Arrays.asList(coachMarks));
+    }
+
+    /**
+     * @see #showAll(CoachMark...)
+     */
+    public static void showAll(List<? extends CoachMark> coachMarks) {
+        if (sShowTransaction != null) {
+            // Nested calls join the outer transaction
+            for (CoachMark coachMark : coachMarks) {
+                coachMark.show();
+            }
+            return;
+        }
+        final ShowTransaction transaction = new ShowTransaction(coachMarks.size());
+        sShowTransaction = transaction;
+        try {
+            for (CoachMark coachMark : coachMarks) {
+                coachMark.show();
+            }
+        } catch (RuntimeException | Error e) {
+            sShowTransaction = null;
+            transaction.abort();
+            throw e;
+        } finally {
+            sShowTransaction = null;
+        }
+        transaction.commit();
+    }
+
+    /**
+     * Dismiss several coach marks at once. Every window is removed before any
+     * of the dismiss listeners are called, and coach marks which are not
+     * showing, or which are dismissed more than once, are skipped.
+     * <p>
+     * This must be called on the UI thread.
+     */
+    public static void dismissAll(CoachMark... coachMarks) {
+        dismissAll(Arrays.asList(coachMarks));
+    }
+
+    /**
+     * @see #dismissAll(CoachMark...)
+     */
+    public static void dismissAll(List<? extends CoachMark> coachMarks) {
+        if (sDismissTransaction != null) {
+            // Nested calls join the outer transaction
+            for (CoachMark coachMark : coachMarks) {
+                coachMark.dismiss();
+            }
+            return;
+        }
+        final List<OnDismissListener> listeners = new ArrayList<>(coachMarks.size());
+        sDismissTransaction = listeners;
+        try {
+            for (CoachMark coachMark : coachMarks) {
+                coachMark.dismiss();
+            }
+        } finally {
+            sDismissTransaction = null;
+        }
+        for (OnDismissListener listener : listeners) {
+            listener.onDismiss();
+        }
+    }
+
+    /**
+     * Dismiss this coach mark so that it can be shown again once its activity
+     * has been recreated, e.g. after rotation or a dark mode switch, without
+     * its timeout starting over or it being recorded as shown again. Its
+     * dismiss listener is not called.
+     * <p>
+     * The returned state holds no references to views or contexts, so it can
+     * be kept across the recreation, e.g. in a ViewModel, and then passed to
+     * {@link RetainedState#restore(Activity, RetainedState.Factory)}.
+     *
+     * @throws IllegalStateException if the anchor view does not have an ID
+     */
+    public RetainedState retain() {
+        if (mAnchor.getId() == View.NO_ID) {
+            throw new IllegalStateException(
+                    "The anchor view must have an ID for the coach mark to be retained");
+        }
+        return retainState();
+    }
+
+    /**
+     * Dismiss this coach mark, returning the state needed to show it again
+     *
+     * @see #retain()
+     */
+    RetainedState retainState() {
+        long timeoutInMs = mTimeoutInMs;
+        if (timeoutInMs > 0 && isShowing()) {
+            // Coach marks shown together are dismissed by their shared timeout
+            final long deadlineMs = mSharedTimeout != null
+                    ? mSharedTimeout.mDeadlineMs : mShowTimeMs + mTimeoutInMs;
+            timeoutInMs = Math.max(1, deadlineMs - SystemClock.uptimeMillis());
+        }
+        final RetainedState state = new RetainedState(mAnchor.getId(),
+                mTokenView != mAnchor ? mTokenView.getId() : View.NO_ID, timeoutInMs);
+        if (isShowing()) {
+            dismissSilently();
+        }
+        return state;
+    }
+
+    /**
+     * Set the listener of the {@link CoachMarkTour} which shows this coach
+     * mark, which is called after the listener set on its builder
+     */
+    void setTourDismissListener(OnDismissListener listener) {
+        mTourDismissListener = listener;
+    }
+
+    /**
+     * @return whether the coach mark has been shown and not yet dismissed
+     */
+    boolean isActive() {
+        return mActive;
+    }
+
+    /**
+     * @return whether the coach mark has ever been shown
+     */
+    boolean wasShown() {
+        return mShowTimeMs != 0;
+    }
+
     /**
      * Exposes the {@link PopupWindow#getContentView()} method of {@link CoachMark#mPopup}
      */
@@ -256,6 +688,7 @@ public abstract class CoachMark {
      * @param focusable whether or not this coach mark can be focused
      */
     public void setFocusable(boolean focusable) {
+        mFocusable = focusable;
         mPopup.setFocusable(focusable);
     }
 
@@ -267,36 +700,130 @@ public abstract class CoachMark {
     }
 
     /**
-     * Get the visible display size of the window this view is attached to
+     * Refresh {@link CoachMark#mDisplayFrame} and the token root view location
+     * if they may have changed, calling {@link CoachMark#onDisplayFrameChanged()}
+     * if the display frame has actually changed
      */
-    private static Rect getDisplayFrame(View view) {
-        final Rect displayFrame = new Rect();
-        view.getWindowVisibleDisplayFrame(displayFrame);
-        return displayFrame;
+    private void updateDisplayFrame() {
+        // Changes are only tracked while the coach mark is showing
+        if (!mDisplayFrameStale && mAnchorRootView != null) {
+            return;
+        }
+        mDisplayFrameStale = false;
+        mTokenView.getRootView().getLocationOnScreen(mTokenRootViewLoc);
+        mAnchor.getWindowVisibleDisplayFrame(mNewDisplayFrame);
+        if (!mNewDisplayFrame.equals(mDisplayFrame)) {
+            mDisplayFrame.set(mNewDisplayFrame);
+            onDisplayFrameChanged();
+        }
     }
 
     /**
-     * Listener which is used to update the position of the coach mark when the
-     * position of the anchor view is about to change
+     * Update the position of the coach mark to follow its anchor, or dismiss
+     * it if the anchor is no longer shown. Subclasses may call this when
+     * something other than the anchor, e.g. a target, has changed.
      */
-    private class CoachMarkPreDrawListener implements OnPreDrawListener {
+    protected void updatePosition() {
+        if (mAnchor != null && mAnchor.isShown()) {
+            CoachMarkTrace.beginSection(CoachMarkTrace.UPDATE_POSITION);
+            try {
+                updateDisplayFrame();
 
-        @Override
-        public boolean onPreDraw() {
-            if (mAnchor != null && mAnchor.isShown()) {
+                CoachMarkTrace.beginSection(CoachMarkTrace.GET_ANCHOR_DIMENS);
                 CoachMarkDimens<Integer> anchorDimens = getAnchorDimens();
+                CoachMarkTrace.endSection();
+
+                CoachMarkTrace.beginSection(CoachMarkTrace.GET_POPUP_DIMENS);
                 CoachMarkDimens<Integer> popupDimens = getPopupDimens(anchorDimens);
+                CoachMarkTrace.endSection();
+
+                CoachMarkTrace.beginSection(CoachMarkTrace.UPDATE_VIEW);
+                final long updateViewStartNanos = mMetricsRecorder != null ? System.nanoTime() : 0;
+                final int allocCount = CoachMarkStrictMode.beginFrameAllocations();
                 updateView(popupDimens, anchorDimens);
-                if (!mPopupFitsSystemWindows) {
+                CoachMarkStrictMode.endFrameAllocations(this, allocCount);
+                if (mMetricsRecorder != null) {
+                    mMetricsRecorder.onUpdateView(System.nanoTime() - updateViewStartNanos);
+                }
+                CoachMarkTrace.endSection();
+
+                final boolean updatePopup = !isPopupFullScreen();
+                if (updatePopup) {
+                    CoachMarkTrace.beginSection(CoachMarkTrace.UPDATE_POPUP);
                     mPopup.update(popupDimens.x, popupDimens.y, popupDimens.width, popupDimens.height);
+                    CoachMarkTrace.endSection();
                 }
-            } else {
-                dismiss();
+                if (mMetricsRecorder != null) {
+                    mMetricsRecorder.onPopupDimens(popupDimens, updatePopup);
+                }
+            } finally {
+                CoachMarkTrace.endSection();
             }
+        } else {
+            dismiss();
+        }
+    }
+
+    /**
+     * Listener which is used to update the position of the coach mark when the
+     * position of the anchor view is about to change
+     */
+    private class CoachMarkPreDrawListener implements OnPreDrawListener {
+
+        @Override
+        public boolean onPreDraw() {
+            if (mMetricsRecorder != null) {
+                mMetricsRecorder.onPreDraw();
+            }
+            updatePosition();
             return true;
         }
     }
 
+    /**
+     * Listener which is used to update the position of the coach mark when the
+     * bounds supplied by its {@link AnchorProvider} change outside of a draw pass
+     */
+    private class CoachMarkOnAnchorChangedListener implements AnchorProvider.OnAnchorChangedListener {
+
+        @Override
+        public void onAnchorChanged() {
+            if (mPopup.isShowing()) {
+                updatePosition();
+            }
+        }
+    }
+
+    /**
+     * Callbacks which are used to notify the coach mark of configuration changes
+     */
+    private class CoachMarkComponentCallbacks implements ComponentCallbacks {
+
+        @Override
+        public void onConfigurationChanged(Configuration newConfig) {
+            mDisplayFrameStale = true;
+            CoachMark.this.onConfigurationChanged(newConfig);
+        }
+
+        @Override
+        public void onLowMemory() {
+        }
+    }
+
+    /**
+     * Listener which is used to mark the display frame as stale when a root
+     * view is laid out, which happens whenever its window is resized or its
+     * insets change
+     */
+    private class CoachMarkRootLayoutChangeListener implements OnLayoutChangeListener {
+
+        @Override
+        public void onLayoutChange(View v, int left, int top, int right, int bottom,
+                int oldLeft, int oldTop, int oldRight, int oldBottom) {
+            mDisplayFrameStale = true;
+        }
+    }
+
     /**
      * Listener may be used to dismiss the coach mark when its anchor detaches
      */
@@ -311,16 +838,42 @@ public abstract class CoachMark {
             if (mShouldDismissOnAnchorDetach) {
                 dismiss();
             }
+            CoachMarkStrictMode.onAnchorDetached(CoachMark.this);
+        }
+    }
+
+    /**
+     * Touch interceptor which passes touch streams through to the window
+     * underneath when the coach mark is non-modal and
+     * {@link CoachMark#isPassThrough(float, float)} is true where they start
+     */
+    protected class CoachMarkPassThroughTouchListener implements OnTouchListener {
+
+        @Override
+        public boolean onTouch(View v, MotionEvent event) {
+            if (!mNonModal) {
+                return false;
+            }
+            if (event.getActionMasked() == MotionEvent.ACTION_DOWN) {
+                if (!isPassThrough(event.getX(), event.getY())) {
+                    return false;
+                }
+                mTouchForwarder.start(v, mTokenView.getRootView());
+            }
+            return mTouchForwarder.forward(event);
         }
     }
 
     /**
      * Listener may be used to dismiss the coach mark when it is touched
      */
-    protected class CoachMarkOnTouchListener implements OnTouchListener {
+    protected class CoachMarkOnTouchListener extends CoachMarkPassThroughTouchListener {
 
         @Override
         public boolean onTouch(View v, MotionEvent event) {
+            if (super.onTouch(v, event)) {
+                return true;
+            }
             switch (event.getAction()) {
                 case MotionEvent.ACTION_UP:
                     dismiss();
@@ -332,6 +885,128 @@ public abstract class CoachMark {
         }
     }
 
+    /**
+     * The coach marks shown by {@link CoachMark#showAll(List)}, whose windows
+     * are added together once all of them have been laid out
+     */
+    private static class ShowTransaction {
+
+        private final List<CoachMark> mCoachMarks;
+        private final List<CoachMarkDimens<Integer>> mPopupDimens;
+
+        ShowTransaction(int size) {
+            mCoachMarks = new ArrayList<>(size);
+            mPopupDimens = new ArrayList<>(size);
+        }
+
+        void add(CoachMark coachMark, CoachMarkDimens<Integer> popupDimens) {
+            mCoachMarks.add(coachMark);
+            mPopupDimens.add(popupDimens);
+        }
+
+        /**
+         * Dismiss the coach marks which were laid out, or whose windows were
+         * added, after one of the transaction's coach marks failed to show
+         */
+        void abort() {
+            for (CoachMark coachMark : mCoachMarks) {
+                coachMark.dismissSilently();
+            }
+        }
+
+        void commit() {
+            final int size = mCoachMarks.size();
+            // Coach marks may have been dismissed while the others were laid out
+            try {
+                for (int i = 0; i < size; i++) {
+                    final CoachMark coachMark = mCoachMarks.get(i);
+                    if (coachMark.mActive) {
+                        coachMark.showPopup(mPopupDimens.get(i));
+                    }
+                }
+            } catch (RuntimeException | Error e) {
+                abort();
+                throw e;
+            }
+
+            final List<CoachMark> timed = new ArrayList<>(size);
+            long timeoutInMs = 0;
+            for (int i = 0; i < size; i++) {
+                final CoachMark coachMark = mCoachMarks.get(i);
+                if (coachMark.mActive && coachMark.mTimeoutInMs > 0) {
+                    timed.add(coachMark);
+                    timeoutInMs = timeoutInMs == 0 ? coachMark.mTimeoutInMs
+                            : Math.min(timeoutInMs, coachMark.mTimeoutInMs);
+                }
+            }
+            if (!timed.isEmpty()) {
+                final SharedTimeout sharedTimeout = new SharedTimeout(timed.get(0).mTokenView, timed);
+                for (CoachMark coachMark : timed) {
+                    coachMark.mSharedTimeout = sharedTimeout;
+                }
+                sharedTimeout.post(timeoutInMs);
+            }
+
+            for (int i = 0; i < size; i++) {
+                final CoachMark coachMark = mCoachMarks.get(i);
+                if (coachMark.mActive) {
+                    coachMark.onPopupShown();
+                }
+            }
+        }
+    }
+
+    /**
+     * A single timeout shared by the coach marks shown by
+     * {@link CoachMark#showAll(List)}, which dismisses those still showing together
+     */
+    private static class SharedTimeout implements Runnable {
+
+        private final View mHost;
+        private final List<CoachMark> mCoachMarks;
+        private long mDeadlineMs;
+
+        SharedTimeout(View host, List<CoachMark> coachMarks) {
+            mHost = host;
+            mCoachMarks = coachMarks;
+        }
+
+        void post(long timeoutInMs) {
+            mDeadlineMs = SystemClock.uptimeMillis() + timeoutInMs;
+            mHost.postDelayed(this, timeoutInMs);
+        }
+
+        void remove(CoachMark coachMark) {
+            mCoachMarks.remove(coachMark);
+            if (mCoachMarks.isEmpty()) {
+                mHost.removeCallbacks(this);
+            }
+        }
+
+        @Override
+        public void run() {
+            final List<CoachMark> showing = new ArrayList<>(mCoachMarks.size());
+            for (CoachMark coachMark : mCoachMarks) {
+                coachMark.mSharedTimeout = null;
+                if (coachMark.mPopup.isShowing()) {
+                    showing.add(coachMark);
+                }
+            }
+            mCoachMarks.clear();
+            for (CoachMark coachMark : showing) {
+                if (coachMark.mTimeoutListener != null) {
+                    coachMark.mTimeoutListener.onTimeout();
+                }
+            }
+            try {
+                dismissAll(showing);
+            } catch (IllegalArgumentException e) {
+                // Closes #19 - popup has already been removed outside of CornedBeef's
+                // control
+            }
+        }
+    }
+
     /**
      * An {@link android.view.View.OnClickListener} which wraps an
      * existing listener with a call to {@link CoachMark#dismiss()}
@@ -374,12 +1049,119 @@ public abstract class CoachMark {
         }
     }
 
+    /**
+     * Get dimensions with the given values for a coach mark which computes
+     * them on every frame. As dimensions are immutable the previous ones are
+     * returned if nothing has changed, and otherwise the boxes of any values
+     * which haven't changed are kept, so following a still anchor doesn't allocate.
+     *
+     * @param previous the dimensions returned for the previous frame, or null
+     */
+    static CoachMarkDimens<Integer> updateDimens(@Nullable CoachMarkDimens<Integer> previous,
+            int x, int y, int width, int height) {
+        if (previous == null) {
+            return new CoachMarkDimens<>(x, y, width, height);
+        }
+        final boolean sameX = previous.x == x;
+        final boolean sameY = previous.y == y;
+        final boolean sameWidth = previous.width == width;
+        final boolean sameHeight = previous.height == height;
+        if (sameX && sameY && sameWidth && sameHeight) {
+            return previous;
+        }
+        return new CoachMarkDimens<>(
+                sameX ? previous.x : Integer.valueOf(x),
+                sameY ? previous.y : Integer.valueOf(y),
+                sameWidth ? previous.width : Integer.valueOf(width),
+                sameHeight ? previous.height : Integer.valueOf(height));
+    }
+
+    /**
+     * The state of a coach mark saved by {@link CoachMark#retain()}, from which
+     * it can be rebuilt once its activity has been recreated
+     */
+    public static class RetainedState {
+
+        /**
+         * Creates the builder for a coach mark being restored
+         */
+        public interface Factory {
+            /**
+             * Create the builder for the coach mark, in the same way as it was
+             * originally created. Its timeout and token view are restored after
+             * this returns.
+             *
+             * @param context the recreated activity
+             * @param anchor the view in the recreated activity with the original anchor's ID
+             */
+            CoachMarkBuilder createBuilder(@NonNull Context context, @NonNull View anchor);
+        }
+
+        private final int mAnchorId;
+        private final int mTokenViewId;
+        private final long mTimeoutInMs;
+
+        RetainedState(int anchorId, int tokenViewId, long timeoutInMs) {
+            mAnchorId = anchorId;
+            mTokenViewId = tokenViewId;
+            mTimeoutInMs = timeoutInMs;
+        }
+
+        /**
+         * @return the ID of the original anchor view
+         */
+        public int getAnchorId() {
+            return mAnchorId;
+        }
+
+        /**
+         * @return the time in milliseconds that was left before the coach mark timed out,
+         * or 0 if it had no timeout
+         */
+        public long getRemainingTimeout() {
+            return mTimeoutInMs;
+        }
+
+        /**
+         * Rebuild the coach mark in a recreated activity, anchored to the view
+         * with the same ID as the original anchor. The coach mark is returned
+         * ready to be shown, e.g. once the anchor has been laid out.
+         *
+         * @param activity the recreated activity
+         * @param factory creates the builder for the coach mark
+         * @return the rebuilt coach mark, or null if there is no view with the anchor's ID
+         */
+        @Nullable
+        public CoachMark restore(@NonNull Activity activity, @NonNull Factory factory) {
+            final View anchor = activity.findViewById(mAnchorId);
+            if (anchor == null) {
+                return null;
+            }
+            return build(factory.createBuilder(activity, anchor));
+        }
+
+        /**
+         * Build the coach mark from the given builder, restoring its remaining
+         * timeout and its token view if the builder doesn't set one
+         */
+        CoachMark build(CoachMarkBuilder builder) {
+            builder.setTimeout(mTimeoutInMs);
+            if (builder.tokenView == null && mTokenViewId != View.NO_ID) {
+                builder.setTokenView(builder.anchor.getRootView().findViewById(mTokenViewId));
+            }
+            final CoachMark coachMark = builder.build();
+            coachMark.mRestored = true;
+            return coachMark;
+        }
+    }
+
     public abstract static class CoachMarkBuilder {
 
         // Required parameters
         protected Context context;
         protected View anchor;
         protected View content;
+        protected AnchorProvider anchorProvider;
 
         // Optional parameters with default values
         protected long timeout = 10000;
@@ -390,17 +1172,33 @@ public abstract class CoachMark {
         protected OnShowListener showListener;
         protected OnTimeoutListener timeoutListener;
         protected boolean shouldDismissOnAnchorDetach = true;
+        protected String id;
+        protected CoachMarkSeenStore seenStore;
+        protected int maxShowCount = 1;
+        protected boolean nonModal = false;
+        @CoachMarkRenderProfile.Tier
+        protected int renderTier = CoachMarkRenderProfile.TIER_AUTOMATIC;
         private Integer popupWindowBackgroundColor;
         private boolean popupWindowFitToWindow;
 
         public CoachMarkBuilder(Context context, View anchor, String message) {
-            this(context, anchor, LayoutInflater.from(context).inflate(R.layout.coach_mark_text, null, false));
+            this(context, anchor, inflateContent(context, R.layout.coach_mark_text));
             ((TextView) content).setTextColor(Color.WHITE);
             ((TextView) content).setText(message);
         }
 
         public CoachMarkBuilder(Context context, View anchor, @LayoutRes int contentResId) {
-            this(context, anchor, LayoutInflater.from(context).inflate(contentResId, null));
+            this(context, anchor, inflateContent(context, contentResId));
+        }
+
+        private static View inflateContent(Context context, @LayoutRes int contentResId) {
+            CoachMarkTrace.beginSection(CoachMarkTrace.INFLATE);
+            CoachMarkStrictMode.onInflateOrMeasure("Inflating coach mark content");
+            try {
+                return LayoutInflater.from(context).inflate(contentResId, null);
+            } finally {
+                CoachMarkTrace.endSection();
+            }
         }
 
         public CoachMarkBuilder(Context context, View anchor, View content) {
@@ -420,6 +1218,21 @@ public abstract class CoachMark {
             return this;
         }
 
+        /**
+         * Anchor the coach mark to a region supplied by an {@link AnchorProvider}
+         * rather than to the bounds of {@link CoachMarkBuilder#anchor}, e.g. to
+         * point at something drawn onto a {@link android.graphics.Canvas}.
+         * <p>
+         * The anchor view is still used to host the coach mark, so it should be
+         * the view inside which the region is drawn.
+         *
+         * @param anchorProvider the provider of the anchor bounds
+         */
+        public CoachMarkBuilder setAnchorProvider(AnchorProvider anchorProvider) {
+            this.anchorProvider = anchorProvider;
+            return this;
+        }
+
         /**
          * Set the period of time after which the coach mark should be
          * automatically dismissed
@@ -498,6 +1311,80 @@ public abstract class CoachMark {
             return this;
         }
 
+        /**
+         * Make the coach mark non-modal, so that touches inside a punch hole or
+         * outside of the coach mark's content are passed through to the window
+         * underneath, e.g. so that the user can keep scrolling while it is shown.
+         * Touches which are passed through don't reach the coach mark's own
+         * target or global click listeners.
+         *
+         * @param nonModal whether the coach mark should be non-modal
+         */
+        public CoachMarkBuilder setNonModal(boolean nonModal) {
+            this.nonModal = nonModal;
+            return this;
+        }
+
+        /**
+         * Set the tier to render the coach mark with, rather than the one set
+         * for all coach marks or chosen from the device.
+         *
+         * @param renderTier the tier, or {@link CoachMarkRenderProfile#TIER_AUTOMATIC}
+         * @see CoachMarkRenderProfile
+         */
+        public CoachMarkBuilder setRenderTier(@CoachMarkRenderProfile.Tier int renderTier) {
+            this.renderTier = renderTier;
+            return this;
+        }
+
+        /**
+         * Set an ID which identifies this coach mark, e.g. in a {@link CoachMarkSeenStore}
+         *
+         * @param id the coach mark ID
+         */
+        public CoachMarkBuilder setId(String id) {
+            this.id = id;
+            return this;
+        }
+
+        /**
+         * Record each time the coach mark is shown in the given {@link CoachMarkSeenStore},
+         * and suppress it once it has been shown.
+         * The coach mark must also be given an ID with {@link #setId(String)}.
+         *
+         * @param seenStore the store in which to record the coach mark being shown
+         */
+        public CoachMarkBuilder setSeenStore(CoachMarkSeenStore seenStore) {
+            return setSeenStore(seenStore, 1);
+        }
+
+        /**
+         * Record each time the coach mark is shown in the given {@link CoachMarkSeenStore},
+         * and suppress it once it has been shown the given number of times.
+         * The coach mark must also be given an ID with {@link #setId(String)}.
+         *
+         * @param seenStore the store in which to record the coach mark being shown
+         * @param maxShowCount the number of times the coach mark may be shown (defaults to 1)
+         */
+        public CoachMarkBuilder setSeenStore(CoachMarkSeenStore seenStore, int maxShowCount) {
+            this.seenStore = seenStore;
+            this.maxShowCount = maxShowCount;
+            return this;
+        }
+
+        /**
+         * Check whether the coach mark has already been shown as many times as allowed by
+         * its {@link CoachMarkSeenStore}. This is cheap, so it can be used to skip building
+         * (and inflating) coach marks which would be suppressed anyway.
+         * <p>
+         * Until the store has loaded only shows recorded by this process are known.
+         *
+         * @see CoachMarkSeenStore#runWhenLoaded(Runnable)
+         */
+        public boolean isSuppressed() {
+            return CoachMark.isSuppressed(seenStore, id, maxShowCount);
+        }
+
         public CoachMarkBuilder setPopupWindowBackgroundColor(@ColorInt int popupWindowBackgroundColor) {
             this.popupWindowBackgroundColor = popupWindowBackgroundColor;
             return this;
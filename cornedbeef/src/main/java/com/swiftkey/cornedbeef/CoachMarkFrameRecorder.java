@@ -0,0 +1,129 @@
+package com.swiftkey.cornedbeef;
+
+import android.view.Choreographer;
+import android.view.ViewTreeObserver;
+
+/**
+ * Records the duration of the frames drawn by a coach mark's window, for
+ * {@link CoachMarkMetrics#setFrameMetricsEnabled(boolean)}.
+ * <p>
+ * A coach mark's {@link android.widget.PopupWindow} doesn't have a
+ * {@link android.view.Window} to attach a frame metrics listener to, so frames
+ * are timed with {@link Choreographer} instead. While the window keeps drawing,
+ * a frame callback is posted for every vsync and the time between consecutive
+ * callbacks is the duration of the frame drawn between them. Frames taking
+ * longer than one and a half refresh intervals are janky. The callbacks stop
+ * as soon as a frame passes without a draw, so an idle coach mark doesn't keep
+ * vsync running.
+ * <p>
+ * The window's exit animation is run by the system rather than drawn by the
+ * app, so the exit phase records the frames of the anchor's window while the
+ * animation plays, which are the frames the overlay's removal can slow down.
+ */
+class CoachMarkFrameRecorder implements Choreographer.FrameCallback, ViewTreeObserver.OnDrawListener {
+
+    private static final long NANOS_PER_SECOND = 1_000_000_000L;
+    private static final long ENTER_PHASE_NANOS = NANOS_PER_SECOND;
+
+    private final CoachMarkMetrics.FrameStats[] mStats = {
+            new CoachMarkMetrics.FrameStats(),
+            new CoachMarkMetrics.FrameStats(),
+            new CoachMarkMetrics.FrameStats()
+    };
+    private final Choreographer mChoreographer = Choreographer.getInstance();
+    private final long mShowNanos;
+    private final long mJankThresholdNanos;
+
+    private ViewTreeObserver mObserver;
+    private boolean mDrawn;
+    private boolean mCallbackPosted;
+    private long mLastFrameTimeNanos;
+    private boolean mExiting;
+    private Runnable mOnFinished;
+    private final Choreographer.FrameCallback mFinishCallback = frameTimeNanos -> finish();
+
+    /**
+     * @param showNanos the time at which the coach mark was shown
+     * @param refreshRate the refresh rate of the display, in frames per second
+     */
+    CoachMarkFrameRecorder(long showNanos, float refreshRate) {
+        mShowNanos = showNanos;
+        final float rate = refreshRate > 0 ? refreshRate : 60;
+        mJankThresholdNanos = (long) (1.5 * NANOS_PER_SECOND / rate);
+    }
+
+    /**
+     * Start recording the frames drawn by the coach mark's view tree
+     */
+    void start(ViewTreeObserver popupObserver) {
+        observe(popupObserver);
+    }
+
+    /**
+     * Stop recording the coach mark's frames and record those of the anchor's
+     * window until the exit animation has finished
+     *
+     * @param anchorObserver the view tree observer of the anchor's window
+     * @param exitDurationMs the duration of the exit animation
+     * @param onFinished called once the exit phase has been recorded
+     */
+    void finish(ViewTreeObserver anchorObserver, long exitDurationMs, Runnable onFinished) {
+        mExiting = true;
+        mOnFinished = onFinished;
+        observe(anchorObserver);
+        mChoreographer.postFrameCallbackDelayed(mFinishCallback, exitDurationMs);
+    }
+
+    CoachMarkMetrics.FrameStats[] getStats() {
+        return mStats;
+    }
+
+    private void observe(ViewTreeObserver observer) {
+        removeObserver();
+        mObserver = observer;
+        mObserver.addOnDrawListener(this);
+    }
+
+    private void removeObserver() {
+        if (mObserver != null && mObserver.isAlive()) {
+            mObserver.removeOnDrawListener(this);
+        }
+        mObserver = null;
+    }
+
+    private void finish() {
+        removeObserver();
+        mChoreographer.removeFrameCallback(this);
+        mCallbackPosted = false;
+        mOnFinished.run();
+    }
+
+    @Override
+    public void onDraw() {
+        mDrawn = true;
+        if (!mCallbackPosted) {
+            mCallbackPosted = true;
+            mLastFrameTimeNanos = 0;
+            mChoreographer.postFrameCallback(this);
+        }
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        if (!mDrawn) {
+            // Idle, so wait for the next draw rather than keeping vsync running
+            mCallbackPosted = false;
+            return;
+        }
+        if (mLastFrameTimeNanos > 0) {
+            final int phase = mExiting ? CoachMarkMetrics.PHASE_EXIT
+                    : frameTimeNanos - mShowNanos < ENTER_PHASE_NANOS ? CoachMarkMetrics.PHASE_ENTER
+                    : CoachMarkMetrics.PHASE_STEADY;
+            final long duration = frameTimeNanos - mLastFrameTimeNanos;
+            mStats[phase].add(duration, duration > mJankThresholdNanos);
+        }
+        mLastFrameTimeNanos = frameTimeNanos;
+        mDrawn = false;
+        mChoreographer.postFrameCallback(this);
+    }
+}
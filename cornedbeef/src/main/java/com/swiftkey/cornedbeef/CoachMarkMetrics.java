@@ -0,0 +1,514 @@
+package com.swiftkey.cornedbeef;
+
+import android.view.ViewTreeObserver;
+
+import androidx.annotation.IntDef;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Collects performance metrics from coach marks so that they can be reported
+ * in production telemetry, e.g. to catch regressions in show latency or in the
+ * cost of following an anchor.
+ * <p>
+ * Metrics are only collected for coach marks built while a {@link Listener}
+ * is set, so there is almost no overhead otherwise. Each coach mark counts its
+ * own metrics on the UI thread, and when it is dismissed they are passed to the
+ * listener as a {@link Sample} and added to {@link Histogram}s kept per coach
+ * mark type, which can be read from any thread.
+ */
+public final class CoachMarkMetrics {
+
+    @IntDef({METRIC_BUILD_TIME, METRIC_SHOW_LATENCY, METRIC_UPDATE_VIEW_TIME})
+    @Retention(RetentionPolicy.SOURCE)
+    public @interface Metric {
+    }
+
+    /**
+     * The time taken to construct a coach mark, in nanoseconds
+     */
+    public static final int METRIC_BUILD_TIME = 0;
+    /**
+     * The time from {@link CoachMark#show()} being called to the first frame
+     * of the coach mark being drawn, in nanoseconds
+     */
+    public static final int METRIC_SHOW_LATENCY = 1;
+    /**
+     * The UI thread time spent in {@link CoachMark#updateView} while the coach
+     * mark was showing, per pre-draw callback, in nanoseconds
+     */
+    public static final int METRIC_UPDATE_VIEW_TIME = 2;
+
+    private static final int METRIC_COUNT = 3;
+
+    @IntDef({PHASE_ENTER, PHASE_STEADY, PHASE_EXIT})
+    @Retention(RetentionPolicy.SOURCE)
+    public @interface Phase {
+    }
+
+    /**
+     * The first second after a coach mark is shown, while it animates in
+     */
+    public static final int PHASE_ENTER = 0;
+    /**
+     * The rest of the time a coach mark is shown
+     */
+    public static final int PHASE_STEADY = 1;
+    /**
+     * The exit animation after a coach mark is dismissed
+     */
+    public static final int PHASE_EXIT = 2;
+
+    /**
+     * Interface used to receive the metrics of each coach mark
+     */
+    public interface Listener {
+        /**
+         * This method will be invoked, on the UI thread, when a coach mark
+         * built while the listener was set is dismissed.
+         */
+        void onCoachMarkMetrics(@NonNull Sample sample);
+    }
+
+    private static volatile Listener sListener;
+    private static volatile boolean sFrameMetricsEnabled;
+    private static final ConcurrentMap<String, Histogram[]> sHistograms = new ConcurrentHashMap<>();
+
+    private CoachMarkMetrics() {
+    }
+
+    /**
+     * Set the listener to receive the metrics of coach marks built from now
+     * on, or null to stop collecting them
+     */
+    public static void setListener(@Nullable Listener listener) {
+        sListener = listener;
+    }
+
+    /**
+     * Set whether to record the duration of the frames drawn by coach marks,
+     * which are reported by {@link Sample#getFrameStats(int)}. This is off by
+     * default as it posts a frame callback on every frame a coach mark draws.
+     */
+    public static void setFrameMetricsEnabled(boolean enabled) {
+        sFrameMetricsEnabled = enabled;
+    }
+
+    /**
+     * Get the histogram of a metric for one type of coach mark
+     *
+     * @param type the simple class name of the coach mark type, e.g. "BubbleCoachMark"
+     * @param metric the metric
+     * @return the histogram, or null if no coach marks of the type have been recorded
+     */
+    @Nullable
+    public static Histogram getHistogram(@NonNull String type, @Metric int metric) {
+        final Histogram[] histograms = sHistograms.get(type);
+        return histograms != null ? histograms[metric] : null;
+    }
+
+    /**
+     * Clear all of the histograms, e.g. once they have been reported
+     */
+    public static void resetHistograms() {
+        sHistograms.clear();
+    }
+
+    /**
+     * Start recording the metrics of a coach mark, if a listener is set
+     *
+     * @param startNanos the time at which construction started
+     * @return the recorder, or null if no listener is set
+     */
+    @Nullable
+    static Recorder startRecording(long startNanos) {
+        return sListener != null ? new Recorder(startNanos, sFrameMetricsEnabled) : null;
+    }
+
+    private static Histogram[] getHistograms(String type) {
+        Histogram[] histograms = sHistograms.get(type);
+        if (histograms == null) {
+            final Histogram[] newHistograms = new Histogram[METRIC_COUNT];
+            for (int i = 0; i < METRIC_COUNT; i++) {
+                newHistograms[i] = new Histogram();
+            }
+            histograms = sHistograms.putIfAbsent(type, newHistograms);
+            if (histograms == null) {
+                histograms = newHistograms;
+            }
+        }
+        return histograms;
+    }
+
+    /**
+     * The metrics of one coach mark, from being built until being dismissed
+     */
+    public static final class Sample {
+
+        private final String mType;
+        private final String mId;
+        private final long mBuildTimeNanos;
+        private final long mShowLatencyNanos;
+        private final int mPreDrawCount;
+        private final int mGeometryChangeCount;
+        private final int mPopupUpdateCount;
+        private final long mUpdateViewNanos;
+        private final FrameStats[] mFrameStats;
+
+        Sample(String type, String id, Recorder recorder, FrameStats[] frameStats) {
+            mType = type;
+            mId = id;
+            mBuildTimeNanos = recorder.mBuildTimeNanos;
+            mShowLatencyNanos = recorder.mShowLatencyNanos;
+            mPreDrawCount = recorder.mPreDrawCount;
+            mGeometryChangeCount = recorder.mGeometryChangeCount;
+            mPopupUpdateCount = recorder.mPopupUpdateCount;
+            mUpdateViewNanos = recorder.mUpdateViewNanos;
+            mFrameStats = frameStats;
+        }
+
+        /**
+         * @return the simple class name of the coach mark
+         */
+        @NonNull
+        public String getType() {
+            return mType;
+        }
+
+        /**
+         * @return the ID given to the coach mark, if any
+         */
+        @Nullable
+        public String getId() {
+            return mId;
+        }
+
+        /**
+         * @see #METRIC_BUILD_TIME
+         */
+        public long getBuildTimeNanos() {
+            return mBuildTimeNanos;
+        }
+
+        /**
+         * @return the show latency, or -1 if the coach mark was dismissed before being drawn
+         * @see #METRIC_SHOW_LATENCY
+         */
+        public long getShowLatencyNanos() {
+            return mShowLatencyNanos;
+        }
+
+        /**
+         * @return the number of pre-draw callbacks received while the coach mark was showing
+         */
+        public int getPreDrawCount() {
+            return mPreDrawCount;
+        }
+
+        /**
+         * @return the number of times the position or size of the popup actually changed
+         */
+        public int getGeometryChangeCount() {
+            return mGeometryChangeCount;
+        }
+
+        /**
+         * @return the number of calls made to {@link android.widget.PopupWindow#update}
+         */
+        public int getPopupUpdateCount() {
+            return mPopupUpdateCount;
+        }
+
+        /**
+         * @return the total UI thread time spent in {@link CoachMark#updateView}
+         */
+        public long getUpdateViewNanos() {
+            return mUpdateViewNanos;
+        }
+
+        /**
+         * @return the frames drawn during the given phase, or null if frame
+         * metrics weren't enabled when the coach mark was built
+         * @see #setFrameMetricsEnabled(boolean)
+         */
+        @Nullable
+        public FrameStats getFrameStats(@Phase int phase) {
+            return mFrameStats != null ? mFrameStats[phase] : null;
+        }
+    }
+
+    /**
+     * The durations of the frames drawn during one phase of a coach mark's lifetime
+     */
+    public static final class FrameStats {
+
+        private final Histogram mDurations = new Histogram();
+        private int mFrameCount;
+        private int mJankyFrameCount;
+        private long mMaxDurationNanos;
+
+        FrameStats() {
+        }
+
+        void add(long durationNanos, boolean janky) {
+            mDurations.add(durationNanos);
+            mFrameCount++;
+            if (janky) {
+                mJankyFrameCount++;
+            }
+            mMaxDurationNanos = Math.max(mMaxDurationNanos, durationNanos);
+        }
+
+        /**
+         * @return the number of frames
+         */
+        public int getFrameCount() {
+            return mFrameCount;
+        }
+
+        /**
+         * @return the number of frames which took longer than one and a half refresh intervals
+         */
+        public int getJankyFrameCount() {
+            return mJankyFrameCount;
+        }
+
+        /**
+         * @return the percentage of frames which were janky, or 0 if there were no frames
+         */
+        public float getJankyFramePercentage() {
+            return mFrameCount > 0 ? 100f * mJankyFrameCount / mFrameCount : 0;
+        }
+
+        /**
+         * @return the duration of the longest frame, in nanoseconds
+         */
+        public long getMaxDurationNanos() {
+            return mMaxDurationNanos;
+        }
+
+        /**
+         * @return the histogram of frame durations, in nanoseconds
+         */
+        @NonNull
+        public Histogram getDurations() {
+            return mDurations;
+        }
+    }
+
+    /**
+     * A histogram of nanosecond values, with a bucket for each power of two.
+     * Values are added without locking, so it can be read from any thread
+     * while coach marks are being recorded.
+     */
+    public static final class Histogram {
+
+        public static final int BUCKET_COUNT = 64;
+
+        private final AtomicLongArray mBuckets = new AtomicLongArray(BUCKET_COUNT);
+
+        Histogram() {
+        }
+
+        void add(long value) {
+            mBuckets.incrementAndGet(getBucket(value));
+        }
+
+        /**
+         * Get the bucket for a value, which holds values up to 2^bucket - 1
+         */
+        static int getBucket(long value) {
+            return value <= 0 ? 0 : Math.min(BUCKET_COUNT - 1, 64 - Long.numberOfLeadingZeros(value));
+        }
+
+        /**
+         * @return the number of values in the given bucket
+         */
+        public long getBucketCount(int bucket) {
+            return mBuckets.get(bucket);
+        }
+
+        /**
+         * @return the largest value that can be in the given bucket
+         */
+        public static long getBucketUpperBound(int bucket) {
+            return bucket >= BUCKET_COUNT - 1 ? Long.MAX_VALUE : (1L << bucket) - 1;
+        }
+
+        /**
+         * @return the total number of values
+         */
+        public long getCount() {
+            long count = 0;
+            for (int i = 0; i < BUCKET_COUNT; i++) {
+                count += mBuckets.get(i);
+            }
+            return count;
+        }
+
+        /**
+         * Get an upper bound of the given percentile
+         *
+         * @param percentile the percentile, between 0 and 100
+         * @return the upper bound of the bucket containing the percentile, or 0 if there are no values
+         */
+        public long getPercentile(double percentile) {
+            final long count = getCount();
+            if (count == 0) {
+                return 0;
+            }
+            final long rank = Math.max(1, (long) Math.ceil(count * percentile / 100));
+            long seen = 0;
+            for (int i = 0; i < BUCKET_COUNT; i++) {
+                seen += mBuckets.get(i);
+                if (seen >= rank) {
+                    return getBucketUpperBound(i);
+                }
+            }
+            return getBucketUpperBound(BUCKET_COUNT - 1);
+        }
+    }
+
+    /**
+     * Counts the metrics of one coach mark on the UI thread
+     */
+    static final class Recorder implements ViewTreeObserver.OnDrawListener {
+
+        private final long mStartNanos;
+        private final boolean mRecordFrames;
+        private ViewTreeObserver mObserver;
+        private CoachMarkFrameRecorder mFrameRecorder;
+        private long mBuildTimeNanos;
+        private long mShowNanos;
+        private long mShowLatencyNanos = -1;
+        private int mPreDrawCount;
+        private int mGeometryChangeCount;
+        private int mPopupUpdateCount;
+        private long mUpdateViewNanos;
+
+        private int mLastX;
+        private int mLastY;
+        private int mLastWidth;
+        private int mLastHeight;
+
+        Recorder(long startNanos, boolean recordFrames) {
+            mStartNanos = startNanos;
+            mRecordFrames = recordFrames;
+        }
+
+        void onBuilt() {
+            mBuildTimeNanos = System.nanoTime() - mStartNanos;
+        }
+
+        void onShow() {
+            mShowNanos = System.nanoTime();
+            mShowLatencyNanos = -1;
+        }
+
+        /**
+         * Start waiting for the first frame, which is drawn by the given view tree
+         *
+         * @param refreshRate the refresh rate of the display the popup is on
+         */
+        void onPopupAdded(ViewTreeObserver observer, CoachMark.CoachMarkDimens<Integer> popupDimens,
+                float refreshRate) {
+            mLastX = popupDimens.x;
+            mLastY = popupDimens.y;
+            mLastWidth = popupDimens.width;
+            mLastHeight = popupDimens.height;
+            mObserver = observer;
+            mObserver.addOnDrawListener(this);
+            if (mRecordFrames) {
+                mFrameRecorder = new CoachMarkFrameRecorder(mShowNanos, refreshRate);
+                mFrameRecorder.start(observer);
+            }
+        }
+
+        @Override
+        public void onDraw() {
+            if (mShowLatencyNanos < 0) {
+                mShowLatencyNanos = System.nanoTime() - mShowNanos;
+            }
+        }
+
+        void onPreDraw() {
+            mPreDrawCount++;
+        }
+
+        void onUpdateView(long nanos) {
+            mUpdateViewNanos += nanos;
+        }
+
+        /**
+         * Record the popup dimensions computed for a frame
+         *
+         * @param updated whether {@link android.widget.PopupWindow#update} was called
+         */
+        void onPopupDimens(CoachMark.CoachMarkDimens<Integer> popupDimens, boolean updated) {
+            if (popupDimens.x != mLastX || popupDimens.y != mLastY
+                    || popupDimens.width != mLastWidth || popupDimens.height != mLastHeight) {
+                mGeometryChangeCount++;
+                mLastX = popupDimens.x;
+                mLastY = popupDimens.y;
+                mLastWidth = popupDimens.width;
+                mLastHeight = popupDimens.height;
+            }
+            if (updated) {
+                mPopupUpdateCount++;
+            }
+        }
+
+        /**
+         * Report the metrics recorded since the coach mark was shown, and
+         * reset them in case it is shown again. When frames are being
+         * recorded, the report is made once the exit animation has finished.
+         *
+         * @param anchorObserver the view tree observer of the anchor's window
+         * @param exitDurationMs the duration of the exit animation
+         */
+        void flush(String type, String id, ViewTreeObserver anchorObserver, long exitDurationMs) {
+            if (mObserver != null && mObserver.isAlive()) {
+                mObserver.removeOnDrawListener(this);
+            }
+            mObserver = null;
+
+            final CoachMarkFrameRecorder frameRecorder = mFrameRecorder;
+            mFrameRecorder = null;
+            final Sample sample = new Sample(type, id, this,
+                    frameRecorder != null ? frameRecorder.getStats() : null);
+            mPreDrawCount = 0;
+            mGeometryChangeCount = 0;
+            mPopupUpdateCount = 0;
+            mUpdateViewNanos = 0;
+
+            if (frameRecorder != null) {
+                frameRecorder.finish(anchorObserver, exitDurationMs, () -> report(sample));
+            } else {
+                report(sample);
+            }
+        }
+
+        private static void report(Sample sample) {
+            final Histogram[] histograms = getHistograms(sample.getType());
+            histograms[METRIC_BUILD_TIME].add(sample.getBuildTimeNanos());
+            if (sample.getShowLatencyNanos() >= 0) {
+                histograms[METRIC_SHOW_LATENCY].add(sample.getShowLatencyNanos());
+            }
+            if (sample.getPreDrawCount() > 0) {
+                histograms[METRIC_UPDATE_VIEW_TIME].add(
+                        sample.getUpdateViewNanos() / sample.getPreDrawCount());
+            }
+
+            final Listener listener = sListener;
+            if (listener != null) {
+                listener.onCoachMarkMetrics(sample);
+            }
+        }
+    }
+}
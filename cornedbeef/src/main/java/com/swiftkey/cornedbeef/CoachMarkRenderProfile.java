@@ -0,0 +1,108 @@
+package com.swiftkey.cornedbeef;
+
+import android.app.ActivityManager;
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Region;
+import android.os.Build;
+import android.os.PowerManager;
+import android.provider.Settings;
+
+import androidx.annotation.IntDef;
+import androidx.annotation.NonNull;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+
+/**
+ * Chooses how richly coach marks are rendered. On the full tier they animate
+ * in, punch anti-aliased round holes out of their scrims and slide their
+ * holes along wide targets. On the low tier they appear without entrance
+ * animations, and their scrims are drawn around square holes, clipping the
+ * hole out rather than blending it out, which is cheaper for the low end
+ * GPUs of Android Go devices.
+ * <p>
+ * By default the tier is chosen when each coach mark is built: low on low RAM
+ * devices, when animations have been turned off and in power save mode, and
+ * full otherwise. Apps can choose the tier for all coach marks with
+ * {@link #setTier}, or for one with {@link CoachMark.CoachMarkBuilder#setRenderTier}.
+ * All methods must be called on the UI thread.
+ */
+public final class CoachMarkRenderProfile {
+
+    @IntDef({TIER_AUTOMATIC, TIER_FULL, TIER_LOW})
+    @Retention(RetentionPolicy.SOURCE)
+    public @interface Tier {
+    }
+
+    public static final int TIER_AUTOMATIC = -1;
+    public static final int TIER_FULL = 0;
+    public static final int TIER_LOW = 1;
+
+    private static int sTier = TIER_AUTOMATIC;
+
+    private CoachMarkRenderProfile() {
+    }
+
+    /**
+     * Set the tier to render coach marks built from now on with, or
+     * {@link #TIER_AUTOMATIC} to choose it from the device
+     */
+    public static void setTier(@Tier int tier) {
+        sTier = tier;
+    }
+
+    /**
+     * Get the tier set by {@link #setTier}
+     */
+    @Tier
+    public static int getTier() {
+        return sTier;
+    }
+
+    /**
+     * Get the tier a coach mark built now would be rendered with, which is
+     * never {@link #TIER_AUTOMATIC}
+     */
+    @Tier
+    public static int resolveTier(@NonNull Context context) {
+        return resolveTier(context, TIER_AUTOMATIC);
+    }
+
+    @Tier
+    static int resolveTier(@NonNull Context context, @Tier int builderTier) {
+        if (builderTier != TIER_AUTOMATIC) {
+            return builderTier;
+        }
+        if (sTier != TIER_AUTOMATIC) {
+            return sTier;
+        }
+        final ActivityManager activityManager =
+                (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+        if (activityManager != null && activityManager.isLowRamDevice()) {
+            return TIER_LOW;
+        }
+        if (Settings.Global.getFloat(context.getContentResolver(),
+                Settings.Global.ANIMATOR_DURATION_SCALE, 1f) == 0f) {
+            return TIER_LOW;
+        }
+        final PowerManager powerManager = (PowerManager) context.getSystemService(Context.POWER_SERVICE);
+        if (powerManager != null && powerManager.isPowerSaveMode()) {
+            return TIER_LOW;
+        }
+        return TIER_FULL;
+    }
+
+    /**
+     * Clip the given rectangle out of the canvas's clip, so that a scrim can
+     * be drawn around a hole rather than having the hole punched out of it
+     */
+    @SuppressWarnings("deprecation")
+    static void clipOutRect(Canvas canvas, float left, float top, float right, float bottom) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            canvas.clipOutRect(left, top, right, bottom);
+        } else {
+            canvas.clipRect(left, top, right, bottom, Region.Op.DIFFERENCE);
+        }
+    }
+}
@@ -0,0 +1,391 @@
+package com.swiftkey.cornedbeef;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.MessageQueue;
+import android.os.SystemClock;
+import android.view.Choreographer;
+import android.view.View;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A {@link CoachMarkScheduler} defers showing coach marks until the UI thread
+ * has nothing better to do, so that inflating, measuring and adding the coach
+ * mark window does not land in the middle of startup or a screen transition.
+ * <p>
+ * Pending coach marks are kept in a priority queue. The highest priority mark
+ * whose anchor is attached is shown when the main looper becomes idle, as long
+ * as the previous frame finished within the frame budget. Every mark has a
+ * deadline after which it is shown regardless (or dropped, if its anchor is
+ * still not attached), and the number of marks shown per session and the
+ * minimum interval between them can be limited.
+ * <p>
+ * Coach marks with a {@link CoachMarkSeenStore} are held back until the store
+ * has loaded, and are dropped without being built if they are suppressed.
+ * <p>
+ * All methods must be called on the UI thread.
+ */
+public class CoachMarkScheduler {
+
+    public static final int PRIORITY_LOW = -100;
+    public static final int PRIORITY_DEFAULT = 0;
+    public static final int PRIORITY_HIGH = 100;
+
+    public static final long DEFAULT_MAX_DELAY_MS = 5000;
+
+    private final int mMaxShowsPerSession;
+    private final long mMinShowIntervalMs;
+    private final long mFrameBudgetNanos;
+
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final PriorityQueue<PendingCoachMark> mQueue = new PriorityQueue<>();
+    private final List<PendingCoachMark> mSkipped = new ArrayList<>();
+    // Package visible so that tests can drive idle passes and frames
+    final MessageQueue.IdleHandler mIdleHandler = new SchedulerIdleHandler();
+    final Choreographer.FrameCallback mFrameCallback = new SchedulerFrameCallback();
+    private final Runnable mWakeUpRunnable = () -> {
+        // Nothing to do - processing this message is enough for the idle handler to run again
+    };
+
+    private long mSequence;
+    private int mShownThisSession;
+    private long mLastShownAtMs = -1;
+    private long mLastFrameTimeNanos;
+    private boolean mLastFrameWithinBudget;
+    private boolean mIdleHandlerRegistered;
+    private boolean mFrameCallbackPosted;
+
+    protected CoachMarkScheduler(CoachMarkSchedulerBuilder builder) {
+        mMaxShowsPerSession = builder.maxShowsPerSession;
+        mMinShowIntervalMs = builder.minShowIntervalMs;
+        mFrameBudgetNanos = TimeUnit.MILLISECONDS.toNanos(builder.frameBudgetMs);
+    }
+
+    /**
+     * Schedule a coach mark to be built and shown when the UI thread is idle,
+     * with the default priority and deadline
+     *
+     * @param builder the builder for the coach mark, which is only built when it is due to be shown
+     */
+    public void schedule(CoachMark.CoachMarkBuilder builder) {
+        schedule(builder, PRIORITY_DEFAULT, DEFAULT_MAX_DELAY_MS);
+    }
+
+    /**
+     * Schedule a coach mark to be built and shown when the UI thread is idle
+     *
+     * @param builder the builder for the coach mark, which is only built when it is due to be shown
+     * @param priority coach marks with a higher priority are shown first
+     * @param maxDelayMs the time after which the coach mark is shown even if the UI thread is busy
+     */
+    public void schedule(CoachMark.CoachMarkBuilder builder, int priority, long maxDelayMs) {
+        enqueue(new PendingCoachMark(builder, null, priority, maxDelayMs));
+    }
+
+    /**
+     * Schedule an already built coach mark to be shown when the UI thread is
+     * idle, with the default priority and deadline
+     *
+     * @param coachMark the coach mark to show
+     */
+    public void schedule(CoachMark coachMark) {
+        schedule(coachMark, PRIORITY_DEFAULT, DEFAULT_MAX_DELAY_MS);
+    }
+
+    /**
+     * Schedule an already built coach mark to be shown when the UI thread is idle
+     *
+     * @param coachMark the coach mark to show
+     * @param priority coach marks with a higher priority are shown first
+     * @param maxDelayMs the time after which the coach mark is shown even if the UI thread is busy
+     */
+    public void schedule(CoachMark coachMark, int priority, long maxDelayMs) {
+        enqueue(new PendingCoachMark(null, coachMark, priority, maxDelayMs));
+    }
+
+    /**
+     * Remove a pending coach mark, scheduled from either a builder or a coach mark
+     *
+     * @param builderOrCoachMark the builder or coach mark which was scheduled
+     * @return true if the coach mark was still pending
+     */
+    public boolean cancel(Object builderOrCoachMark) {
+        for (PendingCoachMark pending : mQueue) {
+            if (pending.builder == builderOrCoachMark || pending.coachMark == builderOrCoachMark) {
+                remove(pending);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Remove all pending coach marks
+     */
+    public void cancelAll() {
+        for (PendingCoachMark pending : mQueue) {
+            mHandler.removeCallbacks(pending.deadlineRunnable);
+        }
+        mQueue.clear();
+        stopIfEmpty();
+    }
+
+    /**
+     * @return the number of coach marks waiting to be shown
+     */
+    public int getPendingCount() {
+        return mQueue.size();
+    }
+
+    /**
+     * Start a new session, resetting the per-session rate limits
+     */
+    public void resetSession() {
+        mShownThisSession = 0;
+        mLastShownAtMs = -1;
+    }
+
+    private void enqueue(PendingCoachMark pending) {
+        if (Looper.myLooper() != Looper.getMainLooper()) {
+            throw new IllegalStateException("Coach marks must be scheduled on the UI thread");
+        }
+        pending.sequence = mSequence++;
+        mQueue.add(pending);
+        mHandler.postAtTime(pending.deadlineRunnable, pending.deadlineMs);
+
+        if (!mIdleHandlerRegistered) {
+            Looper.myQueue().addIdleHandler(mIdleHandler);
+            mIdleHandlerRegistered = true;
+        }
+        if (!mFrameCallbackPosted) {
+            mLastFrameTimeNanos = 0;
+            mLastFrameWithinBudget = false;
+            Choreographer.getInstance().postFrameCallback(mFrameCallback);
+            mFrameCallbackPosted = true;
+        }
+    }
+
+    private void remove(PendingCoachMark pending) {
+        mHandler.removeCallbacks(pending.deadlineRunnable);
+        mQueue.remove(pending);
+        stopIfEmpty();
+    }
+
+    private void stopIfEmpty() {
+        if (!mQueue.isEmpty()) {
+            return;
+        }
+        if (mIdleHandlerRegistered) {
+            Looper.myQueue().removeIdleHandler(mIdleHandler);
+            mIdleHandlerRegistered = false;
+        }
+        if (mFrameCallbackPosted) {
+            Choreographer.getInstance().removeFrameCallback(mFrameCallback);
+            mFrameCallbackPosted = false;
+        }
+        mHandler.removeCallbacks(mWakeUpRunnable);
+    }
+
+    /**
+     * @return the time at which the rate limit next allows a coach mark to be shown
+     */
+    private long getNextAllowedShowTimeMs() {
+        return mLastShownAtMs < 0 ? 0 : mLastShownAtMs + mMinShowIntervalMs;
+    }
+
+    /**
+     * Show the highest priority pending coach mark whose anchor is attached, if any
+     */
+    private void showNextReady() {
+        PendingCoachMark next = null;
+        while (!mQueue.isEmpty()) {
+            final PendingCoachMark candidate = mQueue.poll();
+            if (isReady(candidate)) {
+                next = candidate;
+                break;
+            }
+            mSkipped.add(candidate);
+        }
+        mQueue.addAll(mSkipped);
+        mSkipped.clear();
+
+        if (next != null) {
+            show(next);
+        }
+    }
+
+    private void show(PendingCoachMark pending) {
+        remove(pending);
+        if (mShownThisSession >= mMaxShowsPerSession || !isReady(pending) || isSuppressed(pending)) {
+            return;
+        }
+
+        final CoachMark coachMark = pending.coachMark != null
+                ? pending.coachMark : pending.builder.build();
+        if (!coachMark.isShowing()) {
+            coachMark.show();
+        }
+
+        mShownThisSession++;
+        mLastShownAtMs = SystemClock.uptimeMillis();
+        // Wait for another frame within budget before showing anything else
+        mLastFrameWithinBudget = false;
+    }
+
+    /**
+     * @return whether the coach mark's anchor is attached and its seen store, if any, has loaded
+     */
+    private static boolean isReady(PendingCoachMark pending) {
+        final View anchor;
+        final CoachMarkSeenStore seenStore;
+        if (pending.coachMark != null) {
+            anchor = pending.coachMark.mAnchor;
+            seenStore = pending.coachMark.mSeenStore;
+        } else {
+            anchor = pending.builder.anchor;
+            seenStore = pending.builder.seenStore;
+        }
+        return anchor != null && anchor.getWindowToken() != null && anchor.isShown()
+                && (seenStore == null || seenStore.isLoaded());
+    }
+
+    private static boolean isSuppressed(PendingCoachMark pending) {
+        return pending.coachMark != null
+                ? pending.coachMark.isSuppressed() : pending.builder.isSuppressed();
+    }
+
+    /**
+     * A coach mark waiting to be shown
+     */
+    private class PendingCoachMark implements Comparable<PendingCoachMark> {
+
+        final CoachMark.CoachMarkBuilder builder;
+        final CoachMark coachMark;
+        final int priority;
+        final long deadlineMs;
+        final Runnable deadlineRunnable;
+        long sequence;
+
+        PendingCoachMark(CoachMark.CoachMarkBuilder builder, CoachMark coachMark,
+                int priority, long maxDelayMs) {
+            this.builder = builder;
+            this.coachMark = coachMark;
+            this.priority = priority;
+            this.deadlineMs = SystemClock.uptimeMillis() + Math.max(maxDelayMs, 0);
+            this.deadlineRunnable = this::onDeadline;
+        }
+
+        private void onDeadline() {
+            // The deadline bypasses the idle and frame budget checks, but not the rate limits
+            final long nextAllowedMs = getNextAllowedShowTimeMs();
+            if (SystemClock.uptimeMillis() < nextAllowedMs) {
+                mHandler.postAtTime(deadlineRunnable, nextAllowedMs);
+            } else {
+                show(this);
+            }
+        }
+
+        @Override
+        public int compareTo(PendingCoachMark other) {
+            if (priority != other.priority) {
+                return priority > other.priority ? -1 : 1;
+            }
+            return Long.compare(sequence, other.sequence);
+        }
+    }
+
+    /**
+     * Shows the next coach mark whenever the main looper runs out of messages
+     */
+    private class SchedulerIdleHandler implements MessageQueue.IdleHandler {
+
+        @Override
+        public boolean queueIdle() {
+            if (mQueue.isEmpty()) {
+                mIdleHandlerRegistered = false;
+                return false;
+            }
+
+            final long nextAllowedMs = getNextAllowedShowTimeMs();
+            if (SystemClock.uptimeMillis() < nextAllowedMs) {
+                // Wake the looper up again once the rate limit allows another coach mark
+                mHandler.removeCallbacks(mWakeUpRunnable);
+                mHandler.postAtTime(mWakeUpRunnable, nextAllowedMs);
+            } else if (mLastFrameWithinBudget) {
+                showNextReady();
+            }
+
+            mIdleHandlerRegistered = !mQueue.isEmpty();
+            return mIdleHandlerRegistered;
+        }
+    }
+
+    /**
+     * Measures the interval between frames while coach marks are pending, so
+     * that nothing is shown straight after a frame which missed its budget
+     */
+    private class SchedulerFrameCallback implements Choreographer.FrameCallback {
+
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            if (mLastFrameTimeNanos != 0) {
+                mLastFrameWithinBudget = frameTimeNanos - mLastFrameTimeNanos <= mFrameBudgetNanos;
+            }
+            mLastFrameTimeNanos = frameTimeNanos;
+
+            if (mQueue.isEmpty()) {
+                mFrameCallbackPosted = false;
+            } else {
+                Choreographer.getInstance().postFrameCallback(this);
+            }
+        }
+    }
+
+    public static class CoachMarkSchedulerBuilder {
+
+        // Optional parameters with default values
+        protected int maxShowsPerSession = Integer.MAX_VALUE;
+        protected long minShowIntervalMs = 0;
+        protected long frameBudgetMs = 20;
+
+        /**
+         * Set the maximum number of coach marks which may be shown in one session.
+         * Coach marks which are due once the limit has been reached are dropped.
+         *
+         * @param maxShowsPerSession the maximum number of coach marks per session
+         */
+        public CoachMarkSchedulerBuilder setMaxShowsPerSession(int maxShowsPerSession) {
+            this.maxShowsPerSession = maxShowsPerSession;
+            return this;
+        }
+
+        /**
+         * Set the minimum time between showing two coach marks
+         *
+         * @param minShowIntervalMs the minimum interval in milliseconds (defaults to 0)
+         */
+        public CoachMarkSchedulerBuilder setMinShowInterval(long minShowIntervalMs) {
+            this.minShowIntervalMs = minShowIntervalMs;
+            return this;
+        }
+
+        /**
+         * Set the longest interval between two frames for which the previous frame
+         * is still considered smooth enough to show a coach mark after it
+         *
+         * @param frameBudgetMs the frame budget in milliseconds (defaults to 20)
+         */
+        public CoachMarkSchedulerBuilder setFrameBudget(long frameBudgetMs) {
+            this.frameBudgetMs = frameBudgetMs;
+            return this;
+        }
+
+        public CoachMarkScheduler build() {
+            return new CoachMarkScheduler(this);
+        }
+    }
+}
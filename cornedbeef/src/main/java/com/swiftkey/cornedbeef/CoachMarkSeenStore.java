@@ -0,0 +1,427 @@
+package com.swiftkey.cornedbeef;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A {@link CoachMarkSeenStore} remembers how many times each coach mark has
+ * been shown, so that "show once" (or "show N times") coach marks can be
+ * suppressed without every app building its own bookkeeping.
+ * <p>
+ * Counts are kept in an in-memory hash table keyed by coach mark ID, making
+ * lookups O(1) and safe to do on the UI thread. The table is loaded
+ * asynchronously from a memory-mapped file, and changes are written back to
+ * the mapping in batches on a background thread, leaving it to the OS to flush
+ * them to disk rather than syncing on every change.
+ * <p>
+ * Until the store has loaded only shows recorded by this process are known, so
+ * callers gating on it should check {@link #isLoaded()} or use
+ * {@link #runWhenLoaded(Runnable)}.
+ */
+public class CoachMarkSeenStore {
+
+    private static final String TAG = "CoachMarkSeenStore";
+    private static final String DEFAULT_FILE_NAME = "cornedbeef_seen_coach_marks";
+
+    private static final int MAGIC = 0x43425353;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 16; // magic, version, capacity, size
+    private static final int SLOT_SIZE = 12; // hash, count
+    private static final int INITIAL_CAPACITY = 64;
+    private static final long WRITE_DELAY_MS = 1000;
+
+    private static CoachMarkSeenStore sDefault;
+    // Shared by every store, so that only one background thread is ever started
+    private static ScheduledExecutorService sExecutor;
+
+    private final File mFile;
+    private final ScheduledExecutorService mExecutor;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final Runnable mWriteRunnable = this::write;
+    private final Future<?> mLoadFuture;
+
+    // Guarded by mLock
+    private final Object mLock = new Object();
+    private long[] mHashes = new long[INITIAL_CAPACITY];
+    private int[] mCounts = new int[INITIAL_CAPACITY];
+    private boolean[] mDirty = new boolean[INITIAL_CAPACITY];
+    private int mSize;
+    private boolean mRewriteAll;
+    private boolean mWriteScheduled;
+    private boolean mLoaded;
+    private final List<Runnable> mOnLoaded = new ArrayList<>();
+
+    // Only accessed on the executor thread
+    private FileChannel mChannel;
+    private MappedByteBuffer mBuffer;
+    private int mMappedCapacity;
+
+    /**
+     * Get the store shared by the whole app, backed by a file in the app's no-backup directory
+     */
+    public static synchronized CoachMarkSeenStore getDefault(@NonNull Context context) {
+        if (sDefault == null) {
+            sDefault = new CoachMarkSeenStore(new File(
+                    context.getApplicationContext().getNoBackupFilesDir(), DEFAULT_FILE_NAME));
+        }
+        return sDefault;
+    }
+
+    private static synchronized ScheduledExecutorService getExecutor() {
+        if (sExecutor == null) {
+            sExecutor = new ScheduledThreadPoolExecutor(1, r -> {
+                final Thread thread = new Thread(r, TAG);
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return sExecutor;
+    }
+
+    /**
+     * Create a store backed by the given file, and start loading it in the background
+     *
+     * @param file the file to store the counts in, which is created if it does not exist
+     */
+    public CoachMarkSeenStore(@NonNull File file) {
+        mFile = file;
+        mExecutor = getExecutor();
+        mLoadFuture = mExecutor.submit(this::load);
+    }
+
+    /**
+     * @return whether the persisted counts have been loaded
+     */
+    public boolean isLoaded() {
+        synchronized (mLock) {
+            return mLoaded;
+        }
+    }
+
+    /**
+     * Run the given action on the UI thread once the persisted counts have been
+     * loaded. If they already have, it is run straight away when called on the
+     * UI thread, and is otherwise posted to it.
+     */
+    public void runWhenLoaded(@NonNull Runnable action) {
+        synchronized (mLock) {
+            if (!mLoaded) {
+                mOnLoaded.add(action);
+                return;
+            }
+        }
+        if (Looper.myLooper() == Looper.getMainLooper()) {
+            action.run();
+        } else {
+            mMainHandler.post(action);
+        }
+    }
+
+    /**
+     * Get the number of times the coach mark with the given ID has been shown
+     *
+     * @param id the coach mark ID
+     */
+    public int getShowCount(@NonNull String id) {
+        final long hash = hash(id);
+        synchronized (mLock) {
+            final int slot = findSlot(mHashes, hash);
+            return mHashes[slot] == hash ? mCounts[slot] : 0;
+        }
+    }
+
+    /**
+     * @return whether the coach mark with the given ID has been shown at least once
+     */
+    public boolean hasBeenShown(@NonNull String id) {
+        return getShowCount(id) > 0;
+    }
+
+    /**
+     * Record that the coach mark with the given ID has been shown
+     *
+     * @param id the coach mark ID
+     */
+    public void recordShown(@NonNull String id) {
+        final long hash = hash(id);
+        synchronized (mLock) {
+            final int slot = getOrInsertSlot(hash);
+            mCounts[slot]++;
+            markDirty(slot);
+        }
+    }
+
+    /**
+     * Forget how many times the coach mark with the given ID has been shown
+     *
+     * @param id the coach mark ID
+     */
+    public void reset(@NonNull String id) {
+        final long hash = hash(id);
+        synchronized (mLock) {
+            final int slot = findSlot(mHashes, hash);
+            if (mHashes[slot] == hash && mCounts[slot] != 0) {
+                mCounts[slot] = 0;
+                markDirty(slot);
+            }
+        }
+    }
+
+    /**
+     * Forget the counts of all coach marks
+     */
+    public void clear() {
+        synchronized (mLock) {
+            Arrays.fill(mCounts, 0);
+            mRewriteAll = true;
+            scheduleWrite();
+        }
+    }
+
+    /**
+     * Write any pending changes and sync them to disk, blocking until done.
+     * This should not be called on the UI thread.
+     */
+    public void flush() {
+        try {
+            mExecutor.submit(() -> {
+                write();
+                if (mBuffer != null) {
+                    mBuffer.force();
+                }
+            }).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            Log.e(TAG, "Could not flush seen coach marks", e);
+        }
+    }
+
+    /**
+     * Block until the persisted counts have been loaded
+     */
+    void awaitLoaded() throws ExecutionException, InterruptedException {
+        mLoadFuture.get();
+    }
+
+    private void markDirty(int slot) {
+        mDirty[slot] = true;
+        scheduleWrite();
+    }
+
+    private void scheduleWrite() {
+        if (!mWriteScheduled && mLoaded) {
+            mWriteScheduled = true;
+            mExecutor.schedule(mWriteRunnable, WRITE_DELAY_MS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private int getOrInsertSlot(long hash) {
+        int slot = findSlot(mHashes, hash);
+        if (mHashes[slot] == hash) {
+            return slot;
+        }
+        // Keep the load factor at or below a half
+        if (2 * (mSize + 1) > mHashes.length) {
+            grow();
+            slot = findSlot(mHashes, hash);
+        }
+        mHashes[slot] = hash;
+        mSize++;
+        return slot;
+    }
+
+    private void grow() {
+        final long[] oldHashes = mHashes;
+        final int[] oldCounts = mCounts;
+        mHashes = new long[oldHashes.length * 2];
+        mCounts = new int[oldHashes.length * 2];
+        mDirty = new boolean[oldHashes.length * 2];
+        for (int i = 0; i < oldHashes.length; i++) {
+            if (oldHashes[i] != 0) {
+                final int slot = findSlot(mHashes, oldHashes[i]);
+                mHashes[slot] = oldHashes[i];
+                mCounts[slot] = oldCounts[i];
+            }
+        }
+        mRewriteAll = true;
+    }
+
+    /**
+     * Find the slot holding the given hash, or the empty slot where it should be inserted
+     */
+    private static int findSlot(long[] hashes, long hash) {
+        final int mask = hashes.length - 1;
+        int slot = (int) (hash ^ (hash >>> 32)) & mask;
+        while (hashes[slot] != 0 && hashes[slot] != hash) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    /**
+     * 64-bit FNV-1a hash of the ID, reserving 0 for empty slots
+     */
+    static long hash(String id) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < id.length(); i++) {
+            hash ^= id.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return hash == 0 ? 1 : hash;
+    }
+
+    private void load() {
+        long[] hashes = null;
+        int[] counts = null;
+        try {
+            final File parent = mFile.getParentFile();
+            if (parent != null && !parent.exists()) {
+                //noinspection ResultOfMethodCallIgnored
+                parent.mkdirs();
+            }
+            mChannel = new RandomAccessFile(mFile, "rw").getChannel();
+            if (mChannel.size() >= HEADER_SIZE) {
+                final MappedByteBuffer buffer =
+                        mChannel.map(FileChannel.MapMode.READ_WRITE, 0, mChannel.size());
+                final int capacity = buffer.getInt(8);
+                if (buffer.getInt(0) == MAGIC && buffer.getInt(4) == VERSION
+                        && capacity >= INITIAL_CAPACITY && Integer.bitCount(capacity) == 1
+                        && mChannel.size() >= HEADER_SIZE + (long) capacity * SLOT_SIZE) {
+                    final long[] loadedHashes = new long[capacity];
+                    final int[] loadedCounts = new int[capacity];
+                    int occupied = 0;
+                    for (int i = 0; i < capacity; i++) {
+                        loadedHashes[i] = buffer.getLong(HEADER_SIZE + i * SLOT_SIZE);
+                        loadedCounts[i] = buffer.getInt(HEADER_SIZE + i * SLOT_SIZE + 8);
+                        if (loadedHashes[i] != 0) {
+                            occupied++;
+                        }
+                    }
+                    // A table fuller than we ever let it get is corrupt, and probing
+                    // it could loop forever, so it is discarded and rewritten
+                    if (2 * occupied <= capacity) {
+                        mBuffer = buffer;
+                        mMappedCapacity = capacity;
+                        hashes = loadedHashes;
+                        counts = loadedCounts;
+                    } else {
+                        Log.w(TAG, "Discarding seen coach marks table with " + occupied
+                                + " of " + capacity + " slots occupied");
+                    }
+                }
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Could not load seen coach marks", e);
+        }
+
+        final List<Runnable> onLoaded;
+        synchronized (mLock) {
+            if (hashes != null) {
+                // Adopt the persisted table, adding any shows recorded before it was loaded
+                final long[] recordedHashes = mHashes;
+                final int[] recordedCounts = mCounts;
+                mHashes = hashes;
+                mCounts = counts;
+                mDirty = new boolean[hashes.length];
+                mSize = 0;
+                for (long hash : hashes) {
+                    if (hash != 0) {
+                        mSize++;
+                    }
+                }
+                for (int i = 0; i < recordedHashes.length; i++) {
+                    if (recordedHashes[i] != 0 && recordedCounts[i] != 0) {
+                        final int slot = getOrInsertSlot(recordedHashes[i]);
+                        mCounts[slot] += recordedCounts[i];
+                        mDirty[slot] = true;
+                    }
+                }
+            } else {
+                mRewriteAll = true;
+            }
+            mLoaded = true;
+            scheduleWrite();
+            onLoaded = new ArrayList<>(mOnLoaded);
+            mOnLoaded.clear();
+        }
+        for (Runnable action : onLoaded) {
+            mMainHandler.post(action);
+        }
+    }
+
+    private void write() {
+        if (mChannel == null) {
+            return;
+        }
+        // Copy the changes while holding the lock, so that the UI thread is
+        // never blocked on the mapping or writing to it
+        final int capacity;
+        final int size;
+        final boolean rewriteAll;
+        int changed = 0;
+        final int[] slots;
+        final long[] hashes;
+        final int[] counts;
+        synchronized (mLock) {
+            mWriteScheduled = false;
+            capacity = mHashes.length;
+            size = mSize;
+            // The mapping is only touched on this thread, so it can be checked here
+            rewriteAll = mRewriteAll || mBuffer == null || mMappedCapacity != capacity;
+            slots = new int[capacity];
+            hashes = new long[capacity];
+            counts = new int[capacity];
+            for (int i = 0; i < capacity; i++) {
+                if (rewriteAll || mDirty[i]) {
+                    slots[changed] = i;
+                    hashes[changed] = mHashes[i];
+                    counts[changed] = mCounts[i];
+                    changed++;
+                    mDirty[i] = false;
+                }
+            }
+            mRewriteAll = false;
+        }
+
+        try {
+            if (mBuffer == null || mMappedCapacity != capacity) {
+                mBuffer = mChannel.map(FileChannel.MapMode.READ_WRITE, 0,
+                        HEADER_SIZE + (long) capacity * SLOT_SIZE);
+                mMappedCapacity = capacity;
+            }
+            for (int i = 0; i < changed; i++) {
+                mBuffer.putLong(HEADER_SIZE + slots[i] * SLOT_SIZE, hashes[i]);
+                mBuffer.putInt(HEADER_SIZE + slots[i] * SLOT_SIZE + 8, counts[i]);
+            }
+            mBuffer.putInt(0, MAGIC);
+            mBuffer.putInt(4, VERSION);
+            mBuffer.putInt(8, capacity);
+            mBuffer.putInt(12, size);
+        } catch (IOException e) {
+            Log.e(TAG, "Could not write seen coach marks", e);
+            synchronized (mLock) {
+                // Write everything next time, as the changes copied above were lost
+                mRewriteAll = true;
+            }
+        }
+    }
+}
@@ -0,0 +1,393 @@
+package com.swiftkey.cornedbeef;
+
+import android.app.Activity;
+import android.app.Application;
+import android.content.Context;
+import android.content.ContextWrapper;
+import android.os.Bundle;
+import android.os.Debug;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import androidx.annotation.IntDef;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+/**
+ * Detects coach mark code which hurts performance or leaks windows, in the
+ * same way as {@link android.os.StrictMode}. It is meant for debug builds:
+ * <pre>
+ * if (BuildConfig.DEBUG) {
+ *     CoachMarkStrictMode.setPolicy(new CoachMarkStrictMode.PolicyBuilder()
+ *             .detectAll()
+ *             .penaltyLog()
+ *             .build());
+ * }
+ * </pre>
+ * Nothing is checked until a policy is set. Violations are detected for:
+ * <ul>
+ * <li>inflating or measuring coach mark views on the UI thread during a frame</li>
+ * <li>allocating in {@link CoachMark#updateView}, which runs on every frame</li>
+ * <li>coach marks which are still showing after their anchor has been detached
+ * or their activity destroyed, without having been dismissed</li>
+ * <li>coach marks which were built but never shown before their activity was destroyed</li>
+ * </ul>
+ * All methods must be called on the UI thread.
+ */
+public final class CoachMarkStrictMode {
+
+    private static final String TAG = "CoachMarkStrictMode";
+
+    @IntDef({VIOLATION_FRAME_INFLATION, VIOLATION_FRAME_ALLOCATION, VIOLATION_LEAKED, VIOLATION_NEVER_SHOWN})
+    @Retention(RetentionPolicy.SOURCE)
+    public @interface ViolationType {
+    }
+
+    public static final int VIOLATION_FRAME_INFLATION = 0;
+    public static final int VIOLATION_FRAME_ALLOCATION = 1;
+    public static final int VIOLATION_LEAKED = 2;
+    public static final int VIOLATION_NEVER_SHOWN = 3;
+
+    /**
+     * Interface used to be notified of violations
+     */
+    public interface OnViolationListener {
+        /**
+         * This method will be invoked, on the UI thread, when a violation is detected.
+         */
+        void onViolation(@NonNull Violation violation);
+    }
+
+    private static Policy sPolicy;
+    private static Application sApplication;
+    private static final Handler sHandler = new Handler(Looper.getMainLooper());
+    // The coach marks built while leaks are detected, and where they were built
+    private static final Map<CoachMark, Throwable> sBuiltCoachMarks = new WeakHashMap<>();
+    // Violations which would otherwise be reported on every frame are reported once per type of coach mark
+    private static final Set<String> sReportedFrameViolations = new HashSet<>();
+    private static final Application.ActivityLifecycleCallbacks sLifecycleCallbacks =
+            new StrictModeActivityLifecycleCallbacks();
+
+    private CoachMarkStrictMode() {
+    }
+
+    /**
+     * Set the policy, or null to stop detecting violations
+     */
+    @SuppressWarnings("deprecation")
+    public static void setPolicy(@Nullable Policy policy) {
+        final boolean wasCountingAllocations = sPolicy != null && sPolicy.detectFrameAllocations;
+        final boolean countAllocations = policy != null && policy.detectFrameAllocations;
+        if (countAllocations && !wasCountingAllocations) {
+            Debug.startAllocCounting();
+        } else if (!countAllocations && wasCountingAllocations) {
+            Debug.stopAllocCounting();
+        }
+        sPolicy = policy;
+        sReportedFrameViolations.clear();
+        if (policy == null || !policy.detectLeaks) {
+            sBuiltCoachMarks.clear();
+        }
+    }
+
+    /**
+     * Called when coach mark views are inflated or measured
+     *
+     * @param what what is being done, for the violation message
+     */
+    static void onInflateOrMeasure(String what) {
+        final Policy policy = sPolicy;
+        if (policy == null || !policy.detectFrameInflation
+                || Looper.myLooper() != Looper.getMainLooper()) {
+            return;
+        }
+        // Walking the stack is slow, but only happens while a policy is set
+        for (StackTraceElement element : Thread.currentThread().getStackTrace()) {
+            if ("android.view.Choreographer".equals(element.getClassName())
+                    && "doFrame".equals(element.getMethodName())) {
+                if (!sReportedFrameViolations.add(what)) {
+                    return;
+                }
+                onViolation(policy, new Violation(VIOLATION_FRAME_INFLATION,
+                        what + " on the UI thread during a frame", null));
+                return;
+            }
+        }
+    }
+
+    /**
+     * Start counting the allocations made by {@link CoachMark#updateView}
+     *
+     * @return the current allocation count, or -1 if allocations aren't being counted
+     */
+    @SuppressWarnings("deprecation")
+    static int beginFrameAllocations() {
+        final Policy policy = sPolicy;
+        return policy != null && policy.detectFrameAllocations ? Debug.getThreadAllocCount() : -1;
+    }
+
+    /**
+     * Check the allocations made since {@link #beginFrameAllocations()}
+     */
+    @SuppressWarnings("deprecation")
+    static void endFrameAllocations(CoachMark coachMark, int startCount) {
+        final Policy policy = sPolicy;
+        if (startCount < 0 || policy == null || !policy.detectFrameAllocations) {
+            return;
+        }
+        final int allocations = Debug.getThreadAllocCount() - startCount;
+        if (allocations > policy.allowedFrameAllocations
+                && sReportedFrameViolations.add(coachMark.getClass().getName())) {
+            onViolation(policy, new Violation(VIOLATION_FRAME_ALLOCATION,
+                    coachMark.getClass().getSimpleName() + ".updateView made " + allocations
+                            + " allocations during a frame", null));
+        }
+    }
+
+    /**
+     * Called at the end of a coach mark's constructor
+     */
+    static void onBuilt(CoachMark coachMark) {
+        final Policy policy = sPolicy;
+        if (policy == null || !policy.detectLeaks) {
+            return;
+        }
+        if (sApplication == null
+                && coachMark.mContext.getApplicationContext() instanceof Application) {
+            sApplication = (Application) coachMark.mContext.getApplicationContext();
+            sApplication.registerActivityLifecycleCallbacks(sLifecycleCallbacks);
+        }
+        sBuiltCoachMarks.put(coachMark, new Throwable("The coach mark was built here"));
+    }
+
+    /**
+     * Called when a coach mark's anchor is detached, after it has been
+     * dismissed if it was set to be
+     */
+    static void onAnchorDetached(CoachMark coachMark) {
+        final Policy policy = sPolicy;
+        if (policy == null || !policy.detectLeaks || !coachMark.isActive()) {
+            return;
+        }
+        // Anchors are often detached and attached again straight away, e.g. when
+        // a list is rebound, so only report anchors which stay detached
+        sHandler.post(() -> {
+            if (coachMark.isActive() && !coachMark.mAnchor.isAttachedToWindow() && sPolicy != null) {
+                onViolation(sPolicy, new Violation(VIOLATION_LEAKED, coachMark.getClass().getSimpleName()
+                        + " is still showing after its anchor was detached",
+                        sBuiltCoachMarks.get(coachMark)));
+            }
+        });
+    }
+
+    private static void onActivityDestroyed(Activity activity) {
+        final Policy policy = sPolicy;
+        if (policy == null || !policy.detectLeaks) {
+            return;
+        }
+        final List<CoachMark> destroyed = new ArrayList<>();
+        for (CoachMark coachMark : sBuiltCoachMarks.keySet()) {
+            if (getActivity(coachMark.mAnchor.getContext()) == activity) {
+                destroyed.add(coachMark);
+            }
+        }
+        for (CoachMark coachMark : destroyed) {
+            final Throwable buildSite = sBuiltCoachMarks.remove(coachMark);
+            final String type = coachMark.getClass().getSimpleName();
+            if (coachMark.isActive()) {
+                onViolation(policy, new Violation(VIOLATION_LEAKED,
+                        type + " is still showing after its activity was destroyed", buildSite));
+            } else if (!coachMark.wasShown()) {
+                onViolation(policy, new Violation(VIOLATION_NEVER_SHOWN,
+                        type + " was built but never shown", buildSite));
+            }
+        }
+    }
+
+    private static Activity getActivity(Context context) {
+        while (context instanceof ContextWrapper) {
+            if (context instanceof Activity) {
+                return (Activity) context;
+            }
+            context = ((ContextWrapper) context).getBaseContext();
+        }
+        return null;
+    }
+
+    private static void onViolation(Policy policy, Violation violation) {
+        if (policy.penaltyLog) {
+            Log.w(TAG, violation.getMessage(), violation);
+        }
+        if (policy.listener != null) {
+            policy.listener.onViolation(violation);
+        }
+        if (policy.penaltyDeath) {
+            throw violation;
+        }
+    }
+
+    /**
+     * A detected violation, whose cause is where the coach mark was built if known
+     */
+    public static class Violation extends RuntimeException {
+
+        private final int mType;
+
+        Violation(@ViolationType int type, String message, Throwable cause) {
+            super(message, cause);
+            mType = type;
+        }
+
+        @ViolationType
+        public int getType() {
+            return mType;
+        }
+    }
+
+    /**
+     * The violations to detect and how to report them
+     */
+    public static final class Policy {
+
+        final boolean detectFrameInflation;
+        final boolean detectFrameAllocations;
+        final int allowedFrameAllocations;
+        final boolean detectLeaks;
+        final boolean penaltyLog;
+        final boolean penaltyDeath;
+        final OnViolationListener listener;
+
+        Policy(PolicyBuilder builder) {
+            detectFrameInflation = builder.detectFrameInflation;
+            detectFrameAllocations = builder.detectFrameAllocations;
+            allowedFrameAllocations = builder.allowedFrameAllocations;
+            detectLeaks = builder.detectLeaks;
+            penaltyLog = builder.penaltyLog;
+            penaltyDeath = builder.penaltyDeath;
+            listener = builder.listener;
+        }
+    }
+
+    public static class PolicyBuilder {
+
+        // Optional parameters with default values
+        protected boolean detectFrameInflation = false;
+        protected boolean detectFrameAllocations = false;
+        protected int allowedFrameAllocations = 0;
+        protected boolean detectLeaks = false;
+        protected boolean penaltyLog = false;
+        protected boolean penaltyDeath = false;
+        protected OnViolationListener listener;
+
+        /**
+         * Detect every type of violation
+         */
+        public PolicyBuilder detectAll() {
+            detectFrameInflation = true;
+            detectFrameAllocations = true;
+            detectLeaks = true;
+            return this;
+        }
+
+        /**
+         * Detect coach mark views being inflated or measured on the UI thread during a frame
+         */
+        public PolicyBuilder detectFrameInflation() {
+            detectFrameInflation = true;
+            return this;
+        }
+
+        /**
+         * Detect allocations in {@link CoachMark#updateView}, which is called on every frame
+         *
+         * @param allowedAllocations the number of allocations allowed per call (defaults to 0)
+         */
+        public PolicyBuilder detectFrameAllocations(int allowedAllocations) {
+            detectFrameAllocations = true;
+            allowedFrameAllocations = allowedAllocations;
+            return this;
+        }
+
+        /**
+         * Detect coach marks which outlive their anchor or activity without being
+         * dismissed, and coach marks which are built but never shown
+         */
+        public PolicyBuilder detectLeaks() {
+            detectLeaks = true;
+            return this;
+        }
+
+        /**
+         * Log violations
+         */
+        public PolicyBuilder penaltyLog() {
+            penaltyLog = true;
+            return this;
+        }
+
+        /**
+         * Throw violations, crashing the app
+         */
+        public PolicyBuilder penaltyDeath() {
+            penaltyDeath = true;
+            return this;
+        }
+
+        /**
+         * Pass violations to a listener
+         */
+        public PolicyBuilder penaltyListener(OnViolationListener listener) {
+            this.listener = listener;
+            return this;
+        }
+
+        public Policy build() {
+            return new Policy(this);
+        }
+    }
+
+    /**
+     * Callbacks which are used to check the coach marks of destroyed activities
+     */
+    private static class StrictModeActivityLifecycleCallbacks implements Application.ActivityLifecycleCallbacks {
+
+        @Override
+        public void onActivityCreated(@NonNull Activity activity, @Nullable Bundle savedInstanceState) {
+        }
+
+        @Override
+        public void onActivityStarted(@NonNull Activity activity) {
+        }
+
+        @Override
+        public void onActivityResumed(@NonNull Activity activity) {
+        }
+
+        @Override
+        public void onActivityPaused(@NonNull Activity activity) {
+        }
+
+        @Override
+        public void onActivityStopped(@NonNull Activity activity) {
+        }
+
+        @Override
+        public void onActivitySaveInstanceState(@NonNull Activity activity, @NonNull Bundle outState) {
+        }
+
+        @Override
+        public void onActivityDestroyed(@NonNull Activity activity) {
+            CoachMarkStrictMode.onActivityDestroyed(activity);
+        }
+    }
+}
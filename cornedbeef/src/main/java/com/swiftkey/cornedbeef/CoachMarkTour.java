@@ -0,0 +1,336 @@
+package com.swiftkey.cornedbeef;
+
+import android.os.Looper;
+import android.os.MessageQueue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A {@link CoachMarkTour} shows an ordered sequence of coach marks, moving on
+ * to the next step whenever the current one is dismissed.
+ * <p>
+ * While a step is displayed and the UI thread is idle, the next step is
+ * created, which resolves its anchor, inflates its layout and measures it.
+ * Moving on to the next step is then just a matter of showing it, rather than
+ * building it on the user's tap.
+ * <p>
+ * Steps whose coach marks are suppressed by their {@link CoachMarkSeenStore}
+ * are skipped, and the tour ends early if the next step's anchor is not
+ * attached. All methods must be called on the UI thread.
+ * <p>
+ * When the activity is recreated, e.g. after rotation, the tour can be
+ * carried over with {@link #retain()} and {@link #restore(RetainedTour)}.
+ */
+public class CoachMarkTour {
+
+    /**
+     * A step in a tour, which creates the builder for its coach mark on demand
+     */
+    public interface Step {
+        /**
+         * Create the builder for this step's coach mark. This is called ahead of
+         * time, while the previous step is displayed.
+         */
+        CoachMark.CoachMarkBuilder createBuilder();
+    }
+
+    /**
+     * Interface used to allow the creator of a tour to run some code when the
+     * tour ends.
+     */
+    public interface OnTourFinishedListener {
+        /**
+         * This method will be invoked when the last step is dismissed, or the
+         * tour is cancelled or cannot continue.
+         *
+         * @param completed whether every step was shown
+         */
+        void onTourFinished(boolean completed);
+    }
+
+    private final List<Step> mSteps;
+    private final CoachMark[] mCoachMarks;
+    private final OnTourFinishedListener mFinishedListener;
+    // Package visible so that tests can drive idle passes
+    final MessageQueue.IdleHandler mPrefetchIdleHandler = new PrefetchIdleHandler();
+
+    private int mCurrentIndex = -1;
+    private int mRestoredIndex = -1;
+    private CoachMark.RetainedState mRestoredState;
+    private boolean mPrefetchPending;
+    private boolean mFinished;
+
+    protected CoachMarkTour(CoachMarkTourBuilder builder) {
+        mSteps = new ArrayList<>(builder.steps);
+        mCoachMarks = new CoachMark[mSteps.size()];
+        mFinishedListener = builder.finishedListener;
+    }
+
+    /**
+     * Show the first step of the tour
+     */
+    public void start() {
+        startAt(0);
+    }
+
+    /**
+     * Show the given step of the tour, skipping any earlier steps
+     *
+     * @param index the index of the step to start at
+     */
+    public void startAt(int index) {
+        if (mCurrentIndex >= 0 || mFinished) {
+            return;
+        }
+        showStep(index);
+    }
+
+    /**
+     * Show the step which was showing when the given state was retained from a
+     * tour with the same steps, typically in a recreated activity. The step is
+     * shown with its remaining timeout.
+     *
+     * @param state the state returned by {@link #retain()}
+     */
+    public void restore(RetainedTour state) {
+        if (mCurrentIndex >= 0 || mFinished) {
+            return;
+        }
+        mRestoredIndex = state.mStepIndex;
+        mRestoredState = state.mStepState;
+        showStep(state.mStepIndex);
+    }
+
+    /**
+     * End the tour without calling its {@link OnTourFinishedListener}, dismissing
+     * the current step so that the tour can be restored, e.g. after its activity
+     * is recreated. The current step's dismiss listener is not called.
+     *
+     * @return the position of the tour, to be passed to {@link #restore(RetainedTour)}
+     */
+    public RetainedTour retain() {
+        final CoachMark current = getCurrentCoachMark();
+        final RetainedTour state = new RetainedTour(Math.max(mCurrentIndex, 0),
+                current != null ? current.retainState() : null);
+        mFinished = true;
+        if (mPrefetchPending) {
+            Looper.myQueue().removeIdleHandler(mPrefetchIdleHandler);
+            mPrefetchPending = false;
+        }
+        Arrays.fill(mCoachMarks, null);
+        return state;
+    }
+
+    /**
+     * Dismiss the current step, moving on to the next one
+     */
+    public void next() {
+        final CoachMark current = getCurrentCoachMark();
+        if (current != null && current.isShowing()) {
+            current.dismiss();
+        }
+    }
+
+    /**
+     * End the tour, dismissing the current step
+     */
+    public void cancel() {
+        if (mFinished) {
+            return;
+        }
+        final CoachMark current = getCurrentCoachMark();
+        finish(false);
+        if (current != null && current.isShowing()) {
+            current.dismiss();
+        }
+    }
+
+    /**
+     * @return the index of the step currently shown, or -1 if the tour has not started
+     */
+    public int getCurrentStepIndex() {
+        return mCurrentIndex;
+    }
+
+    /**
+     * @return the number of steps in the tour
+     */
+    public int getStepCount() {
+        return mSteps.size();
+    }
+
+    /**
+     * @return the coach mark for the step currently shown, or null if none is
+     */
+    public CoachMark getCurrentCoachMark() {
+        return mCurrentIndex >= 0 && mCurrentIndex < mCoachMarks.length
+                ? mCoachMarks[mCurrentIndex] : null;
+    }
+
+    /**
+     * @return whether the tour has ended
+     */
+    public boolean isFinished() {
+        return mFinished;
+    }
+
+    private void showStep(int index) {
+        while (index < mSteps.size()) {
+            final CoachMark coachMark = getOrBuildCoachMark(index);
+            if (coachMark == null) {
+                // Suppressed by its seen store
+                index++;
+                continue;
+            }
+            if (coachMark.mAnchor.getWindowToken() == null) {
+                mCurrentIndex = index;
+                finish(false);
+                return;
+            }
+            mCurrentIndex = index;
+            coachMark.show();
+            schedulePrefetch();
+            return;
+        }
+        mCurrentIndex = index;
+        finish(true);
+    }
+
+    /**
+     * Get the coach mark for the given step, building it if it has not been prefetched
+     *
+     * @return the coach mark, or null if it is suppressed
+     */
+    private CoachMark getOrBuildCoachMark(int index) {
+        if (mCoachMarks[index] == null) {
+            final CoachMark.CoachMarkBuilder builder = mSteps.get(index).createBuilder();
+            // A restored step has already been recorded as shown
+            final CoachMark.RetainedState restoredState =
+                    index == mRestoredIndex ? mRestoredState : null;
+            if (restoredState == null && builder.isSuppressed()) {
+                return null;
+            }
+            final CoachMark coachMark;
+            if (restoredState != null) {
+                coachMark = restoredState.build(builder);
+                mRestoredState = null;
+            } else {
+                coachMark = builder.build();
+            }
+            // The builder may be reused by the step, so it is left untouched
+            coachMark.setTourDismissListener(() -> onStepDismissed(index));
+            mCoachMarks[index] = coachMark;
+        }
+        return mCoachMarks[index];
+    }
+
+    private void onStepDismissed(int index) {
+        if (mFinished || index != mCurrentIndex) {
+            return;
+        }
+        mCoachMarks[index] = null;
+        showStep(index + 1);
+    }
+
+    private void schedulePrefetch() {
+        if (!mPrefetchPending && mCurrentIndex + 1 < mSteps.size()) {
+            Looper.myQueue().addIdleHandler(mPrefetchIdleHandler);
+            mPrefetchPending = true;
+        }
+    }
+
+    private void finish(boolean completed) {
+        mFinished = true;
+        if (mPrefetchPending) {
+            Looper.myQueue().removeIdleHandler(mPrefetchIdleHandler);
+            mPrefetchPending = false;
+        }
+        for (int i = 0; i < mCoachMarks.length; i++) {
+            if (i != mCurrentIndex) {
+                mCoachMarks[i] = null;
+            }
+        }
+        if (mFinishedListener != null) {
+            mFinishedListener.onTourFinished(completed);
+        }
+    }
+
+    /**
+     * Builds the coach mark for the step after the current one once the UI thread is idle
+     */
+    private class PrefetchIdleHandler implements MessageQueue.IdleHandler {
+
+        @Override
+        public boolean queueIdle() {
+            mPrefetchPending = false;
+            if (!mFinished && mCurrentIndex + 1 < mSteps.size()) {
+                getOrBuildCoachMark(mCurrentIndex + 1);
+            }
+            return false;
+        }
+    }
+
+    /**
+     * The position of a tour saved by {@link CoachMarkTour#retain()}, which
+     * holds no references to views or contexts
+     */
+    public static class RetainedTour {
+
+        private final int mStepIndex;
+        private final CoachMark.RetainedState mStepState;
+
+        RetainedTour(int stepIndex, CoachMark.RetainedState stepState) {
+            mStepIndex = stepIndex;
+            mStepState = stepState;
+        }
+
+        /**
+         * @return the index of the step which was showing
+         */
+        public int getStepIndex() {
+            return mStepIndex;
+        }
+    }
+
+    public static class CoachMarkTourBuilder {
+
+        protected final List<Step> steps = new ArrayList<>();
+        protected OnTourFinishedListener finishedListener;
+
+        /**
+         * Add a step whose builder is created on demand, ahead of it being shown
+         *
+         * @param step the step to add
+         */
+        public CoachMarkTourBuilder addStep(Step step) {
+            steps.add(step);
+            return this;
+        }
+
+        /**
+         * Add a step from an existing builder, which is built ahead of it being shown
+         *
+         * @param builder the builder for the step's coach mark
+         */
+        public CoachMarkTourBuilder addStep(CoachMark.CoachMarkBuilder builder) {
+            steps.add(() -> builder);
+            return this;
+        }
+
+        /**
+         * Set an {@link OnTourFinishedListener} to be called when the tour ends
+         *
+         * @param listener the listener
+         */
+        public CoachMarkTourBuilder setOnTourFinishedListener(OnTourFinishedListener listener) {
+            this.finishedListener = listener;
+            return this;
+        }
+
+        public CoachMarkTour build() {
+            return new CoachMarkTour(this);
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package com.swiftkey.cornedbeef;
+
+import android.os.Build;
+import android.os.Trace;
+
+/**
+ * Wraps {@link Trace} so that the stages of a coach mark's lifecycle, and of
+ * each frame it follows its anchor for, show up as sections in a system trace.
+ * <p>
+ * Section names are constants so that nothing is allocated, and the calls are
+ * no-ops when the app isn't being traced. On API 29 and above, the visible
+ * lifetime of each coach mark is also shown as an async slice.
+ */
+final class CoachMarkTrace {
+
+    static final String INFLATE = "CoachMark.inflate";
+    static final String CREATE_CONTENT_VIEW = "CoachMark.createContentView";
+    static final String CREATE_POPUP_WINDOW = "CoachMark.createNewPopupWindow";
+    static final String MEASURE = "CoachMark.measure";
+    static final String MUTATE_DRAWABLE = "CoachMark.mutateDrawable";
+    static final String SHOW = "CoachMark.show";
+    static final String DISMISS = "CoachMark.dismiss";
+    static final String FIRST_GEOMETRY = "CoachMark.firstGeometryPass";
+    static final String UPDATE_POSITION = "CoachMark.updatePosition";
+    static final String GET_ANCHOR_DIMENS = "CoachMark.getAnchorDimens";
+    static final String GET_POPUP_DIMENS = "CoachMark.getPopupDimens";
+    static final String UPDATE_VIEW = "CoachMark.updateView";
+    static final String UPDATE_POPUP = "CoachMark.updatePopup";
+
+    // Trace was only added in API 18, which the JVM tests run below
+    private static final boolean SUPPORTED =
+            Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2;
+
+    /**
+     * Receives sections as they begin and end, so that they can be timed
+     * without a system trace, e.g. by benchmarks
+     */
+    interface SectionListener {
+        void onBeginSection(String sectionName);
+
+        void onEndSection();
+    }
+
+    private static SectionListener sSectionListener;
+
+    private CoachMarkTrace() {
+    }
+
+    /**
+     * Set the listener for sections, or null to remove it. Sections begun
+     * while a listener is set must be ended before it is changed.
+     */
+    static void setSectionListener(SectionListener listener) {
+        sSectionListener = listener;
+    }
+
+    static void beginSection(String sectionName) {
+        if (SUPPORTED) {
+            Trace.beginSection(sectionName);
+        }
+        final SectionListener listener = sSectionListener;
+        if (listener != null) {
+            listener.onBeginSection(sectionName);
+        }
+    }
+
+    static void endSection() {
+        if (SUPPORTED) {
+            Trace.endSection();
+        }
+        final SectionListener listener = sSectionListener;
+        if (listener != null) {
+            listener.onEndSection();
+        }
+    }
+
+    /**
+     * Get the name of the async slice spanning a coach mark's visible lifetime,
+     * which is made up of its type and ID
+     */
+    static String getSliceName(CoachMark coachMark, String id) {
+        final String type = coachMark.getClass().getSimpleName();
+        return id != null ? type + ":" + id : type;
+    }
+
+    static void beginAsyncSection(String sliceName, int cookie) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q && Trace.isEnabled()) {
+            Trace.beginAsyncSection(sliceName, cookie);
+        }
+    }
+
+    static void endAsyncSection(String sliceName, int cookie) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q && Trace.isEnabled()) {
+            Trace.endAsyncSection(sliceName, cookie);
+        }
+    }
+}
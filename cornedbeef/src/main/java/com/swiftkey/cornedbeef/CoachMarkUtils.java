@@ -3,6 +3,7 @@ package com.swiftkey.cornedbeef;
 import android.content.Context;
 import android.content.res.Configuration;
 import android.graphics.Point;
+import android.graphics.Rect;
 import android.os.Build;
 import android.view.View;
 
@@ -10,14 +11,67 @@ import androidx.annotation.ColorInt;
 import androidx.annotation.ColorRes;
 import androidx.annotation.NonNull;
 
+import com.swiftkey.cornedbeef.geometry.Bounds;
+import com.swiftkey.cornedbeef.geometry.Placement;
+import com.swiftkey.cornedbeef.geometry.PlacementRequest;
+import com.swiftkey.cornedbeef.geometry.PlacementResult;
+import com.swiftkey.cornedbeef.geometry.PopupGeometry;
+import com.swiftkey.cornedbeef.geometry.PopupPlacer;
+
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * Utils for calculating the size and position of the coach mark popup and pointy mark and for
- * resolving colors.
+ * resolving colors. The calculations themselves live in the pure Java geometry module, so that
+ * they can be benchmarked on a plain JVM; these methods adapt them to Android types. The
+ * module's {@link Placement} is part of this API, so the library exposes the module to its users.
  * 
  * @author lachie
  */
 public class CoachMarkUtils {
 
+    /**
+     * A popup to be placed by {@link #placePopups(List, Rect, int, boolean)}
+     */
+    public static class PopupRequest {
+        public final CoachMark.CoachMarkDimens<Integer> anchorDimens;
+        public final int width;
+        public final int height;
+        public final Placement placement;
+
+        /**
+         * @param anchorDimens - the dimensions of the anchor, in the same coordinates as the frame
+         * @param width - the width of the popup
+         * @param height - the height of the popup
+         * @param placement - the preferred placement of the popup
+         */
+        public PopupRequest(CoachMark.CoachMarkDimens<Integer> anchorDimens,
+                int width, int height, Placement placement) {
+            this.anchorDimens = anchorDimens;
+            this.width = width;
+            this.height = height;
+            this.placement = placement;
+        }
+    }
+
+    /**
+     * The position chosen for a popup by {@link #placePopups(List, Rect, int, boolean)}
+     */
+    public static class PopupPlacement {
+        public final int x;
+        public final int y;
+        public final Placement placement;
+        public final boolean overlaps;
+
+        public PopupPlacement(int x, int y, Placement placement, boolean overlaps) {
+            this.x = x;
+            this.y = y;
+            this.placement = placement;
+            this.overlaps = overlaps;
+        }
+    }
+
     /**
      * The popup width is determined by the minimum width excluding content
      * (usually the width of the pointy mark and padding), the maximum width
@@ -36,17 +90,7 @@ public class CoachMarkUtils {
      */
     public static int getPopupWidth(int minWidth, int maxWidth,
             int desiredWidth, int anchorWidth, float target) {
-        // Minimum width as a percentage of the anchor width
-        final double width = 2 * Math.abs(0.5 - target);
-
-        // Minimum width as an absolute value
-        int popupWidth = (int) (anchorWidth * width) + minWidth;
-
-        // Make sure not smaller than the minimum width
-        popupWidth = popupWidth > desiredWidth ? popupWidth : desiredWidth;
-
-        // Make sure not larger than the max width
-        return popupWidth > maxWidth ? maxWidth : popupWidth;
+        return PopupGeometry.getPopupWidth(minWidth, maxWidth, desiredWidth, anchorWidth, target);
     }
 
     /**
@@ -66,28 +110,41 @@ public class CoachMarkUtils {
     public static Point getPopupPosition(final CoachMark.CoachMarkDimens<Integer> anchorDimens,
             final int popupWidth, final int popupHeight, final int screenWidth,
             final int screenHeight, final int padding, final boolean showBelow) {
+        return new Point(
+                PopupGeometry.getPopupX(anchorDimens.x, anchorDimens.width,
+                        popupWidth, screenWidth, padding),
+                PopupGeometry.getPopupY(anchorDimens.y, anchorDimens.height,
+                        popupHeight, screenHeight, showBelow));
+    }
 
-        // Get popup X and Y Coords
-        int popupX = (anchorDimens.width - popupWidth) / 2 + anchorDimens.x;
-
-        int popupAboveY = anchorDimens.y - popupHeight;
-        int popupBelowY = anchorDimens.y + anchorDimens.height;
-        
-        int popupY;
-        if(showBelow) {
-            // If there is not enough room below move the popup above
-            popupY = popupBelowY + popupHeight > screenHeight ? popupAboveY : popupBelowY;
-        } else {
-            // If there is not enough room above move the popup below
-            popupY = popupAboveY < 0 ? popupBelowY : popupAboveY;
+    /**
+     * Place several popups at once so that they do not overlap each other or
+     * each other's anchors, without showing anything.
+     *
+     * @see PopupPlacer#placePopups
+     */
+    public static PopupPlacement[] placePopups(@NonNull List<PopupRequest> popups,
+            @NonNull Rect frame, int padding, boolean isRtl) {
+        final int count = popups.size();
+        final List<PlacementRequest> requests = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            final PopupRequest popup = popups.get(i);
+            final CoachMark.CoachMarkDimens<Integer> anchor = popup.anchorDimens;
+            requests.add(new PlacementRequest(
+                    new Bounds(anchor.x, anchor.y, anchor.x + anchor.width, anchor.y + anchor.height),
+                    popup.width, popup.height, popup.placement));
         }
 
-        // Constrain popupX to the screen size (minus padding)
-        popupX = popupX < padding ? padding : 
-            (popupX + popupWidth > (screenWidth-padding) ? 
-                    screenWidth - popupWidth - padding : popupX);
+        final PlacementResult[] results = PopupPlacer.placePopups(requests,
+                new Bounds(frame.left, frame.top, frame.right, frame.bottom), padding, isRtl);
 
-        return new Point(popupX, popupY);
+        final PopupPlacement[] placements = new PopupPlacement[count];
+        for (int i = 0; i < count; i++) {
+            final PlacementResult result = results[i];
+            placements[i] = new PopupPlacement(result.x, result.y,
+                    result.placement, result.overlaps);
+        }
+        return placements;
     }
 
     /**
@@ -103,8 +160,8 @@ public class CoachMarkUtils {
      */
     public static int getArrowLeftMargin(float target, int anchorWidth, 
             int arrowWidth, int anchorX, int popupX, int minMargin, int maxMargin) {
-        int margin = (int) (target * anchorWidth) - (arrowWidth / 2) + anchorX - popupX;
-        return margin < minMargin ? minMargin : (margin > maxMargin ? maxMargin : margin);
+        return PopupGeometry.getArrowLeftMargin(target, anchorWidth,
+                arrowWidth, anchorX, popupX, minMargin, maxMargin);
     }
 
     /**
@@ -22,11 +22,14 @@ public class HighlightCoachMark extends InternallyAnchoredCoachMark {
     protected HighlightCoachMark(HighlightCoachMarkBuilder builder) {
         super(builder);
 
+        CoachMarkTrace.beginSection(CoachMarkTrace.MUTATE_DRAWABLE);
         try {
             ((GradientDrawable) mView.getBackground().mutate()).setStroke(
                     builder.strokeWidth, builder.highlightColor);
         } catch (Exception e) {
             Log.e("HighlightCoachMark", "Could not change the coach mark color and stroke width");
+        } finally {
+            CoachMarkTrace.endSection();
         }
     }
 
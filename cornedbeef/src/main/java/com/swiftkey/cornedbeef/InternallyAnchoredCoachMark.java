@@ -1,6 +1,7 @@
 package com.swiftkey.cornedbeef;
 
 import android.content.Context;
+import android.graphics.Rect;
 import android.view.View;
 
 import androidx.annotation.LayoutRes;
@@ -8,6 +9,9 @@ import androidx.annotation.LayoutRes;
 public abstract class InternallyAnchoredCoachMark extends CoachMark {
 
     private final CoachMarkDimens<Float> mInternalAnchor;
+    private final Rect mAnchorBounds = new Rect();
+    private final int[] mAnchorLoc = new int[2];
+    private CoachMarkDimens<Integer> mAnchorDimens;
     
     protected InternallyAnchoredCoachMark(InternallyAnchoredCoachMarkBuilder builder) {
         super(builder);
@@ -16,23 +20,40 @@ public abstract class InternallyAnchoredCoachMark extends CoachMark {
 
     @Override
     protected CoachMarkDimens<Integer> getAnchorDimens() {
-        int[] anchorLoc = new int[2];
-        int[] tokenViewLoc = new int[2];
-        mAnchor.getLocationOnScreen(anchorLoc);
+        getAnchorBounds(mAnchorBounds);
+        final int anchorWidth = mAnchorBounds.width();
+        final int anchorHeight = mAnchorBounds.height();
+        int anchorX = mAnchorBounds.left;
+        int anchorY = mAnchorBounds.top;
         
         // Workaround for SK-4652 - should be revisited when this is fixed
         View rootView = mTokenView.getRootView();
         if(rootView != mTokenView) {
-            rootView.getLocationOnScreen(tokenViewLoc);
-            anchorLoc[1] -= tokenViewLoc[1];
+            anchorY -= getTokenRootViewLocationOnScreen()[1];
         }
         
-        final int width = (int) (mAnchor.getMeasuredWidth() * mInternalAnchor.width);
-        final int height = (int) (mAnchor.getMeasuredHeight() * mInternalAnchor.height);
-        final int x = (int) (anchorLoc[0] + mInternalAnchor.x * mAnchor.getMeasuredWidth());
-        final int y = (int) (anchorLoc[1] + mInternalAnchor.y * mAnchor.getMeasuredHeight());
+        final int width = (int) (anchorWidth * mInternalAnchor.width);
+        final int height = (int) (anchorHeight * mInternalAnchor.height);
+        final int x = (int) (anchorX + mInternalAnchor.x * anchorWidth);
+        final int y = (int) (anchorY + mInternalAnchor.y * anchorHeight);
         
-        return new CoachMarkDimens<Integer>(x, y, width, height);
+        mAnchorDimens = updateDimens(mAnchorDimens, x, y, width, height);
+        return mAnchorDimens;
+    }
+
+    /**
+     * Get the screen bounds of the region the internal anchor is relative to,
+     * which is the anchor view or the region supplied by its {@link AnchorProvider}
+     */
+    protected void getAnchorBounds(Rect outBounds) {
+        if (mAnchorProvider != null) {
+            mAnchorProvider.getAnchorBounds(outBounds);
+        } else {
+            mAnchor.getLocationOnScreen(mAnchorLoc);
+            outBounds.set(mAnchorLoc[0], mAnchorLoc[1],
+                    mAnchorLoc[0] + mAnchor.getMeasuredWidth(),
+                    mAnchorLoc[1] + mAnchor.getMeasuredHeight());
+        }
     }
 
     public abstract static class InternallyAnchoredCoachMarkBuilder extends CoachMarkBuilder {
@@ -53,7 +74,8 @@ public abstract class InternallyAnchoredCoachMark extends CoachMark {
         protected CoachMarkDimens<Float> internalAnchor = new CoachMarkDimens<Float>(0f, 0f, 1f, 1f);
         
         /**
-         * Set the anchor to be a sub-region of the {@link CoachMarkBuilder#anchor}
+         * Set the anchor to be a sub-region of the {@link CoachMarkBuilder#anchor}, or of
+         * the region supplied by {@link CoachMarkBuilder#anchorProvider} if one is set
          * All of the parameters should be set using relative values between 0 and 1
          * 
          * @param x
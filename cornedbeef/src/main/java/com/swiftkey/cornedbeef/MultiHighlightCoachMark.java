@@ -0,0 +1,344 @@
+package com.swiftkey.cornedbeef;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.view.View;
+import android.view.ViewGroup.LayoutParams;
+import android.widget.PopupWindow;
+
+import androidx.annotation.ColorInt;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Can be used to highlight several views, or parts of views, at once.
+ * <p>
+ * Unlike showing a {@link HighlightCoachMark} for each of them, all of the
+ * outlines are drawn by a single view in a single window, which follows every
+ * target from one pre-draw pass of the anchor's window. The targets should
+ * therefore be in the same window as the anchor, e.g. the fields of a form
+ * anchored to the form itself.
+ */
+public class MultiHighlightCoachMark extends CoachMark {
+
+    private final Target[] mTargets;
+    private final AnchorProvider.OnAnchorChangedListener mTargetChangedListener;
+    private final Rect mUnionBounds = new Rect();
+    private final int[] mTargetLoc = new int[2];
+    private CoachMarkDimens<Integer> mAnchorDimens;
+    private OutlineView mOutlineView;
+
+    protected MultiHighlightCoachMark(MultiHighlightCoachMarkBuilder builder) {
+        super(builder);
+        mTargets = builder.targets.toArray(new Target[0]);
+        mOutlineView.setOutlineCount(mTargets.length);
+        mTargetChangedListener = new MultiHighlightOnTargetChangedListener();
+    }
+
+    @Override
+    protected View createContentView(View content, CoachMarkBuilder builder) {
+        final MultiHighlightCoachMarkBuilder multiBuilder = (MultiHighlightCoachMarkBuilder) builder;
+        mOutlineView = new OutlineView(mContext, multiBuilder.highlightColor,
+                multiBuilder.strokeWidth, mContext.getResources().getDimension(
+                        R.dimen.coach_mark_border_radius));
+        return mOutlineView;
+    }
+
+    @Override
+    protected PopupWindow createNewPopupWindow(View contentView) {
+        PopupWindow popup = new PopupWindow(
+                contentView,
+                LayoutParams.WRAP_CONTENT,
+                LayoutParams.WRAP_CONTENT);
+
+        popup.setTouchable(false);
+        return popup;
+    }
+
+    /**
+     * Get the union of the bounds of all of the visible targets, after updating
+     * the bounds of each one
+     */
+    @Override
+    protected CoachMarkDimens<Integer> getAnchorDimens() {
+        // Workaround for SK-4652 - should be revisited when this is fixed
+        final int rootOffsetY = mTokenView.getRootView() != mTokenView
+                ? getTokenRootViewLocationOnScreen()[1] : 0;
+
+        mUnionBounds.setEmpty();
+        for (Target target : mTargets) {
+            getTargetBounds(target, target.bounds);
+            target.bounds.offset(0, -rootOffsetY);
+            mUnionBounds.union(target.bounds);
+        }
+        mAnchorDimens = updateDimens(mAnchorDimens, mUnionBounds.left, mUnionBounds.top,
+                mUnionBounds.width(), mUnionBounds.height());
+        return mAnchorDimens;
+    }
+
+    @Override
+    protected CoachMarkDimens<Integer> getPopupDimens(CoachMarkDimens<Integer> anchorDimens) {
+        return anchorDimens;
+    }
+
+    @Override
+    protected void updateView(CoachMarkDimens<Integer> popupDimens, CoachMarkDimens<Integer> anchorDimens) {
+        boolean changed = false;
+        for (int i = 0; i < mTargets.length; i++) {
+            changed |= mOutlineView.setOutline(i, mTargets[i].bounds, popupDimens.x, popupDimens.y);
+        }
+        if (changed) {
+            mOutlineView.invalidate();
+        }
+        if (!mPopup.isShowing()) {
+            mPopup.setWidth(popupDimens.width);
+            mPopup.setHeight(popupDimens.height);
+        }
+    }
+
+    @Override
+    public void show() {
+        if (isActive()) {
+            return;
+        }
+        for (Target target : mTargets) {
+            if (target.provider != null) {
+                target.provider.addOnAnchorChangedListener(mTargetChangedListener);
+            }
+        }
+        super.show();
+    }
+
+    @Override
+    public void dismiss() {
+        for (Target target : mTargets) {
+            if (target.provider != null) {
+                target.provider.removeOnAnchorChangedListener(mTargetChangedListener);
+            }
+        }
+        super.dismiss();
+    }
+
+    /**
+     * Get the outline drawn for a target, relative to the popup window
+     */
+    Rect getOutline(int index) {
+        return mOutlineView.mOutlines[index];
+    }
+
+    /**
+     * Get the screen bounds of a target, which are empty if it isn't shown
+     */
+    private void getTargetBounds(Target target, Rect outBounds) {
+        if (target.provider != null) {
+            target.provider.getAnchorBounds(outBounds);
+        } else if (target.view.isShown()) {
+            target.view.getLocationOnScreen(mTargetLoc);
+            outBounds.set(mTargetLoc[0], mTargetLoc[1],
+                    mTargetLoc[0] + target.view.getMeasuredWidth(),
+                    mTargetLoc[1] + target.view.getMeasuredHeight());
+        } else {
+            outBounds.setEmpty();
+            return;
+        }
+
+        final CoachMarkDimens<Float> internalAnchor = target.internalAnchor;
+        if (internalAnchor != null) {
+            final int width = outBounds.width();
+            final int height = outBounds.height();
+            final int left = (int) (outBounds.left + internalAnchor.x * width);
+            final int top = (int) (outBounds.top + internalAnchor.y * height);
+            outBounds.set(left, top,
+                    left + (int) (internalAnchor.width * width),
+                    top + (int) (internalAnchor.height * height));
+        }
+    }
+
+    /**
+     * Listener which is used to update the outlines when the bounds supplied by
+     * a target's {@link AnchorProvider} change outside of a draw pass
+     */
+    private class MultiHighlightOnTargetChangedListener implements AnchorProvider.OnAnchorChangedListener {
+
+        @Override
+        public void onAnchorChanged() {
+            if (mPopup.isShowing()) {
+                updatePosition();
+            }
+        }
+    }
+
+    /**
+     * A highlighted view, or region, and its most recent bounds
+     */
+    private static class Target {
+
+        final View view;
+        final AnchorProvider provider;
+        final CoachMarkDimens<Float> internalAnchor;
+        final Rect bounds = new Rect();
+
+        Target(View view, AnchorProvider provider, CoachMarkDimens<Float> internalAnchor) {
+            this.view = view;
+            this.provider = provider;
+            this.internalAnchor = internalAnchor;
+        }
+    }
+
+    /**
+     * Draws the outline of every target with a single {@link Paint}
+     */
+    private static class OutlineView extends View {
+
+        private final Paint mPaint;
+        private final float mCornerRadius;
+        private final RectF mDrawRect = new RectF();
+        private Rect[] mOutlines = new Rect[0];
+
+        OutlineView(Context context, @ColorInt int color, int strokeWidth, float cornerRadius) {
+            super(context);
+            mPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+            mPaint.setStyle(Paint.Style.STROKE);
+            mPaint.setColor(color);
+            mPaint.setStrokeWidth(strokeWidth);
+            mCornerRadius = cornerRadius;
+        }
+
+        void setOutlineCount(int count) {
+            mOutlines = new Rect[count];
+            for (int i = 0; i < count; i++) {
+                mOutlines[i] = new Rect();
+            }
+        }
+
+        /**
+         * Set the bounds of an outline, relative to the window at the given position
+         *
+         * @return whether the outline has changed
+         */
+        boolean setOutline(int index, Rect screenBounds, int windowX, int windowY) {
+            final Rect outline = mOutlines[index];
+            if (screenBounds.isEmpty()) {
+                if (outline.isEmpty()) {
+                    return false;
+                }
+                outline.setEmpty();
+                return true;
+            }
+            final int left = screenBounds.left - windowX;
+            final int top = screenBounds.top - windowY;
+            final int right = screenBounds.right - windowX;
+            final int bottom = screenBounds.bottom - windowY;
+            if (outline.left == left && outline.top == top
+                    && outline.right == right && outline.bottom == bottom) {
+                return false;
+            }
+            outline.set(left, top, right, bottom);
+            return true;
+        }
+
+        @Override
+        protected void onDraw(Canvas canvas) {
+            // Strokes are drawn inside the outline, as they are by the highlight drawable
+            final float inset = mPaint.getStrokeWidth() / 2;
+            for (Rect outline : mOutlines) {
+                if (outline.isEmpty()) {
+                    continue;
+                }
+                mDrawRect.set(outline);
+                mDrawRect.inset(inset, inset);
+                canvas.drawRoundRect(mDrawRect, mCornerRadius, mCornerRadius, mPaint);
+            }
+        }
+    }
+
+    public static class MultiHighlightCoachMarkBuilder extends CoachMarkBuilder {
+
+        // Required parameters
+        final List<Target> targets = new ArrayList<>();
+
+        // Optional parameters with default values
+        @ColorInt int highlightColor;
+        int strokeWidth;
+
+        /**
+         * @param anchor the view used to host the coach mark, which should be in
+         *               the same window as all of the targets, e.g. their parent
+         */
+        public MultiHighlightCoachMarkBuilder(Context context, View anchor) {
+            super(context, anchor, (View) null);
+            this.highlightColor = CoachMarkUtils.resolveColor(context, R.color.default_colour);
+            this.strokeWidth = (int) context.getResources().getDimension(
+                    R.dimen.highlight_coach_mark_stroke_width);
+        }
+
+        /**
+         * Highlight the whole of a view
+         *
+         * @param target the view to highlight
+         */
+        public MultiHighlightCoachMarkBuilder addTarget(View target) {
+            targets.add(new Target(target, null, null));
+            return this;
+        }
+
+        /**
+         * Highlight a sub-region of a view
+         * All of the parameters should be set using relative values between 0 and 1
+         *
+         * @param target the view containing the region to highlight
+         * @param x the x coordinate of the top left corner of the region
+         * @param y the y coordinate of the top left corner of the region
+         * @param width the width of the region
+         * @param height the height of the region
+         * @see InternallyAnchoredCoachMark.InternallyAnchoredCoachMarkBuilder#setInternalAnchor(float, float, float, float)
+         */
+        public MultiHighlightCoachMarkBuilder addTarget(View target,
+                float x, float y, float width, float height) {
+            targets.add(new Target(target, null, new CoachMarkDimens<>(x, y, width, height)));
+            return this;
+        }
+
+        /**
+         * Highlight a region supplied by an {@link AnchorProvider}, e.g. something
+         * drawn onto a {@link Canvas}
+         *
+         * @param target the provider of the region to highlight
+         */
+        public MultiHighlightCoachMarkBuilder addTarget(AnchorProvider target) {
+            targets.add(new Target(null, target, null));
+            return this;
+        }
+
+        /**
+         * Set the color of the outlines.
+         *
+         * @param highlightColor
+         *      new highlight color
+         */
+        public MultiHighlightCoachMarkBuilder setHighlightColor(@ColorInt int highlightColor) {
+            this.highlightColor = highlightColor;
+            return this;
+        }
+
+        /**
+         * Set the stroke width of the outlines.
+         *
+         * @param strokeWidth
+         *      new stroke width
+         */
+        public MultiHighlightCoachMarkBuilder setStrokeWidth(int strokeWidth) {
+            this.strokeWidth = strokeWidth;
+            return this;
+        }
+
+        @Override
+        public CoachMark build() {
+            return new MultiHighlightCoachMark(this);
+        }
+    }
+}
@@ -9,6 +9,9 @@ import android.animation.ObjectAnimator;
 import android.animation.ValueAnimator;
 import android.annotation.TargetApi;
 import android.content.Context;
+import android.content.res.Configuration;
+import android.content.res.Resources;
+import android.graphics.Rect;
 import android.os.Build;
 import android.util.TypedValue;
 import android.view.LayoutInflater;
@@ -53,10 +56,20 @@ public class PunchHoleCoachMark extends InternallyAnchoredCoachMark {
     private final int mPunchHolePadding;
 
     private final View mTargetView;
+    private final AnchorProvider mTargetProvider;
+    private final Rect mTargetBounds = new Rect();
     private final int[] mTargetViewLoc = new int[2];
     private final int[] mAnchorViewLoc = new int[2];
+    private final Rect mLastAnchorDimens = new Rect();
+    private final TargetTracker mTargetTracker;
     private float mRelCircleRadius;
 
+    // Resolved once per configuration
+    private int mHorizontalPadding;
+    private int mVerticalPadding;
+    private boolean mIsRtl;
+    private boolean mPaddingStale;
+
     private PunchHoleView mPunchHoleView;
     private View mPunchHoleContent;
     private Interpolator INTERPOLATOR = new AccelerateDecelerateInterpolator();
@@ -68,15 +81,26 @@ public class PunchHoleCoachMark extends InternallyAnchoredCoachMark {
         mGap = mContext.getResources().getDimension(R.dimen.punchhole_coach_mark_gap);
 
         mTargetView = builder.targetView;
+        mTargetProvider = builder.targetProvider;
+        mTargetTracker = new TargetTracker(() -> {
+            if (isShowing()) {
+                updatePosition();
+            }
+        });
+        resolveConfiguration();
 
         mPunchHoleView.setOnTargetClickListener(builder.targetClickListener);
         mPunchHoleView.setOnGlobalClickListener(builder.globalClickListener);
-        mPunchHoleView.setBackgroundColor(builder.overlayColor);
+        if (isLowRenderTier()) {
+            mPunchHoleView.setSquareHole(builder.overlayColor);
+        } else {
+            mPunchHoleView.setBackgroundColor(builder.overlayColor);
+        }
 
         mPunchHoleContent.setLayoutParams(
                 new LinearLayout.LayoutParams(builder.contentWidth, builder.contentHeight));
 
-        mHorizontalTranslationDuration = builder.horizontalAnimationDuration;
+        mHorizontalTranslationDuration = isLowRenderTier() ? 0 : builder.horizontalAnimationDuration;
 
         mContentPosition = builder.contentPositioning;
 
@@ -102,10 +126,20 @@ public class PunchHoleCoachMark extends InternallyAnchoredCoachMark {
     @Override
     protected PopupWindow createNewPopupWindow(View contentView) {
         PopupWindow popup = new PopupWindow(contentView, WRAP_CONTENT, WRAP_CONTENT);
+        popup.setTouchInterceptor(new CoachMarkPassThroughTouchListener());
         popup.setTouchable(true);
         return popup;
     }
 
+    @Override
+    protected boolean isPassThrough(float x, float y) {
+        // Pass through touches in the hole or anywhere outside of the content
+        final View content = mPunchHoleContent;
+        return mPunchHoleView.isInPunchHole(x, y)
+                || x < content.getX() || x >= content.getX() + content.getWidth()
+                || y < content.getY() || y >= content.getY() + content.getHeight();
+    }
+
     @Override
     protected CoachMarkDimens<Integer> getPopupDimens(CoachMarkDimens<Integer> anchorDimens) {
         return anchorDimens;
@@ -115,25 +149,33 @@ public class PunchHoleCoachMark extends InternallyAnchoredCoachMark {
     protected void updateView(CoachMarkDimens<Integer> popupDimens,  CoachMarkDimens<Integer> anchorDimens) {
         mPopup.update(popupDimens.x, popupDimens.y, popupDimens.width, popupDimens.height);
 
-        mTargetView.getLocationOnScreen(mTargetViewLoc);
+        // Only recompute the hole when the anchor has moved or the target may have changed
+        final boolean anchorChanged = updateLastAnchorDimens(anchorDimens);
+        final boolean targetChanged = mTargetTracker.consumeChange();
+        if (!anchorChanged && !targetChanged) {
+            return;
+        }
+
+        getTargetBounds(mTargetBounds);
         mAnchor.getLocationOnScreen(mAnchorViewLoc);
-        mRelCircleRadius = Math.max(((mTargetView.getHeight() + mGap) / 2) + mPunchHolePadding, 0f);
+        mRelCircleRadius = Math.max(((mTargetBounds.height() + mGap) / 2) + mPunchHolePadding, 0f);
 
         // If the coachmark has an horizontal translation animation, draw the
         // circle on the start of the target view (it will move to the end).
         // However, if the width of the target view is smaller than the diameter
         // of the punch hole, just center the circle (no point in animating).
         final int startOffsetX = hasHorizontalTranslation()
-                ?  isRtlConfig(mContext)
-                        ? mTargetViewLoc[0] + mTargetView.getWidth() - (int) mRelCircleRadius
-                        : mTargetViewLoc[0] + (int) mRelCircleRadius
-                : (mTargetView.getWidth() / 2);
-        final int relCircleX = mTargetViewLoc[0] - mAnchorViewLoc[0] + startOffsetX;
-        final int relCircleY = mTargetViewLoc[1] - mAnchorViewLoc[1] + (mTargetView.getHeight() / 2);
-
-        if (!mPunchHoleView.setCircle(relCircleX, relCircleY, mRelCircleRadius)) {
+                ?  mIsRtl
+                        ? mTargetBounds.left + mTargetBounds.width() - (int) mRelCircleRadius
+                        : mTargetBounds.left + (int) mRelCircleRadius
+                : (mTargetBounds.width() / 2);
+        final int relCircleX = mTargetBounds.left - mAnchorViewLoc[0] + startOffsetX;
+        final int relCircleY = mTargetBounds.top - mAnchorViewLoc[1] + (mTargetBounds.height() / 2);
+
+        if (!mPunchHoleView.setCircle(relCircleX, relCircleY, mRelCircleRadius) && !mPaddingStale) {
             return;
         }
+        mPaddingStale = false;
 
         if (hasHorizontalTranslation()) {
             animateHorizontalTranslation();
@@ -158,11 +200,73 @@ public class PunchHoleCoachMark extends InternallyAnchoredCoachMark {
             lowerPadding = mAnchor.getHeight() - (int) (relCircleY - mRelCircleRadius);
         }
 
-        int horizontalPadding = (int) mContext.getResources().getDimension(R.dimen.punchhole_coach_mark_horizontal_padding);
-        int verticalPadding = (int) mContext.getResources().getDimension(R.dimen.punchhole_coach_mark_vertical_padding);
         mPunchHoleView.setPadding(
-                horizontalPadding, verticalPadding + upperPadding,
-                horizontalPadding, verticalPadding + lowerPadding);
+                mHorizontalPadding, mVerticalPadding + upperPadding,
+                mHorizontalPadding, mVerticalPadding + lowerPadding);
+    }
+
+    @Override
+    public void show() {
+        if (isActive()) {
+            return;
+        }
+        mTargetTracker.start(mAnchor, mTargetView, mTargetProvider);
+        super.show();
+    }
+
+    @Override
+    public void dismiss() {
+        mTargetTracker.stop();
+        super.dismiss();
+    }
+
+    @Override
+    protected void onConfigurationChanged(Configuration newConfig) {
+        resolveConfiguration();
+        mTargetTracker.invalidate();
+    }
+
+    /**
+     * Resolve the resources and layout direction used to position the hole and content
+     */
+    private void resolveConfiguration() {
+        final Resources res = mContext.getResources();
+        mHorizontalPadding = (int) res.getDimension(R.dimen.punchhole_coach_mark_horizontal_padding);
+        mVerticalPadding = (int) res.getDimension(R.dimen.punchhole_coach_mark_vertical_padding);
+        mIsRtl = isRtlConfig(mContext);
+        mPaddingStale = true;
+    }
+
+    /**
+     * Remember the given anchor dimensions
+     *
+     * @return true if they differ from the previous anchor dimensions
+     */
+    private boolean updateLastAnchorDimens(CoachMarkDimens<Integer> anchorDimens) {
+        final int right = anchorDimens.x + anchorDimens.width;
+        final int bottom = anchorDimens.y + anchorDimens.height;
+        if (mLastAnchorDimens.left == anchorDimens.x && mLastAnchorDimens.top == anchorDimens.y
+                && mLastAnchorDimens.right == right && mLastAnchorDimens.bottom == bottom) {
+            return false;
+        }
+        mLastAnchorDimens.set(anchorDimens.x, anchorDimens.y, right, bottom);
+        return true;
+    }
+
+    /**
+     * Get the screen-space bounds of the punch hole's target, taken from
+     * {@link PunchHoleCoachMark#mTargetProvider} if one was set or from
+     * {@link PunchHoleCoachMark#mTargetView} otherwise
+     */
+    private void getTargetBounds(Rect outBounds) {
+        if (mTargetProvider != null) {
+            mTargetProvider.getAnchorBounds(outBounds);
+        } else {
+            mTargetView.getLocationOnScreen(mTargetViewLoc);
+            outBounds.set(mTargetViewLoc[0], mTargetViewLoc[1],
+                    mTargetViewLoc[0] + mTargetView.getWidth(),
+                    mTargetViewLoc[1] + mTargetView.getHeight());
+        }
     }
 
     /**
@@ -174,11 +278,11 @@ public class PunchHoleCoachMark extends InternallyAnchoredCoachMark {
     @TargetApi(Build.VERSION_CODES.HONEYCOMB)
     private void animateHorizontalTranslation() {
         if (hasHorizontalTranslation() && mHorizontalAnimators == null) {
-            final int leftMostPosition = mTargetViewLoc[0] + (int) mRelCircleRadius;
-            final int rightMostPosition = mTargetViewLoc[0] + mTargetView.getWidth() - (int) mRelCircleRadius;
+            final int leftMostPosition = mTargetBounds.left + (int) mRelCircleRadius;
+            final int rightMostPosition = mTargetBounds.right - (int) mRelCircleRadius;
 
-            final int startX = isRtlConfig(mContext) ? rightMostPosition : leftMostPosition;
-            final int endX = isRtlConfig(mContext) ? leftMostPosition : rightMostPosition;
+            final int startX = mIsRtl ? rightMostPosition : leftMostPosition;
+            final int endX = mIsRtl ? leftMostPosition : rightMostPosition;
 
             final ValueAnimator[] horizontalAnimations = new ValueAnimator[]{
                     ObjectAnimator.ofInt(mPunchHoleView, "circleCenterX", startX, endX),
@@ -199,17 +303,18 @@ public class PunchHoleCoachMark extends InternallyAnchoredCoachMark {
      * Check if the punch hole should have a horizontal animation. Checks:
      *  - the width of the target view is bigger than the diameter of the circle
      *      (otherwise there's no space to perform the animation).
-     *  - the duration is greater than 0
+     *  - the duration is greater than 0, which it isn't on the low render tier
      *
      * @return  whether to display the animation
      */
     private boolean hasHorizontalTranslation() {
-        return mHorizontalTranslationDuration > 0 && mTargetView.getWidth() > 2 * mRelCircleRadius;
+        return mHorizontalTranslationDuration > 0 && mTargetBounds.width() > 2 * mRelCircleRadius;
     }
 
     public static class PunchHoleCoachMarkBuilder extends InternallyAnchoredCoachMarkBuilder {
 
         protected View targetView;
+        protected AnchorProvider targetProvider;
         protected int overlayColor = 0xBF000000;
 
         protected View.OnClickListener targetClickListener;
@@ -250,6 +355,18 @@ public class PunchHoleCoachMark extends InternallyAnchoredCoachMark {
             return this;
         }
 
+        /**
+         * Set a provider for the region where the "punch hole" will display, for targets
+         * which are drawn inside a view rather than being views themselves.
+         * This takes precedence over {@link #setTargetView(View)}.
+         *
+         * @param targetProvider the provider of the target bounds
+         */
+        public PunchHoleCoachMarkBuilder setTargetProvider(AnchorProvider targetProvider) {
+            this.targetProvider = targetProvider;
+            return this;
+        }
+
         /**
          * Set a listener to be called when the target view is clicked.
          *
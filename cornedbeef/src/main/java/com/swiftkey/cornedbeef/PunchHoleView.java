@@ -2,15 +2,17 @@ package com.swiftkey.cornedbeef;
 
 import android.content.Context;
 import android.graphics.Canvas;
+import android.graphics.Color;
 import android.graphics.Paint;
 import android.graphics.PorterDuff;
 import android.graphics.PorterDuffXfermode;
-import android.graphics.Rect;
 import android.util.AttributeSet;
 import android.view.MotionEvent;
 import android.view.View;
 import android.widget.LinearLayout;
 
+import androidx.annotation.ColorInt;
+
 /**
  * The helper view for the punch hole and listeners.
  */
@@ -22,7 +24,9 @@ public class PunchHoleView extends LinearLayout {
     private int mCircleCenterX;
     private int mCircleCenterY;
     private float mCircleRadius;
-    private Rect mRect; // Contains target view's rect
+
+    private boolean mSquareHole;
+    @ColorInt private int mOverlayColor = Color.TRANSPARENT;
 
     private View.OnClickListener mPunchHoleClickListener;
     private View.OnClickListener mGlobalClickListener;
@@ -37,6 +41,16 @@ public class PunchHoleView extends LinearLayout {
 
     @Override
     protected void onDraw(Canvas canvas) {
+        if (mSquareHole) {
+            // Draw the overlay around the hole, rather than punching the hole out of it
+            final int saveCount = canvas.save();
+            CoachMarkRenderProfile.clipOutRect(canvas,
+                    mCircleCenterX - mCircleRadius, mCircleCenterY - mCircleRadius,
+                    mCircleCenterX + mCircleRadius, mCircleCenterY + mCircleRadius);
+            canvas.drawColor(mOverlayColor);
+            canvas.restoreToCount(saveCount);
+            return;
+        }
         // Punch a hole to target (x, y) position with given radius.
         canvas.drawCircle(mCircleCenterX, mCircleCenterY, mCircleRadius, mPaint);
     }
@@ -47,7 +61,7 @@ public class PunchHoleView extends LinearLayout {
             case MotionEvent.ACTION_DOWN:
                 return true;
             case MotionEvent.ACTION_UP:
-                if (mRect.contains((int) event.getX(), (int) event.getY())) {
+                if (isInPunchHole(event.getX(), event.getY())) {
                     if (mPunchHoleClickListener != null) {
                         mPunchHoleClickListener.onClick(this);
                         return true;
@@ -64,6 +78,36 @@ public class PunchHoleView extends LinearLayout {
         }
     }
 
+    /**
+     * Check whether the given point is inside the punch hole's circle, or its square
+     *
+     * @param x the x coordinate relative to this view
+     * @param y the y coordinate relative to this view
+     */
+    public boolean isInPunchHole(float x, float y) {
+        final float dx = x - mCircleCenterX;
+        final float dy = y - mCircleCenterY;
+        if (mSquareHole) {
+            return Math.abs(dx) <= mCircleRadius && Math.abs(dy) <= mCircleRadius;
+        }
+        return dx * dx + dy * dy <= mCircleRadius * mCircleRadius;
+    }
+
+    /**
+     * Draw the overlay around a square hole which bounds the circle, instead
+     * of as the background with the circle punched out of it. This replaces
+     * the background, and is cheaper to draw on low end devices.
+     *
+     * @param overlayColor the color of the overlay
+     * @see CoachMarkRenderProfile#TIER_LOW
+     */
+    public void setSquareHole(@ColorInt int overlayColor) {
+        mSquareHole = true;
+        mOverlayColor = overlayColor;
+        setBackground(null);
+        setWillNotDraw(false);
+        invalidate();
+    }
 
     /**
      * Set the punch hole's coordinates and radius
@@ -83,10 +127,6 @@ public class PunchHoleView extends LinearLayout {
             return false;
         }
 
-        mRect = new Rect(
-                centerX - (int) radius, centerY - (int) radius,
-                centerX + (int) radius, centerY + (int) radius);
-
         postInvalidate();
 
         return true;
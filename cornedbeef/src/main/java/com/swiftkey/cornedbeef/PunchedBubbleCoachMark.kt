@@ -3,9 +3,12 @@ package com.swiftkey.cornedbeef
 import android.animation.Animator
 import android.animation.AnimatorSet
 import android.animation.ObjectAnimator
+import android.animation.ValueAnimator
 import android.content.Context
 import android.content.res.ColorStateList
+import android.content.res.Configuration
 import android.graphics.Outline
+import android.graphics.Rect
 import android.graphics.RectF
 import android.graphics.drawable.GradientDrawable
 import android.os.Build
@@ -13,6 +16,7 @@ import android.view.LayoutInflater
 import android.view.View
 import android.view.ViewGroup
 import android.view.ViewGroup.MarginLayoutParams
+import android.view.animation.AccelerateDecelerateInterpolator
 import android.view.animation.LinearInterpolator
 import android.view.animation.OvershootInterpolator
 import android.widget.ImageView
@@ -21,6 +25,7 @@ import androidx.annotation.ColorInt
 import androidx.annotation.LayoutRes
 import androidx.annotation.Px
 import com.swiftkey.cornedbeef.BubbleCoachMark.BubbleCoachMarkBuilder
+import com.swiftkey.cornedbeef.geometry.PopupGeometry
 import java.lang.ref.WeakReference
 import kotlin.math.roundToInt
 
@@ -36,12 +41,30 @@ class PunchedBubbleCoachMark(
     private var minWidth = 0
     private var arrowWidth = 0
 
-    private val targetView: WeakReference<View>
+    private var targetView: WeakReference<View>
+    private var targetProvider: AnchorProvider?
     private val targetViewLoc = IntArray(2)
+    private val targetBounds = Rect()
     private val targetViewOutline = Outline()
+    private val lastAnchorDimens = Rect()
+    private val bubbleBounds = Rect()
+    private val windowBounds = Rect()
+    private val lastWindowBounds = Rect()
+    private var lastPopupDimens: CoachMarkDimens<Int>? = null
     private lateinit var targetViewRect: RectF
     private val punchHoleExtension: Float
     private val punchHoleRadiusOverride: Float
+    private val bubbleMaxWidth: Int
+    private var measuredScreenWidth: Int
+
+    // The punch hole animates from the start to the end rect while morphing to a new target
+    private val punchStartRect = RectF()
+    private val punchEndRect = RectF()
+    private var punchStartRadius = 0f
+    private var punchEndRadius = 0f
+    private var morphFraction = 1f
+    private var morphAnimator: ValueAnimator? = null
+    private var anchoredToTarget = false
 
     private lateinit var punchedContainer: PunchedLayout
     private lateinit var bubbleContainer: View
@@ -51,15 +74,24 @@ class PunchedBubbleCoachMark(
 
     private var entranceAnimator: Animator? = null
 
+    private val targetTracker = TargetTracker {
+        if (isShowing) {
+            updatePosition()
+        }
+    }
+
     init {
         target = builder.target
         targetView = WeakReference(builder.targetView)
+        targetProvider = builder.targetProvider
         showBelowAnchor = builder.showBelowAnchor
         minArrowMargin =
             mContext.resources.getDimensionPixelSize(R.dimen.coach_mark_border_radius) +
                     MIN_ARROW_MARGIN.dpToPx(mContext)
         punchHoleExtension = builder.extendPunchHole
         punchHoleRadiusOverride = builder.punchHoleRadiusOverride
+        bubbleMaxWidth = builder.bubbleMaxWidth
+        measuredScreenWidth = mContext.resources.displayMetrics.widthPixels
 
         punchedContainer.punchHoleClickListener = builder.targetClickListener
         punchedContainer.globalClickListener = builder.globalClickListener
@@ -70,13 +102,19 @@ class PunchedBubbleCoachMark(
         requireNotNull(contentHolder)
 
         builder.overlayColor?.let { punchedContainer.overlayColor = it }
+        punchedContainer.squareHole = isLowRenderTier()
 
         // Set the bubble color, if possible. We could change the color in lower APIs but we'd
         // have to use the support library, increasing the size of the CornedBeef library.
-        ColorStateList.valueOf(builder.bubbleColor).apply {
-            topArrow.imageTintList = this
-            bottomArrow.imageTintList = this
-            (contentHolder.background.mutate() as GradientDrawable).color = this
+        CoachMarkTrace.beginSection(CoachMarkTrace.MUTATE_DRAWABLE)
+        try {
+            ColorStateList.valueOf(builder.bubbleColor).apply {
+                topArrow.imageTintList = this
+                bottomArrow.imageTintList = this
+                (contentHolder.background.mutate() as GradientDrawable).color = this
+            }
+        } finally {
+            CoachMarkTrace.endSection()
         }
     }
 
@@ -91,10 +129,23 @@ class PunchedBubbleCoachMark(
             view.findViewById<ViewGroup>(R.id.coach_mark_content).also { contentHolder = it }
         contentHolder.addView(content)
 
-        // Measure the coach mark to get the minimum width (constrained by screen width and padding)
+        measureBubble(builder.bubbleMaxWidth)
+        topArrow = bubbleContainer.findViewById(R.id.top_arrow)
+        bottomArrow = bubbleContainer.findViewById(R.id.bottom_arrow)
+
+        // It is assumed that the top and bottom arrows are identical
+        arrowWidth = bottomArrow.measuredWidth
+        return view
+    }
+
+    /**
+     * Measure the bubble to get the minimum width (constrained by screen width and padding),
+     * and then make the content holder expand to fill it
+     */
+    private fun measureBubble(@Px bubbleMaxWidth: Int) {
         val maxWidth =
-            if (builder.bubbleMaxWidth != 0) {
-                builder.bubbleMaxWidth
+            if (bubbleMaxWidth != 0) {
+                bubbleMaxWidth
             } else {
                 Int.MAX_VALUE
             }.coerceAtMost(
@@ -102,23 +153,40 @@ class PunchedBubbleCoachMark(
                     .displayMetrics.widthPixels - (2 * mPadding)
             )
 
-        bubbleContainer.measure(
-            View.MeasureSpec.makeMeasureSpec(
-                maxWidth,
-                View.MeasureSpec.AT_MOST
-            ), 0
-        )
+        contentHolder.layoutParams.width = ViewGroup.LayoutParams.WRAP_CONTENT
+        CoachMarkTrace.beginSection(CoachMarkTrace.MEASURE)
+        CoachMarkStrictMode.onInflateOrMeasure("Measuring a punched bubble coach mark")
+        try {
+            bubbleContainer.measure(
+                View.MeasureSpec.makeMeasureSpec(
+                    maxWidth,
+                    View.MeasureSpec.AT_MOST
+                ), 0
+            )
+        } finally {
+            CoachMarkTrace.endSection()
+        }
         minWidth = bubbleContainer.measuredWidth
-        topArrow = bubbleContainer.findViewById(R.id.top_arrow)
-        bottomArrow = bubbleContainer.findViewById(R.id.bottom_arrow)
 
         // Ensure that content holder expands to fill the coach mark
         contentHolder.layoutParams.width = ViewGroup.LayoutParams.MATCH_PARENT
         bubbleContainer.layoutParams.width = minWidth
+    }
 
-        // It is assumed that the top and bottom arrows are identical
-        arrowWidth = bottomArrow.measuredWidth
-        return view
+    override fun onDisplayFrameChanged() {
+        // The screen width may have changed, e.g. after rotation
+        val screenWidth = mContext.resources.displayMetrics.widthPixels
+        if (screenWidth != measuredScreenWidth) {
+            measuredScreenWidth = screenWidth
+            measureBubble(bubbleMaxWidth)
+            bubbleContainer.requestLayout()
+        }
+    }
+
+    override fun getAnchorBounds(outBounds: Rect) {
+        if (!anchoredToTarget || !getTargetBounds(outBounds)) {
+            super.getAnchorBounds(outBounds)
+        }
     }
 
     override fun createNewPopupWindow(contentView: View): PopupWindow {
@@ -128,10 +196,27 @@ class PunchedBubbleCoachMark(
             ViewGroup.LayoutParams.WRAP_CONTENT
         )
         popup.isClippingEnabled = false // We will handle clipping ourselves
+        popup.setTouchInterceptor(CoachMarkPassThroughTouchListener())
         popup.isTouchable = true
         return popup
     }
 
+    override fun isPassThrough(x: Float, y: Float): Boolean {
+        // Pass through touches in the hole or anywhere outside of the bubble
+        return punchedContainer.isInPunchHole(x, y) ||
+                x < bubbleContainer.x || x >= bubbleContainer.x + bubbleContainer.width ||
+                y < bubbleContainer.y || y >= bubbleContainer.y + bubbleContainer.height
+    }
+
+    /**
+     * The popup only needs to cover the whole screen if it draws a scrim or listens for clicks
+     * anywhere on the screen. Otherwise it is sized to the bubble, or to the bubble and the punch
+     * hole if clicks on the target are listened for, saving a full-screen window buffer.
+     */
+    override fun isPopupFullScreen(): Boolean =
+        mPopupFitsSystemWindows &&
+                (punchedContainer.hasScrim || punchedContainer.globalClickListener != null)
+
     override fun getPopupDimens(anchorDimens: CoachMarkDimens<Int>): CoachMarkDimens<Int> {
         val screenWidth = mDisplayFrame.width()
         val screenHeight = mDisplayFrame.height()
@@ -139,28 +224,60 @@ class PunchedBubbleCoachMark(
             minWidth
 
         val popupHeight = bubbleContainer.measuredHeight
-        val popupPos =
-            CoachMarkUtils.getPopupPosition(
-                /* anchorDimens = */ anchorDimens,
+        // Calculate x and y separately, as this is called on every frame
+        val popupX =
+            PopupGeometry.getPopupX(
+                /* anchorX = */ anchorDimens.x,
+                /* anchorWidth = */ anchorDimens.width,
                 /* popupWidth = */ popupWidth,
-                /* popupHeight = */ popupHeight,
                 /* screenWidth = */ screenWidth,
+                /* padding = */ mPadding
+            )
+        val popupY =
+            PopupGeometry.getPopupY(
+                /* anchorY = */ anchorDimens.y,
+                /* anchorHeight = */ anchorDimens.height,
+                /* popupHeight = */ popupHeight,
                 /* screenHeight = */ screenHeight,
-                /* padding = */ mPadding,
                 /* showBelow = */ showBelowAnchor
             )
-        return CoachMarkDimens(
-            /* x = */ popupPos.x,
-            /* y = */ popupPos.y,
-            /* width = */ popupWidth,
-            /* height = */ popupHeight
-        )
+        val bubbleTop = popupY + punchHoleExtension.roundToInt()
+        bubbleBounds.set(popupX, bubbleTop, popupX + popupWidth, bubbleTop + popupHeight)
+        if (isPopupFullScreen()) {
+            windowBounds.setEmpty()
+            return updateDimens(
+                /* previous = */ lastPopupDimens,
+                /* x = */ popupX,
+                /* y = */ popupY,
+                /* width = */ popupWidth,
+                /* height = */ popupHeight
+            ).also { lastPopupDimens = it }
+        }
+
+        windowBounds.set(bubbleBounds)
+        if (punchedContainer.punchHoleClickListener != null && getTargetBounds(targetBounds)) {
+            val extension = punchHoleExtension.roundToInt()
+            windowBounds.union(
+                /* left = */ targetBounds.left - extension,
+                /* top = */ targetBounds.top - extension,
+                /* right = */ targetBounds.right + extension,
+                /* bottom = */ targetBounds.bottom + extension
+            )
+        }
+        return updateDimens(
+            /* previous = */ lastPopupDimens,
+            /* x = */ windowBounds.left,
+            /* y = */ windowBounds.top,
+            /* width = */ windowBounds.width(),
+            /* height = */ windowBounds.height()
+        ).also { lastPopupDimens = it }
     }
 
     override fun updateView(popupDimens: CoachMarkDimens<Int>, anchorDimens: CoachMarkDimens<Int>) {
         // Check if the popup is being shown above or below the anchor
+        val bubbleY = bubbleBounds.top - punchHoleExtension.roundToInt()
         val currentArrow: View =
-            if (popupDimens.pos.y > anchorDimens.y) {
+            if (bubbleY > anchorDimens.y) {
                 topArrow.visibility = View.VISIBLE
                 bottomArrow.visibility = View.GONE
                 topArrow
@@ -174,9 +291,9 @@ class PunchedBubbleCoachMark(
             /* anchorWidth = */ anchorDimens.width,
             /* arrowWidth = */ arrowWidth,
             /* anchorX = */ anchorDimens.x,
-            /* popupX = */ popupDimens.pos.x,
+            /* popupX = */ bubbleBounds.left,
             /* minMargin = */ minArrowMargin,
-            /* maxMargin = */ popupDimens.width - minArrowMargin - arrowWidth
+            /* maxMargin = */ bubbleBounds.width() - minArrowMargin - arrowWidth
         ).apply {
             val params = currentArrow.layoutParams as MarginLayoutParams
             if (this != params.leftMargin) {
@@ -186,41 +303,228 @@ class PunchedBubbleCoachMark(
         }
 
         // Update punched container padding
-        punchedContainer.setPaddingRelative(
-            /* start = */ popupDimens.x,
-            /* top = */ popupDimens.y + punchHoleExtension.roundToInt(),
-            /* end = */ popupDimens.x,
-            /* bottom = */ 0
-        )
+        if (windowBounds.isEmpty) {
+            if (punchedContainer.paddingStart != bubbleBounds.left ||
+                punchedContainer.paddingTop != bubbleBounds.top ||
+                punchedContainer.paddingEnd != bubbleBounds.left
+            ) {
+                punchedContainer.setPaddingRelative(
+                    /* start = */ bubbleBounds.left,
+                    /* top = */ bubbleBounds.top,
+                    /* end = */ bubbleBounds.left,
+                    /* bottom = */ 0
+                )
+            }
+        } else {
+            // The bubble is positioned within a window which only covers it and the punch hole,
+            // whose size is set before it is first shown so that it is never laid out full screen
+            if (!isShowing) {
+                mPopup.width = popupDimens.width
+                mPopup.height = popupDimens.height
+            }
+            val left = bubbleBounds.left - windowBounds.left
+            val top = bubbleBounds.top - windowBounds.top
+            val right = windowBounds.right - bubbleBounds.right
+            if (punchedContainer.paddingLeft != left || punchedContainer.paddingTop != top ||
+                punchedContainer.paddingRight != right || punchedContainer.paddingBottom != 0
+            ) {
+                punchedContainer.setPadding(left, top, right, 0)
+            }
+        }
 
-        // Update punch
-        targetView.get()?.run {
-            getLocationOnScreen(targetViewLoc)
+        // Only update the punch when the anchor or window has moved or the target may have changed
+        val anchorChanged = updateLastAnchorDimens(anchorDimens)
+        val targetChanged = targetTracker.consumeChange()
+        val windowChanged = lastWindowBounds != windowBounds
+        if (anchorChanged || targetChanged || windowChanged) {
+            lastWindowBounds.set(windowBounds)
+            updatePunch()
+        }
+    }
 
-            if (punchHoleRadiusOverride == 0f && Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
+    /**
+     * Recompute the punch hole's rect and corner radius from the target, invalidating the
+     * punched container only if the hole has moved
+     */
+    private fun updatePunch() {
+        if (!getTargetBounds(targetBounds)) {
+            return
+        }
+        val view = targetView.get()
+        punchEndRadius =
+            if (targetProvider == null && view != null && punchHoleRadiusOverride == 0f &&
+                Build.VERSION.SDK_INT >= Build.VERSION_CODES.N
+            ) {
                 targetViewOutline.setEmpty()
-                outlineProvider.getOutline(this, targetViewOutline)
-
-                val radius = targetViewOutline.radius
-                punchedContainer.cornerRadius = radius
+                view.outlineProvider.getOutline(view, targetViewOutline)
+                targetViewOutline.radius
             } else {
-                punchedContainer.cornerRadius = punchHoleRadiusOverride
+                punchHoleRadiusOverride
             }
-            targetViewRect.set(
-                /* left = */ targetViewLoc[0].toFloat() - punchHoleExtension,
-                /* top = */ targetViewLoc[1].toFloat() - punchHoleExtension,
-                /* right = */ targetViewLoc[0].toFloat() + width.toFloat() + punchHoleExtension,
-                /* bottom = */ targetViewLoc[1].toFloat() + height.toFloat() + punchHoleExtension
-            )
-            punchedContainer.postInvalidate()
+        // The hole is drawn relative to the window, which is at the origin when full screen
+        punchEndRect.set(
+            /* left = */ targetBounds.left.toFloat() - punchHoleExtension,
+            /* top = */ targetBounds.top.toFloat() - punchHoleExtension,
+            /* right = */ targetBounds.right.toFloat() + punchHoleExtension,
+            /* bottom = */ targetBounds.bottom.toFloat() + punchHoleExtension
+        )
+        punchEndRect.offset(-windowBounds.left.toFloat(), -windowBounds.top.toFloat())
+        applyPunch()
+    }
+
+    /**
+     * Get the screen bounds of the punch hole target, returning false if the target view
+     * has been garbage collected
+     */
+    private fun getTargetBounds(outBounds: Rect): Boolean {
+        val provider = targetProvider
+        if (provider != null) {
+            provider.getAnchorBounds(outBounds)
+            return true
+        }
+        val view = targetView.get() ?: return false
+        view.getLocationOnScreen(targetViewLoc)
+        outBounds.set(
+            /* left = */ targetViewLoc[0],
+            /* top = */ targetViewLoc[1],
+            /* right = */ targetViewLoc[0] + view.width,
+            /* bottom = */ targetViewLoc[1] + view.height
+        )
+        return true
+    }
+
+    /**
+     * Move the punch hole to its position at the current point of any morph, invalidating the
+     * punched container only if it has changed
+     */
+    private fun applyPunch() {
+        val fraction = morphFraction
+        val left: Float
+        val top: Float
+        val right: Float
+        val bottom: Float
+        if (fraction >= 1f) {
+            left = punchEndRect.left
+            top = punchEndRect.top
+            right = punchEndRect.right
+            bottom = punchEndRect.bottom
+            punchedContainer.cornerRadius = punchEndRadius
+        } else {
+            left = lerp(punchStartRect.left, punchEndRect.left, fraction)
+            top = lerp(punchStartRect.top, punchEndRect.top, fraction)
+            right = lerp(punchStartRect.right, punchEndRect.right, fraction)
+            bottom = lerp(punchStartRect.bottom, punchEndRect.bottom, fraction)
+            punchedContainer.cornerRadius = lerp(punchStartRadius, punchEndRadius, fraction)
+        }
+        if (targetViewRect.left != left || targetViewRect.top != top ||
+            targetViewRect.right != right || targetViewRect.bottom != bottom
+        ) {
+            targetViewRect.set(left, top, right, bottom)
+            punchedContainer.invalidate()
+        }
+    }
+
+    /**
+     * Re-target this coach mark to a new view, replacing the bubble's content if given.
+     * If the coach mark is showing, its window and scrim stay up while the punch hole animates
+     * from the old target to the new one, avoiding the flicker of dismissing this coach mark
+     * and showing another. From then on the bubble points at the target rather than the anchor.
+     * The target must be in the same window as the original anchor, which still determines
+     * when the coach mark is dismissed.
+     *
+     * @param target the new target view
+     * @param content the new bubble content, or null to keep the current content
+     */
+    @JvmOverloads
+    fun morphTo(target: View, content: View? = null) {
+        morph(target, null, content)
+    }
+
+    /**
+     * Re-target this coach mark to a region supplied by an [AnchorProvider], replacing the
+     * bubble's content if given.
+     *
+     * @param target the provider of the new target region
+     * @param content the new bubble content, or null to keep the current content
+     * @see morphTo
+     */
+    @JvmOverloads
+    fun morphTo(target: AnchorProvider, content: View? = null) {
+        morph(null, target, content)
+    }
+
+    private fun morph(view: View?, provider: AnchorProvider?, content: View?) {
+        morphAnimator?.cancel()
+        punchStartRect.set(targetViewRect)
+        punchStartRadius = punchedContainer.cornerRadius
+        targetView = WeakReference(view)
+        targetProvider = provider
+        anchoredToTarget = true
+        if (content != null) {
+            contentHolder.removeAllViews()
+            contentHolder.addView(content)
+            measureBubble(bubbleMaxWidth)
+            bubbleContainer.requestLayout()
+        }
+        if (!isShowing) {
+            morphFraction = 1f
+            return
+        }
+
+        morphFraction = 0f
+        morphAnimator = ValueAnimator.ofFloat(0f, 1f).apply {
+            duration = MORPH_DURATION_MS
+            interpolator = AccelerateDecelerateInterpolator()
+            addUpdateListener {
+                morphFraction = it.animatedFraction
+                applyPunch()
+            }
+            start()
         }
+        if (content != null) {
+            bubbleContainer.alpha = 0f
+            bubbleContainer.animate().alpha(1f).setDuration(MORPH_DURATION_MS)
+        }
+        targetTracker.start(mAnchor, view, provider)
+        updatePosition()
+    }
+
+    /**
+     * Remember the given anchor dimensions, returning true if they differ from the previous ones
+     */
+    private fun updateLastAnchorDimens(anchorDimens: CoachMarkDimens<Int>): Boolean {
+        val right = anchorDimens.x + anchorDimens.width
+        val bottom = anchorDimens.y + anchorDimens.height
+        if (lastAnchorDimens.left == anchorDimens.x && lastAnchorDimens.top == anchorDimens.y &&
+            lastAnchorDimens.right == right && lastAnchorDimens.bottom == bottom
+        ) {
+            return false
+        }
+        lastAnchorDimens.set(anchorDimens.x, anchorDimens.y, right, bottom)
+        return true
+    }
+
+    override fun onConfigurationChanged(newConfig: Configuration) {
+        targetTracker.invalidate()
     }
 
     override fun show() {
-        // Setup punched entrace animation
-        if (isShowing) {
+        if (isActive) {
             return
         }
+        // Setup punched entrace animation
+        if (!isLowRenderTier()) {
+            startEntranceAnimation()
+        }
+        if (isPopupFullScreen()) {
+            mPopup.width = ViewGroup.LayoutParams.MATCH_PARENT
+            mPopup.height = ViewGroup.LayoutParams.MATCH_PARENT
+        }
+        targetTracker.start(mAnchor, targetView.get(), targetProvider)
+        super.show()
+    }
+
+    private fun startEntranceAnimation() {
         entranceAnimator = AnimatorSet().apply {
             play(
                 ObjectAnimator.ofFloat(contentView, "alpha", 0f, 1f)
@@ -237,7 +541,14 @@ class PunchedBubbleCoachMark(
                     .also { it.interpolator = OvershootInterpolator(1.5f) }
             )
         }.also { it.start() }
-        super.show()
+    }
+
+    override fun dismiss() {
+        morphAnimator?.cancel()
+        morphAnimator = null
+        morphFraction = 1f
+        targetTracker.stop()
+        super.dismiss()
     }
 
     @Suppress("unused")
@@ -246,6 +557,7 @@ class PunchedBubbleCoachMark(
         internal var globalClickListener: View.OnClickListener? = null
         internal var targetClickListener: View.OnClickListener? = null
         internal var targetView: View? = null
+        internal var targetProvider: AnchorProvider? = null
         internal var extendPunchHole = 0f
         internal var punchHoleRadiusOverride = 0f
         internal var bubbleMaxWidth: Int = 0
@@ -272,6 +584,17 @@ class PunchedBubbleCoachMark(
             return this
         }
 
+        /**
+         * Set a provider for the region where the "punch hole" will display, for targets
+         * which are drawn inside a view rather than being views themselves.
+         * This takes precedence over [setTargetView].
+         * @param provider
+         */
+        fun setTargetProvider(provider: AnchorProvider): PunchedBubbleCoachMarkBuilder {
+            this.targetProvider = provider
+            return this
+        }
+
         fun setBubbleMaxWidth(@Px bubbleMaxWidth: Int): PunchedBubbleCoachMarkBuilder {
             this.bubbleMaxWidth = bubbleMaxWidth
             return this
@@ -375,6 +698,39 @@ class PunchedBubbleCoachMark(
             return this
         }
 
+        override fun setAnchorProvider(anchorProvider: AnchorProvider?): PunchedBubbleCoachMarkBuilder {
+            super.setAnchorProvider(anchorProvider)
+            return this
+        }
+
+        override fun setNonModal(nonModal: Boolean): PunchedBubbleCoachMarkBuilder {
+            super.setNonModal(nonModal)
+            return this
+        }
+
+        override fun setRenderTier(renderTier: Int): PunchedBubbleCoachMarkBuilder {
+            super.setRenderTier(renderTier)
+            return this
+        }
+
+        override fun setId(id: String?): PunchedBubbleCoachMarkBuilder {
+            super.setId(id)
+            return this
+        }
+
+        override fun setSeenStore(seenStore: CoachMarkSeenStore?): PunchedBubbleCoachMarkBuilder {
+            super.setSeenStore(seenStore)
+            return this
+        }
+
+        override fun setSeenStore(
+            seenStore: CoachMarkSeenStore?,
+            maxShowCount: Int
+        ): PunchedBubbleCoachMarkBuilder {
+            super.setSeenStore(seenStore, maxShowCount)
+            return this
+        }
+
         override fun setTextColor(textColor: Int): PunchedBubbleCoachMarkBuilder {
             super.setTextColor(textColor)
             return this
@@ -397,6 +753,10 @@ class PunchedBubbleCoachMark(
 
     companion object {
         private const val MIN_ARROW_MARGIN = 10
+        private const val MORPH_DURATION_MS = 300L
+
+        private fun lerp(start: Float, end: Float, fraction: Float): Float =
+            start + (end - start) * fraction
     }
 }
 
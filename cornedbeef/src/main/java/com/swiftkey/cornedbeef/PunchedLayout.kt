@@ -44,6 +44,26 @@ internal class PunchedLayout @JvmOverloads constructor(
             }
         }
 
+    /**
+     * Whether to draw the overlay around a square cornered hole, clipping the hole out rather
+     * than punching it out, which is cheaper on low end devices
+     *
+     * @see CoachMarkRenderProfile.TIER_LOW
+     */
+    internal var squareHole: Boolean = false
+        set(value) {
+            if (field != value) {
+                field = value
+                postInvalidate()
+            }
+        }
+
+    /**
+     * Whether the overlay is visible, and so needs to cover the whole screen
+     */
+    internal val hasScrim: Boolean
+        get() = Color.alpha(overlayColor) != 0
+
     // Helpers to punch a hole
     private val paint: Paint = Paint()
 
@@ -60,25 +80,59 @@ internal class PunchedLayout @JvmOverloads constructor(
 
     override fun dispatchDraw(canvas: Canvas) {
         // Punch a hole to target (x, y) position with given radius.
-        rect?.run {
-            canvas.drawColor(overlayColor)
-            if (cornerRadius == 0f) {
-                canvas.drawRect(this, paint)
+        rect?.takeIf { hasScrim }?.run {
+            if (squareHole) {
+                // Draw the overlay around the hole, rather than punching the hole out of it
+                val saveCount = canvas.save()
+                CoachMarkRenderProfile.clipOutRect(canvas, left, top, right, bottom)
+                canvas.drawColor(overlayColor)
+                canvas.restoreToCount(saveCount)
             } else {
-                canvas.drawRoundRect(this, cornerRadius, cornerRadius, paint)
+                canvas.drawColor(overlayColor)
+                if (cornerRadius == 0f) {
+                    canvas.drawRect(this, paint)
+                } else {
+                    canvas.drawRoundRect(this, cornerRadius, cornerRadius, paint)
+                }
             }
         }
         super.dispatchDraw(canvas)
     }
 
+    /**
+     * Check whether the given point is inside the punch hole, taking its rounded corners into
+     * account
+     */
+    internal fun isInPunchHole(x: Float, y: Float): Boolean {
+        val rect = rect ?: return false
+        if (!rect.contains(x, y)) {
+            return false
+        }
+        val radius = cornerRadius.coerceAtMost(minOf(rect.width(), rect.height()) / 2)
+        if (squareHole || radius <= 0f) {
+            return true
+        }
+        // Only points in the corner squares can be outside the rounded rect
+        val dx = when {
+            x < rect.left + radius -> rect.left + radius - x
+            x > rect.right - radius -> x - (rect.right - radius)
+            else -> return true
+        }
+        val dy = when {
+            y < rect.top + radius -> rect.top + radius - y
+            y > rect.bottom - radius -> y - (rect.bottom - radius)
+            else -> return true
+        }
+        return dx * dx + dy * dy <= radius * radius
+    }
+
     @SuppressLint("ClickableViewAccessibility")
     override fun onTouchEvent(event: MotionEvent): Boolean {
         return when (event.action) {
             MotionEvent.ACTION_DOWN -> true
             MotionEvent.ACTION_UP -> {
                 when {
-                    rect?.contains(event.x, event.y) == true
-                            && punchHoleClickListener != null ->
+                    isInPunchHole(event.x, event.y) && punchHoleClickListener != null ->
                         punchHoleClickListener!!.onClick(this)
 
                     globalClickListener != null ->
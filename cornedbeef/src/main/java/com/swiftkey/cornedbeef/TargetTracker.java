@@ -0,0 +1,119 @@
+package com.swiftkey.cornedbeef;
+
+import android.view.View;
+import android.view.ViewTreeObserver;
+
+/**
+ * Tracks whether the geometry of a punch hole target may have changed since it
+ * was last read, so that the hole only needs to be recomputed when something
+ * actually happened rather than on every frame.
+ * <p>
+ * Target views are tracked through layout changes of the target and anchor and
+ * through scroll notifications from the anchor's window. As a target can also be
+ * moved without a layout, e.g. by a translation, a ViewPropertyAnimator, an item
+ * animation or offsetTopAndBottom, its location on screen is also compared on
+ * every frame, which doesn't allocate. Targets supplied by an
+ * {@link AnchorProvider} are tracked through its change notifications, which
+ * also trigger the given callback as they may not be followed by a draw pass.
+ */
+class TargetTracker implements View.OnLayoutChangeListener,
+        ViewTreeObserver.OnScrollChangedListener, AnchorProvider.OnAnchorChangedListener {
+
+    private final Runnable mOnProviderChanged;
+    private final int[] mTargetLoc = new int[2];
+    private final int[] mLastTargetLoc = new int[2];
+
+    private View mAnchor;
+    private View mTarget;
+    private AnchorProvider mProvider;
+    private boolean mChanged = true;
+
+    TargetTracker(Runnable onProviderChanged) {
+        mOnProviderChanged = onProviderChanged;
+    }
+
+    /**
+     * Start listening for changes to the target
+     *
+     * @param anchor the coach mark's anchor view
+     * @param target the target view, or null if a provider is used
+     * @param provider the target provider, or null if a view is used
+     */
+    void start(View anchor, View target, AnchorProvider provider) {
+        stop();
+        mAnchor = anchor;
+        mTarget = target;
+        mProvider = provider;
+        mAnchor.addOnLayoutChangeListener(this);
+        mAnchor.getViewTreeObserver().addOnScrollChangedListener(this);
+        if (mTarget != null && mTarget != mAnchor) {
+            mTarget.addOnLayoutChangeListener(this);
+        }
+        if (mProvider != null) {
+            mProvider.addOnAnchorChangedListener(this);
+        }
+        mChanged = true;
+    }
+
+    /**
+     * Stop listening for changes and release the tracked views
+     */
+    void stop() {
+        if (mAnchor != null) {
+            mAnchor.removeOnLayoutChangeListener(this);
+            mAnchor.getViewTreeObserver().removeOnScrollChangedListener(this);
+        }
+        if (mTarget != null) {
+            mTarget.removeOnLayoutChangeListener(this);
+        }
+        if (mProvider != null) {
+            mProvider.removeOnAnchorChangedListener(this);
+        }
+        mAnchor = null;
+        mTarget = null;
+        mProvider = null;
+    }
+
+    /**
+     * Force the target geometry to be recomputed, e.g. after a configuration change
+     */
+    void invalidate() {
+        mChanged = true;
+    }
+
+    /**
+     * Called on every frame to check whether the target may have changed
+     *
+     * @return whether the target may have changed since the last call, clearing the flag
+     */
+    boolean consumeChange() {
+        if (mTarget != null) {
+            mTarget.getLocationOnScreen(mTargetLoc);
+            if (mTargetLoc[0] != mLastTargetLoc[0] || mTargetLoc[1] != mLastTargetLoc[1]) {
+                mLastTargetLoc[0] = mTargetLoc[0];
+                mLastTargetLoc[1] = mTargetLoc[1];
+                mChanged = true;
+            }
+        }
+        final boolean changed = mChanged;
+        mChanged = false;
+        return changed;
+    }
+
+    @Override
+    public void onLayoutChange(View v, int left, int top, int right, int bottom,
+            int oldLeft, int oldTop, int oldRight, int oldBottom) {
+        mChanged = true;
+    }
+
+    @Override
+    public void onScrollChanged() {
+        mChanged = true;
+    }
+
+    @Override
+    public void onAnchorChanged() {
+        mChanged = true;
+        mOnProviderChanged.run();
+    }
+}
@@ -0,0 +1,56 @@
+package com.swiftkey.cornedbeef;
+
+import android.view.MotionEvent;
+import android.view.View;
+
+/**
+ * Forwards a touch stream received by a coach mark's window to the window
+ * underneath it, so that non-modal coach marks don't swallow taps and scrolls.
+ * <p>
+ * A stream is forwarded from its {@link MotionEvent#ACTION_DOWN} until it ends.
+ * Each event is offset into the target's coordinates in place and restored
+ * afterwards, rather than being copied.
+ */
+class TouchForwarder {
+
+    private final int[] mSourceLoc = new int[2];
+    private final int[] mTargetLoc = new int[2];
+
+    private View mTarget;
+    private float mOffsetX;
+    private float mOffsetY;
+
+    /**
+     * Start forwarding a touch stream
+     *
+     * @param source the view receiving the stream, e.g. the popup's root view
+     * @param target the view to forward the stream to, e.g. the root view of the window underneath
+     */
+    void start(View source, View target) {
+        source.getLocationOnScreen(mSourceLoc);
+        target.getLocationOnScreen(mTargetLoc);
+        mOffsetX = mSourceLoc[0] - mTargetLoc[0];
+        mOffsetY = mSourceLoc[1] - mTargetLoc[1];
+        mTarget = target;
+    }
+
+    /**
+     * Forward the event if a stream is being forwarded, stopping at the end of the stream
+     *
+     * @return true if the event was forwarded
+     */
+    boolean forward(MotionEvent event) {
+        final View target = mTarget;
+        if (target == null) {
+            return false;
+        }
+        final int action = event.getActionMasked();
+        if (action == MotionEvent.ACTION_UP || action == MotionEvent.ACTION_CANCEL) {
+            mTarget = null;
+        }
+        event.offsetLocation(mOffsetX, mOffsetY);
+        target.dispatchTouchEvent(event);
+        event.offsetLocation(-mOffsetX, -mOffsetY);
+        return true;
+    }
+}
@@ -0,0 +1,82 @@
+package com.swiftkey.cornedbeef;
+
+import android.graphics.Rect;
+import android.view.View;
+
+import androidx.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * An {@link AnchorProvider} for a rectangular region drawn inside a host
+ * {@link View}. The region is given in the host view's own coordinates, so a
+ * custom view can pass the same rect that it uses for drawing its target.
+ */
+public class ViewRegionAnchorProvider implements AnchorProvider {
+
+    private final View mHost;
+    private final Rect mRegion = new Rect();
+    private final int[] mHostLoc = new int[2];
+    private final List<OnAnchorChangedListener> mListeners = new ArrayList<>();
+
+    public ViewRegionAnchorProvider(@NonNull View host, @NonNull Rect region) {
+        mHost = host;
+        mRegion.set(region);
+    }
+
+    /**
+     * Get the view inside which the region is drawn
+     */
+    public View getHost() {
+        return mHost;
+    }
+
+    /**
+     * Move the region, notifying any listeners if it has changed
+     *
+     * @param left the left edge of the region, relative to the host view
+     * @param top the top edge of the region, relative to the host view
+     * @param right the right edge of the region, relative to the host view
+     * @param bottom the bottom edge of the region, relative to the host view
+     */
+    public void setRegion(int left, int top, int right, int bottom) {
+        if (mRegion.left == left && mRegion.top == top
+                && mRegion.right == right && mRegion.bottom == bottom) {
+            return;
+        }
+        mRegion.set(left, top, right, bottom);
+        // Iterate by index as listeners may remove themselves when notified
+        for (int i = mListeners.size() - 1; i >= 0; i--) {
+            mListeners.get(i).onAnchorChanged();
+        }
+    }
+
+    /**
+     * Move the region, notifying any listeners if it has changed
+     *
+     * @param region the new region, relative to the host view
+     */
+    public void setRegion(@NonNull Rect region) {
+        setRegion(region.left, region.top, region.right, region.bottom);
+    }
+
+    @Override
+    public void getAnchorBounds(@NonNull Rect outBounds) {
+        mHost.getLocationOnScreen(mHostLoc);
+        outBounds.set(mRegion);
+        outBounds.offset(mHostLoc[0], mHostLoc[1]);
+    }
+
+    @Override
+    public void addOnAnchorChangedListener(@NonNull OnAnchorChangedListener listener) {
+        if (!mListeners.contains(listener)) {
+            mListeners.add(listener);
+        }
+    }
+
+    @Override
+    public void removeOnAnchorChangedListener(@NonNull OnAnchorChangedListener listener) {
+        mListeners.remove(listener);
+    }
+}
@@ -0,0 +1,135 @@
+package com.swiftkey.cornedbeef;
+
+import java.util.Arrays;
+
+/**
+ * A frame by frame record of where an anchor is and of the size of its
+ * window's visible display frame, replayed by {@link CoachMarkReplayer}.
+ * The traces here are synthesized from fixed curves rather than recorded, so
+ * that every run replays exactly the same frames.
+ */
+final class AnchorMotionTrace {
+
+    static final long FRAME_INTERVAL_MS = 16;
+
+    static final int SCREEN_WIDTH = 1080;
+    static final int SCREEN_HEIGHT = 1920;
+    static final int ANCHOR_WIDTH = 300;
+    static final int ANCHOR_HEIGHT = 150;
+
+    final String name;
+    private int[] mFrames = new int[4 * 64];
+    private int mFrameCount;
+
+    private AnchorMotionTrace(String name) {
+        this.name = name;
+    }
+
+    int getFrameCount() {
+        return mFrameCount;
+    }
+
+    int getAnchorX(int frame) {
+        return mFrames[4 * frame];
+    }
+
+    int getAnchorY(int frame) {
+        return mFrames[4 * frame + 1];
+    }
+
+    int getDisplayWidth(int frame) {
+        return mFrames[4 * frame + 2];
+    }
+
+    int getDisplayHeight(int frame) {
+        return mFrames[4 * frame + 3];
+    }
+
+    private void addFrame(int anchorX, int anchorY, int displayWidth, int displayHeight) {
+        if (4 * (mFrameCount + 1) > mFrames.length) {
+            mFrames = Arrays.copyOf(mFrames, mFrames.length * 2);
+        }
+        mFrames[4 * mFrameCount] = anchorX;
+        mFrames[4 * mFrameCount + 1] = anchorY;
+        mFrames[4 * mFrameCount + 2] = displayWidth;
+        mFrames[4 * mFrameCount + 3] = displayHeight;
+        mFrameCount++;
+    }
+
+    private void addStillFrames(int count) {
+        final int last = mFrameCount - 1;
+        for (int i = 0; i < count; i++) {
+            addFrame(getAnchorX(last), getAnchorY(last), getDisplayWidth(last), getDisplayHeight(last));
+        }
+    }
+
+    /**
+     * The anchor is dragged slowly down the screen, a few pixels a frame
+     */
+    static AnchorMotionTrace slowDrag() {
+        final AnchorMotionTrace trace = new AnchorMotionTrace("slow drag");
+        final int x = (SCREEN_WIDTH - ANCHOR_WIDTH) / 2;
+        for (int i = 0; i < 120; i++) {
+            trace.addFrame(x, 600 + 3 * i, SCREEN_WIDTH, SCREEN_HEIGHT);
+        }
+        return trace;
+    }
+
+    /**
+     * The anchor is flung up the screen and decelerates to a stop, as it
+     * would in a scrolling list
+     */
+    static AnchorMotionTrace fling() {
+        final AnchorMotionTrace trace = new AnchorMotionTrace("fling");
+        final int x = (SCREEN_WIDTH - ANCHOR_WIDTH) / 2;
+        float y = 1600;
+        float velocity = 140;
+        while (velocity >= 1) {
+            trace.addFrame(x, Math.round(y), SCREEN_WIDTH, SCREEN_HEIGHT);
+            y -= velocity;
+            velocity *= 0.92f;
+        }
+        trace.addStillFrames(30);
+        return trace;
+    }
+
+    /**
+     * The keyboard slides in, shrinking the display frame, and pushes the
+     * anchor at the bottom of the window up with it
+     */
+    static AnchorMotionTrace imeSlideIn() {
+        final AnchorMotionTrace trace = new AnchorMotionTrace("IME slide-in");
+        final int x = (SCREEN_WIDTH - ANCHOR_WIDTH) / 2;
+        final int imeHeight = SCREEN_HEIGHT * 2 / 5;
+        trace.addFrame(x, SCREEN_HEIGHT - ANCHOR_HEIGHT, SCREEN_WIDTH, SCREEN_HEIGHT);
+        final int frames = 18;
+        for (int i = 1; i <= frames; i++) {
+            // Decelerate, as the system's IME animation does
+            final float fraction = 1 - (1 - (float) i / frames) * (1 - (float) i / frames);
+            final int displayHeight = SCREEN_HEIGHT - Math.round(imeHeight * fraction);
+            trace.addFrame(x, displayHeight - ANCHOR_HEIGHT, SCREEN_WIDTH, displayHeight);
+        }
+        trace.addStillFrames(30);
+        return trace;
+    }
+
+    /**
+     * The device is rotated to landscape, swapping the size of the display
+     * frame and moving the anchor to the matching position
+     */
+    static AnchorMotionTrace rotation() {
+        final AnchorMotionTrace trace = new AnchorMotionTrace("rotation");
+        final int x = 100;
+        final int y = 1200;
+        trace.addFrame(x, y, SCREEN_WIDTH, SCREEN_HEIGHT);
+        trace.addStillFrames(20);
+        trace.addFrame(x * SCREEN_HEIGHT / SCREEN_WIDTH, y * SCREEN_WIDTH / SCREEN_HEIGHT,
+                SCREEN_HEIGHT, SCREEN_WIDTH);
+        trace.addStillFrames(40);
+        return trace;
+    }
+
+    static AnchorMotionTrace[] all() {
+        return new AnchorMotionTrace[] {slowDrag(), fling(), imeSlideIn(), rotation()};
+    }
+}
@@ -0,0 +1,57 @@
+package com.swiftkey.cornedbeef;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * The benchmarks only run when asked for, with
+ * {@code ./gradlew :cornedbeef:testDebugUnitTest -Pbenchmarks}, and write
+ * their results to {@code build/reports/benchmarks} rather than to the test
+ * output, so that runs of different versions can be compared.
+ */
+final class BenchmarkReports {
+
+    private static final String ENABLED_PROPERTY = "cornedbeef.benchmarks";
+    private static final File REPORTS_DIR = new File("build/reports/benchmarks");
+
+    private BenchmarkReports() {
+    }
+
+    /**
+     * Skip the calling test unless benchmarks were asked for
+     */
+    static void assumeEnabled() {
+        assumeTrue("Benchmarks are only run with -Pbenchmarks", Boolean.getBoolean(ENABLED_PROPERTY));
+    }
+
+    /**
+     * Create a report holding the version of the library which was measured
+     */
+    static JSONObject newReport() throws JSONException {
+        final JSONObject report = new JSONObject();
+        report.put("version", System.getProperty("cornedbeef.version", "unknown"));
+        return report;
+    }
+
+    /**
+     * Write a report to {@code build/reports/benchmarks/<name>.json}
+     *
+     * @return the file written
+     */
+    static File write(String name, JSONObject report) throws IOException, JSONException {
+        final File file = new File(REPORTS_DIR, name + ".json");
+        //noinspection ResultOfMethodCallIgnored
+        REPORTS_DIR.mkdirs();
+        try (Writer writer = new FileWriter(file)) {
+            writer.write(report.toString(2));
+        }
+        return file;
+    }
+}
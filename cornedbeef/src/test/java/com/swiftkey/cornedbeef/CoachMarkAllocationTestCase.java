@@ -0,0 +1,200 @@
+package com.swiftkey.cornedbeef;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Checks that showing coach marks don't allocate on every frame, by driving
+ * pre-draw passes with a moving and a static anchor and counting the bytes
+ * allocated by the UI thread and the objects added to the heap. The same
+ * frames are first driven without a coach mark showing, and that baseline is
+ * subtracted, so only the coach mark's own per-frame path is counted.
+ * <p>
+ * Objects are counted from heap histograms, which include unreachable
+ * objects, taken before and after the frames, so the frames are driven again
+ * if a garbage collection happened in between.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = "src/main/AndroidManifest.xml", packageName = "com.swiftkey.cornedbeef", sdk = 21)
+public class CoachMarkAllocationTestCase {
+
+    private static final int WARM_UP_FRAMES = 50;
+    private static final int FRAMES = 300;
+    private static final int ANCHOR_WIDTH = 300;
+    private static final int ANCHOR_HEIGHT = 200;
+
+    private static final int MAX_MEASURE_ATTEMPTS = 5;
+    private static final ObjectName DIAGNOSTIC_COMMAND;
+
+    static {
+        try {
+            DIAGNOSTIC_COMMAND = new ObjectName("com.sun.management:type=DiagnosticCommand");
+        } catch (JMException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    // Dimensions are immutable and boxed, so a moving anchor makes new anchor and
+    // popup dimensions, with boxes for the positions which have changed, on every
+    // frame. A static anchor reuses them and allocates nothing, which is checked
+    // as less than an object, or a few bytes, a frame.
+    private static final long MAX_BYTES_PER_MOVING_FRAME = 160;
+    private static final long MAX_OBJECTS_PER_MOVING_FRAME = 6;
+    private static final long MAX_BYTES_PER_STATIC_FRAME = 8;
+    private static final long MAX_OBJECTS_PER_STATIC_FRAME = 0;
+
+    private CoachMarkFixture mFixture;
+    private CoachMarkFixture.AnchorView mAnchor;
+
+    @Before
+    public void setUp() {
+        final ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+        assumeTrue(threadMXBean instanceof com.sun.management.ThreadMXBean
+                && ((com.sun.management.ThreadMXBean) threadMXBean).isThreadAllocatedMemorySupported());
+        assumeTrue(ManagementFactory.getPlatformMBeanServer().isRegistered(DIAGNOSTIC_COMMAND));
+
+        mFixture = new CoachMarkFixture();
+        mAnchor = mFixture.addAnchor(0, 400, ANCHOR_WIDTH, ANCHOR_HEIGHT);
+    }
+
+    @Test
+    public void testBubbleCoachMarkFrameAllocations() throws JMException {
+        assertFrameAllocations(CoachMarkFixture.BUBBLE);
+    }
+
+    @Test
+    public void testHighlightCoachMarkFrameAllocations() throws JMException {
+        assertFrameAllocations(CoachMarkFixture.HIGHLIGHT);
+    }
+
+    @Test
+    public void testMultiHighlightCoachMarkFrameAllocations() throws JMException {
+        assertFrameAllocations(CoachMarkFixture.MULTI_HIGHLIGHT);
+    }
+
+    @Test
+    public void testLayeredCoachMarkFrameAllocations() throws JMException {
+        assertFrameAllocations(CoachMarkFixture.LAYERED);
+    }
+
+    @Test
+    public void testPunchHoleCoachMarkFrameAllocations() throws JMException {
+        assertFrameAllocations(CoachMarkFixture.PUNCH_HOLE);
+    }
+
+    @Test
+    public void testPunchedBubbleCoachMarkFrameAllocations() throws JMException {
+        assertFrameAllocations(CoachMarkFixture.PUNCHED_BUBBLE);
+    }
+
+    private void assertFrameAllocations(CoachMarkFixture.CoachMarkType type) throws JMException {
+        final CoachMark coachMark = type.builder(mFixture.activity, mAnchor, mAnchor).build();
+        final FrameCost movingBaseline = measureFrameCost(true);
+        final FrameCost staticBaseline = measureFrameCost(false);
+
+        coachMark.show();
+        assertTrue(type + " is not showing", coachMark.isShowing());
+        final FrameCost moving = measureFrameCost(true).minus(movingBaseline);
+        final FrameCost still = measureFrameCost(false).minus(staticBaseline);
+        coachMark.dismiss();
+
+        assertTrue(type + " allocated " + moving.mBytes + " bytes per frame with a moving anchor",
+                moving.mBytes <= MAX_BYTES_PER_MOVING_FRAME);
+        assertTrue(type + " made " + moving.mObjects + " objects per frame with a moving anchor",
+                moving.mObjects <= MAX_OBJECTS_PER_MOVING_FRAME);
+        assertTrue(type + " allocated " + still.mBytes + " bytes per frame with a static anchor",
+                still.mBytes <= MAX_BYTES_PER_STATIC_FRAME);
+        assertTrue(type + " made " + still.mObjects + " objects per frame with a static anchor",
+                still.mObjects <= MAX_OBJECTS_PER_STATIC_FRAME);
+    }
+
+    /**
+     * Drive pre-draw passes, after warming up, and get the average number of
+     * bytes allocated and objects made per pass
+     */
+    private FrameCost measureFrameCost(boolean moving) throws JMException {
+        for (int i = 0; i < WARM_UP_FRAMES; i++) {
+            drawFrame(i, moving);
+        }
+        for (int attempt = 0; attempt < MAX_MEASURE_ATTEMPTS; attempt++) {
+            System.gc();
+            final long startCollections = getCollectionCount();
+            final long startObjects = countHeapObjects();
+            final long startBytes = getAllocatedBytes();
+            for (int i = 0; i < FRAMES; i++) {
+                drawFrame(i, moving);
+            }
+            final long bytes = getAllocatedBytes() - startBytes;
+            final long objects = countHeapObjects() - startObjects;
+            if (getCollectionCount() == startCollections) {
+                return new FrameCost(bytes / FRAMES, objects / FRAMES);
+            }
+        }
+        throw new AssertionError("The heap was collected on every attempt to count objects");
+    }
+
+    private void drawFrame(int frame, boolean moving) {
+        if (moving) {
+            // Move diagonally so that the popup, its arrow and any hole all move
+            mAnchor.moveTo(frame % 50, 400 + frame % 100);
+        } else {
+            mAnchor.moveTo(0, 400);
+        }
+        mAnchor.getViewTreeObserver().dispatchOnPreDraw();
+    }
+
+    /**
+     * Count every object on the heap, including unreachable ones, from the
+     * total line of a class histogram
+     */
+    private static long countHeapObjects() throws JMException {
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        final String histogram = (String) server.invoke(DIAGNOSTIC_COMMAND, "gcClassHistogram",
+                new Object[] {new String[] {"-all"}}, new String[] {String[].class.getName()});
+        final String[] lines = histogram.trim().split("\n");
+        final String[] total = lines[lines.length - 1].trim().split("\\s+");
+        return Long.parseLong(total[1]);
+    }
+
+    private static long getCollectionCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0, collector.getCollectionCount());
+        }
+        return count;
+    }
+
+    private static long getAllocatedBytes() {
+        return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean())
+                .getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    private static class FrameCost {
+
+        final long mBytes;
+        final long mObjects;
+
+        FrameCost(long bytes, long objects) {
+            mBytes = bytes;
+            mObjects = objects;
+        }
+
+        FrameCost minus(FrameCost baseline) {
+            return new FrameCost(mBytes - baseline.mBytes, mObjects - baseline.mObjects);
+        }
+    }
+}
@@ -0,0 +1,239 @@
+package com.swiftkey.cornedbeef;
+
+import android.app.Activity;
+import android.graphics.Canvas;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.TextView;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Measures the latency of showing a coach mark from scratch, from creating its
+ * builder to its first draw, broken down into stages, for each type of coach
+ * mark and for message, layout resource and custom view content. Stages inside
+ * the library are timed through the sections of {@link CoachMarkTrace}, taking
+ * each section's time without the sections nested inside it.
+ * <p>
+ * The time of the first run of each combination and the median of the
+ * following runs are written to {@code build/reports/benchmarks/cold-show.json},
+ * along with the library version, so that versions can be compared.
+ *
+ * @see BenchmarkReports
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = "src/main/AndroidManifest.xml", packageName = "com.swiftkey.cornedbeef", sdk = 21)
+public class CoachMarkColdShowBenchmarkTestCase {
+
+    private static final int RUNS = 20;
+    private static final int SCREEN_WIDTH = 1080;
+    private static final int SCREEN_HEIGHT = 1920;
+
+    private static final String[] STAGES = {
+            "builderInflation", "chromeInflation", "measure", "drawableMutation",
+            "popupCreation", "otherBuild", "firstGeometryPass", "otherShow", "firstDraw"
+    };
+    private static final int BUILDER_INFLATION = 0;
+    private static final int CHROME_INFLATION = 1;
+    private static final int MEASURE = 2;
+    private static final int DRAWABLE_MUTATION = 3;
+    private static final int POPUP_CREATION = 4;
+    private static final int OTHER_BUILD = 5;
+    private static final int FIRST_GEOMETRY_PASS = 6;
+    private static final int OTHER_SHOW = 7;
+    private static final int FIRST_DRAW = 8;
+
+    private final SectionTimer mSectionTimer = new SectionTimer();
+    private final Canvas mCanvas = new Canvas();
+    private Activity mActivity;
+    private View mAnchor;
+
+    @Before
+    public void setUp() {
+        BenchmarkReports.assumeEnabled();
+        final CoachMarkFixture fixture = new CoachMarkFixture();
+        mActivity = fixture.activity;
+        final CoachMarkFixture.AnchorView anchor = fixture.addAnchor(100, 800, 300, 150);
+        anchor.setDisplayFrame(SCREEN_WIDTH, SCREEN_HEIGHT);
+        mAnchor = anchor;
+        CoachMarkTrace.setSectionListener(mSectionTimer);
+    }
+
+    @After
+    public void tearDown() {
+        CoachMarkTrace.setSectionListener(null);
+    }
+
+    @Test
+    public void testColdShowLatency() throws IOException, JSONException {
+        final JSONArray results = new JSONArray();
+        for (CoachMarkFixture.CoachMarkType type : CoachMarkFixture.TYPES) {
+            results.put(measure(type.name, "message", type.message, "Hello!"));
+            results.put(measure(type.name, "layout", type.layout, R.layout.coach_mark_text));
+            results.put(measure(type.name, "view", type.view, null));
+        }
+
+        final JSONObject report = BenchmarkReports.newReport();
+        report.put("runs", RUNS);
+        report.put("stages", new JSONArray(Arrays.asList(STAGES)));
+        report.put("results", results);
+
+        final File file = BenchmarkReports.write("cold-show", report);
+        assertTrue(file.length() > 0);
+    }
+
+    /**
+     * Show a type of coach mark with a type of content repeatedly, recording
+     * the first run and the median of the rest
+     */
+    private <C> JSONObject measure(String type, String contentType,
+            CoachMarkFixture.BuilderFactory<C> factory, C content) throws JSONException {
+        final long[] cold = showOnce(factory, content);
+        final long[][] runs = new long[RUNS][];
+        for (int i = 0; i < RUNS; i++) {
+            runs[i] = showOnce(factory, content);
+        }
+
+        final JSONObject coldNanos = new JSONObject();
+        final JSONObject medianNanos = new JSONObject();
+        long coldTotal = 0;
+        long medianTotal = 0;
+        final long[] values = new long[RUNS];
+        for (int stage = 0; stage < STAGES.length; stage++) {
+            for (int i = 0; i < RUNS; i++) {
+                values[i] = runs[i][stage];
+            }
+            Arrays.sort(values);
+            final long median = values[RUNS / 2];
+            coldNanos.put(STAGES[stage], cold[stage]);
+            medianNanos.put(STAGES[stage], median);
+            coldTotal += cold[stage];
+            medianTotal += median;
+        }
+        coldNanos.put("total", coldTotal);
+        medianNanos.put("total", medianTotal);
+
+        final JSONObject result = new JSONObject();
+        result.put("type", type);
+        result.put("content", contentType);
+        result.put("coldNanos", coldNanos);
+        result.put("medianNanos", medianNanos);
+        return result;
+    }
+
+    private <C> long[] showOnce(CoachMarkFixture.BuilderFactory<C> factory, C content) {
+        final long[] stages = new long[STAGES.length];
+        // Custom views can't be reused, as they are added to the coach mark
+        final C runContent = content != null ? content : newContentView();
+
+        long startNanos = System.nanoTime();
+        final CoachMark.CoachMarkBuilder builder = factory.create(mActivity, mAnchor, mAnchor, runContent);
+        stages[BUILDER_INFLATION] = System.nanoTime() - startNanos;
+
+        mSectionTimer.reset();
+        startNanos = System.nanoTime();
+        final CoachMark coachMark = builder.setTimeout(0).build();
+        final long buildNanos = System.nanoTime() - startNanos;
+        stages[CHROME_INFLATION] = mSectionTimer.getSelfNanos(CoachMarkTrace.CREATE_CONTENT_VIEW)
+                + mSectionTimer.getSelfNanos(CoachMarkTrace.INFLATE);
+        stages[MEASURE] = mSectionTimer.getSelfNanos(CoachMarkTrace.MEASURE);
+        stages[DRAWABLE_MUTATION] = mSectionTimer.getSelfNanos(CoachMarkTrace.MUTATE_DRAWABLE);
+        stages[POPUP_CREATION] = mSectionTimer.getSelfNanos(CoachMarkTrace.CREATE_POPUP_WINDOW);
+        stages[OTHER_BUILD] = Math.max(0, buildNanos - stages[CHROME_INFLATION] - stages[MEASURE]
+                - stages[DRAWABLE_MUTATION] - stages[POPUP_CREATION]);
+
+        mSectionTimer.reset();
+        startNanos = System.nanoTime();
+        coachMark.show();
+        final long showNanos = System.nanoTime() - startNanos;
+        stages[FIRST_GEOMETRY_PASS] = mSectionTimer.getSelfNanos(CoachMarkTrace.FIRST_GEOMETRY);
+        stages[MEASURE] += mSectionTimer.getSelfNanos(CoachMarkTrace.MEASURE);
+        stages[OTHER_SHOW] = Math.max(0, showNanos - stages[FIRST_GEOMETRY_PASS]
+                - mSectionTimer.getSelfNanos(CoachMarkTrace.MEASURE));
+
+        startNanos = System.nanoTime();
+        drawPopup(coachMark.mPopup.getContentView().getRootView());
+        stages[FIRST_DRAW] = System.nanoTime() - startNanos;
+
+        coachMark.dismiss();
+        return stages;
+    }
+
+    @SuppressWarnings("unchecked")
+    private <C> C newContentView() {
+        final TextView view = new TextView(mActivity);
+        view.setText("Hello!");
+        return (C) view;
+    }
+
+    private void drawPopup(View popupRoot) {
+        final ViewGroup.LayoutParams params = popupRoot.getLayoutParams();
+        popupRoot.measure(getMeasureSpec(params.width, SCREEN_WIDTH),
+                getMeasureSpec(params.height, SCREEN_HEIGHT));
+        popupRoot.layout(0, 0, popupRoot.getMeasuredWidth(), popupRoot.getMeasuredHeight());
+        popupRoot.draw(mCanvas);
+    }
+
+    private static int getMeasureSpec(int size, int screenSize) {
+        if (size >= 0) {
+            return View.MeasureSpec.makeMeasureSpec(size, View.MeasureSpec.EXACTLY);
+        }
+        return View.MeasureSpec.makeMeasureSpec(screenSize, size == ViewGroup.LayoutParams.MATCH_PARENT
+                ? View.MeasureSpec.EXACTLY : View.MeasureSpec.AT_MOST);
+    }
+
+    /**
+     * Times the sections of {@link CoachMarkTrace}, not counting the time of
+     * the sections nested inside each of them
+     */
+    private static class SectionTimer implements CoachMarkTrace.SectionListener {
+
+        private final Map<String, Long> mSelfNanos = new HashMap<>();
+        private final ArrayDeque<String> mNames = new ArrayDeque<>();
+        private final ArrayDeque<long[]> mTimes = new ArrayDeque<>();
+
+        void reset() {
+            mSelfNanos.clear();
+        }
+
+        long getSelfNanos(String sectionName) {
+            final Long nanos = mSelfNanos.get(sectionName);
+            return nanos != null ? nanos : 0;
+        }
+
+        @Override
+        public void onBeginSection(String sectionName) {
+            mNames.push(sectionName);
+            // The start time and the total time of the nested sections
+            mTimes.push(new long[] {System.nanoTime(), 0});
+        }
+
+        @Override
+        public void onEndSection() {
+            final String name = mNames.pop();
+            final long[] times = mTimes.pop();
+            final long totalNanos = System.nanoTime() - times[0];
+            mSelfNanos.put(name, getSelfNanos(name) + totalNanos - times[1]);
+            if (!mTimes.isEmpty()) {
+                mTimes.peek()[1] += totalNanos;
+            }
+        }
+    }
+}
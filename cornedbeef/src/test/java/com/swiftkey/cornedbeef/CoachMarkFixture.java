@@ -0,0 +1,196 @@
+package com.swiftkey.cornedbeef;
+
+import android.app.Activity;
+import android.content.Context;
+import android.graphics.Rect;
+import android.view.View;
+import android.widget.FrameLayout;
+
+import org.robolectric.Robolectric;
+import org.robolectric.util.ActivityController;
+
+/**
+ * A resumed activity to anchor coach marks to under Robolectric, and the
+ * types of coach mark which the suites run through.
+ * <p>
+ * Robolectric doesn't position windows on screen, so anchors are
+ * {@link AnchorView}s, whose location on screen is set by the test.
+ */
+final class CoachMarkFixture {
+
+    /**
+     * Creates a coach mark builder with the given content
+     */
+    interface BuilderFactory<C> {
+        /**
+         * @param anchor the view to anchor the coach mark to
+         * @param target the view inside the anchor to point at or punch a
+         *               hole for, which may be the anchor itself
+         */
+        CoachMark.CoachMarkBuilder create(Context context, View anchor, View target, C content);
+    }
+
+    /**
+     * Creates the builders for a type of coach mark, for each type of content
+     */
+    static final class CoachMarkType {
+        final String name;
+        /**
+         * Whether the coach mark is normally anchored to the whole screen and
+         * points at a target inside it, rather than being anchored to the target
+         */
+        final boolean anchoredToScreen;
+        final BuilderFactory<String> message;
+        final BuilderFactory<Integer> layout;
+        final BuilderFactory<View> view;
+
+        CoachMarkType(String name, boolean anchoredToScreen, BuilderFactory<String> message,
+                BuilderFactory<Integer> layout, BuilderFactory<View> view) {
+            this.name = name;
+            this.anchoredToScreen = anchoredToScreen;
+            this.message = message;
+            this.layout = layout;
+            this.view = view;
+        }
+
+        /**
+         * Create a builder with the type's name as its message and no timeout
+         */
+        CoachMark.CoachMarkBuilder builder(Context context, View anchor, View target) {
+            return message.create(context, anchor, target, name).setTimeout(0);
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+
+    static final CoachMarkType BUBBLE = new CoachMarkType("BubbleCoachMark", false,
+            (context, anchor, target, message) ->
+                    new BubbleCoachMark.BubbleCoachMarkBuilder(context, anchor, message),
+            (context, anchor, target, layout) ->
+                    new BubbleCoachMark.BubbleCoachMarkBuilder(context, anchor, layout),
+            (context, anchor, target, view) ->
+                    new BubbleCoachMark.BubbleCoachMarkBuilder(context, anchor, view));
+
+    static final CoachMarkType HIGHLIGHT = new CoachMarkType("HighlightCoachMark", false,
+            (context, anchor, target, message) ->
+                    new HighlightCoachMark.HighlightCoachMarkBuilder(context, anchor, message),
+            (context, anchor, target, layout) ->
+                    new HighlightCoachMark.HighlightCoachMarkBuilder(context, anchor, layout),
+            (context, anchor, target, view) ->
+                    new HighlightCoachMark.HighlightCoachMarkBuilder(context, anchor, view));
+
+    // Content is ignored, as the outlines are the only content
+    static final CoachMarkType MULTI_HIGHLIGHT = new CoachMarkType("MultiHighlightCoachMark", true,
+            (context, anchor, target, message) -> new MultiHighlightCoachMark.MultiHighlightCoachMarkBuilder(
+                    context, anchor).addTarget(target),
+            (context, anchor, target, layout) -> new MultiHighlightCoachMark.MultiHighlightCoachMarkBuilder(
+                    context, anchor).addTarget(target),
+            (context, anchor, target, view) -> new MultiHighlightCoachMark.MultiHighlightCoachMarkBuilder(
+                    context, anchor).addTarget(target));
+
+    static final CoachMarkType LAYERED = new CoachMarkType("LayeredCoachMark", true,
+            (context, anchor, target, message) ->
+                    new LayeredCoachMark.LayeredCoachMarkBuilder(context, anchor, message),
+            (context, anchor, target, layout) ->
+                    new LayeredCoachMark.LayeredCoachMarkBuilder(context, anchor, layout),
+            (context, anchor, target, view) ->
+                    new LayeredCoachMark.LayeredCoachMarkBuilder(context, anchor, view));
+
+    static final CoachMarkType PUNCH_HOLE = new CoachMarkType("PunchHoleCoachMark", true,
+            (context, anchor, target, message) -> new PunchHoleCoachMark.PunchHoleCoachMarkBuilder(
+                    context, anchor, message).setTargetView(target),
+            (context, anchor, target, layout) -> new PunchHoleCoachMark.PunchHoleCoachMarkBuilder(
+                    context, anchor, layout).setTargetView(target),
+            (context, anchor, target, view) -> new PunchHoleCoachMark.PunchHoleCoachMarkBuilder(
+                    context, anchor, view).setTargetView(target));
+
+    static final CoachMarkType PUNCHED_BUBBLE = new CoachMarkType("PunchedBubbleCoachMark", true,
+            (context, anchor, target, message) -> new PunchedBubbleCoachMark.PunchedBubbleCoachMarkBuilder(
+                    context, anchor, message).setTargetView(target),
+            (context, anchor, target, layout) -> new PunchedBubbleCoachMark.PunchedBubbleCoachMarkBuilder(
+                    context, anchor, layout).setTargetView(target),
+            (context, anchor, target, view) -> new PunchedBubbleCoachMark.PunchedBubbleCoachMarkBuilder(
+                    context, anchor, view).setTargetView(target));
+
+    static final CoachMarkType[] TYPES = {
+            BUBBLE, HIGHLIGHT, MULTI_HIGHLIGHT, LAYERED, PUNCH_HOLE, PUNCHED_BUBBLE
+    };
+
+    final Activity activity;
+    private final FrameLayout mRoot;
+
+    CoachMarkFixture() {
+        final ActivityController<Activity> controller = Robolectric.buildActivity(Activity.class).create();
+        activity = controller.get();
+        mRoot = new FrameLayout(activity);
+        activity.setContentView(mRoot);
+        controller.start().resume().visible();
+    }
+
+    /**
+     * Add an anchor to the activity, laid out at the given size and located
+     * on screen at the given position
+     */
+    AnchorView addAnchor(int x, int y, int width, int height) {
+        final AnchorView anchor = new AnchorView(activity, x, y, width, height);
+        mRoot.addView(anchor, new FrameLayout.LayoutParams(width, height));
+        anchor.layout(0, 0, width, height);
+        return anchor;
+    }
+
+    /**
+     * A view whose location on screen, and optionally its window's visible
+     * display frame, are set by the test rather than by its window
+     */
+    static class AnchorView extends View {
+
+        private final Rect mDisplayFrame = new Rect();
+        private int mX;
+        private int mY;
+
+        AnchorView(Context context, int x, int y, int width, int height) {
+            super(context);
+            mX = x;
+            mY = y;
+            measure(View.MeasureSpec.makeMeasureSpec(width, View.MeasureSpec.EXACTLY),
+                    View.MeasureSpec.makeMeasureSpec(height, View.MeasureSpec.EXACTLY));
+        }
+
+        void moveTo(int x, int y) {
+            mX = x;
+            mY = y;
+        }
+
+        /**
+         * Set the size of the window's visible display frame, which is
+         * otherwise Robolectric's
+         *
+         * @return whether the size has changed
+         */
+        boolean setDisplayFrame(int width, int height) {
+            if (width == mDisplayFrame.width() && height == mDisplayFrame.height()) {
+                return false;
+            }
+            mDisplayFrame.set(0, 0, width, height);
+            return true;
+        }
+
+        @Override
+        public void getLocationOnScreen(int[] loc) {
+            loc[0] = mX;
+            loc[1] = mY;
+        }
+
+        @Override
+        public void getWindowVisibleDisplayFrame(Rect outRect) {
+            if (mDisplayFrame.isEmpty()) {
+                super.getWindowVisibleDisplayFrame(outRect);
+            } else {
+                outRect.set(mDisplayFrame);
+            }
+        }
+    }
+}
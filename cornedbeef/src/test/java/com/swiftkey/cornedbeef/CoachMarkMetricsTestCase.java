@@ -0,0 +1,181 @@
+package com.swiftkey.cornedbeef;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertTrue;
+import static com.swiftkey.cornedbeef.CoachMarkMetrics.Histogram;
+import static com.swiftkey.cornedbeef.CoachMarkMetrics.Sample;
+
+/**
+ * Drives shown coach marks' pre-draw passes and first draw by hand, as
+ * Robolectric doesn't draw popup windows.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = "src/main/AndroidManifest.xml", packageName = "com.swiftkey.cornedbeef", sdk = 21)
+public class CoachMarkMetricsTestCase {
+
+    private static final String ID = "spam";
+
+    private final List<Sample> mSamples = new ArrayList<>();
+    private CoachMarkFixture mFixture;
+    private CoachMarkFixture.AnchorView mAnchor;
+
+    @Before
+    public void setUp() {
+        mFixture = new CoachMarkFixture();
+        mAnchor = mFixture.addAnchor(100, 800, 300, 150);
+        mAnchor.setDisplayFrame(1080, 1920);
+        CoachMarkMetrics.resetHistograms();
+    }
+
+    @After
+    public void tearDown() {
+        CoachMarkMetrics.setListener(null);
+        CoachMarkMetrics.resetHistograms();
+    }
+
+    /**
+     * Test that the pre-draws, geometry changes and popup updates of a shown
+     * coach mark, and its show latency, are reported when it is dismissed
+     */
+    @Test
+    public void testSampleOfShownCoachMark() {
+        CoachMarkMetrics.setListener(mSamples::add);
+        final CoachMark coachMark = buildCoachMark();
+        coachMark.show();
+        coachMark.getContentView().getViewTreeObserver().dispatchOnDraw();
+
+        // Two frames with the anchor still, then one after it has moved
+        preDraw();
+        preDraw();
+        mAnchor.moveTo(100, 900);
+        preDraw();
+        assertTrue(mSamples.isEmpty());
+        coachMark.dismiss();
+
+        assertEquals(1, mSamples.size());
+        final Sample sample = mSamples.get(0);
+        assertEquals("BubbleCoachMark", sample.getType());
+        assertEquals(ID, sample.getId());
+        assertTrue(sample.getBuildTimeNanos() > 0);
+        assertTrue(sample.getShowLatencyNanos() >= 0);
+        assertEquals(3, sample.getPreDrawCount());
+        assertEquals(1, sample.getGeometryChangeCount());
+        // The bubble's window is updated on every pre-draw
+        assertEquals(3, sample.getPopupUpdateCount());
+        assertTrue(sample.getUpdateViewNanos() >= 0);
+        assertNull(sample.getFrameStats(CoachMarkMetrics.PHASE_ENTER));
+
+        assertEquals(1, CoachMarkMetrics.getHistogram(
+                "BubbleCoachMark", CoachMarkMetrics.METRIC_SHOW_LATENCY).getCount());
+        assertEquals(1, CoachMarkMetrics.getHistogram(
+                "BubbleCoachMark", CoachMarkMetrics.METRIC_UPDATE_VIEW_TIME).getCount());
+    }
+
+    /**
+     * Test that the counts are reset once reported, so that showing the coach
+     * mark again reports only what happened while it was shown again
+     */
+    @Test
+    public void testCountsResetOnFlush() {
+        CoachMarkMetrics.setListener(mSamples::add);
+        final CoachMark coachMark = buildCoachMark();
+        coachMark.show();
+        coachMark.getContentView().getViewTreeObserver().dispatchOnDraw();
+        preDraw();
+        mAnchor.moveTo(100, 900);
+        preDraw();
+        coachMark.dismiss();
+
+        // Dismissed this time before its first frame was drawn
+        coachMark.show();
+        preDraw();
+        coachMark.dismiss();
+
+        assertEquals(2, mSamples.size());
+        assertEquals(2, mSamples.get(0).getPreDrawCount());
+        assertEquals(1, mSamples.get(0).getGeometryChangeCount());
+        assertTrue(mSamples.get(0).getShowLatencyNanos() >= 0);
+        assertEquals(1, mSamples.get(1).getPreDrawCount());
+        assertEquals(0, mSamples.get(1).getGeometryChangeCount());
+        assertEquals(1, mSamples.get(1).getPopupUpdateCount());
+        assertEquals(-1, mSamples.get(1).getShowLatencyNanos());
+        assertEquals(1, CoachMarkMetrics.getHistogram(
+                "BubbleCoachMark", CoachMarkMetrics.METRIC_SHOW_LATENCY).getCount());
+    }
+
+    /**
+     * Test that nothing is recorded for a coach mark built without a listener,
+     * even if a listener is set while it is showing
+     */
+    @Test
+    public void testNoRecordingWithoutListener() {
+        final CoachMark coachMark = buildCoachMark();
+        CoachMarkMetrics.setListener(mSamples::add);
+        coachMark.show();
+        coachMark.getContentView().getViewTreeObserver().dispatchOnDraw();
+        preDraw();
+        coachMark.dismiss();
+
+        assertTrue(mSamples.isEmpty());
+        assertNull(CoachMarkMetrics.getHistogram(
+                "BubbleCoachMark", CoachMarkMetrics.METRIC_BUILD_TIME));
+    }
+
+    @Test
+    public void testHistogramBuckets() {
+        assertEquals(0, Histogram.getBucket(0));
+        assertEquals(1, Histogram.getBucket(1));
+        assertEquals(2, Histogram.getBucket(2));
+        assertEquals(2, Histogram.getBucket(3));
+        assertEquals(3, Histogram.getBucket(4));
+        assertEquals(Histogram.BUCKET_COUNT - 1, Histogram.getBucket(Long.MAX_VALUE));
+
+        for (long value : new long[] {1, 7, 1000, 16_000_000}) {
+            assertTrue(value <= Histogram.getBucketUpperBound(Histogram.getBucket(value)));
+            assertTrue(value > Histogram.getBucketUpperBound(Histogram.getBucket(value) - 1));
+        }
+    }
+
+    @Test
+    public void testHistogramPercentiles() {
+        final Histogram histogram = new Histogram();
+        assertEquals(0, histogram.getPercentile(50));
+
+        // 90 fast frames and 10 slow ones
+        for (int i = 0; i < 90; i++) {
+            histogram.add(100_000);
+        }
+        for (int i = 0; i < 10; i++) {
+            histogram.add(20_000_000);
+        }
+
+        assertEquals(100, histogram.getCount());
+        assertEquals(Histogram.getBucketUpperBound(Histogram.getBucket(100_000)),
+                histogram.getPercentile(50));
+        assertEquals(Histogram.getBucketUpperBound(Histogram.getBucket(100_000)),
+                histogram.getPercentile(90));
+        assertEquals(Histogram.getBucketUpperBound(Histogram.getBucket(20_000_000)),
+                histogram.getPercentile(95));
+    }
+
+    private CoachMark buildCoachMark() {
+        return CoachMarkFixture.BUBBLE.builder(mFixture.activity, mAnchor, mAnchor)
+                .setId(ID)
+                .build();
+    }
+
+    private void preDraw() {
+        mAnchor.getViewTreeObserver().dispatchOnPreDraw();
+    }
+}
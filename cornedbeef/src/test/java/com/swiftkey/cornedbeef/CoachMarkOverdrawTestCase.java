@@ -0,0 +1,208 @@
+package com.swiftkey.cornedbeef;
+
+import android.app.Activity;
+import android.view.View;
+import android.view.ViewGroup;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowLooper;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Records what each type of coach mark draws once it is showing, using
+ * {@link DrawRecordingCanvas}, and checks it against a budget for that type,
+ * so that an extra offscreen layer, background or scrim is caught here rather
+ * than by someone looking at the GPU overdraw debug overlay.
+ * <p>
+ * Overdraw is the number of pixels drawn divided by the size of the popup
+ * window, so a coach mark which draws one full screen scrim and a little
+ * content on top of it has an overdraw of a little over one.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = "src/main/AndroidManifest.xml", packageName = "com.swiftkey.cornedbeef", sdk = 21)
+public class CoachMarkOverdrawTestCase {
+
+    private static final int SCREEN_WIDTH = 1080;
+    private static final int SCREEN_HEIGHT = 1920;
+    private static final int TARGET_X = 390;
+    private static final int TARGET_Y = 900;
+    private static final int TARGET_WIDTH = 300;
+    private static final int TARGET_HEIGHT = 150;
+
+    // Long enough for the punched bubble's entrance animation to finish
+    private static final long SETTLE_TIME_MS = 1500;
+
+    private interface CoachMarkFactory {
+        CoachMark create(@CoachMarkRenderProfile.Tier int renderTier);
+    }
+
+    /**
+     * The most a coach mark may draw once it is showing
+     */
+    private static final class Budget {
+        final int maxDrawCalls;
+        final int maxSaveLayers;
+        final float maxOverdraw;
+
+        Budget(int maxDrawCalls, int maxSaveLayers, float maxOverdraw) {
+            this.maxDrawCalls = maxDrawCalls;
+            this.maxSaveLayers = maxSaveLayers;
+            this.maxOverdraw = maxOverdraw;
+        }
+    }
+
+    // The bubble's background, its text and its arrow
+    private static final Budget BUBBLE_BUDGET = new Budget(5, 0, 1.25f);
+    // The outline
+    private static final Budget HIGHLIGHT_BUDGET = new Budget(2, 0, 1.25f);
+    // One outline for each target, in a window around the targets
+    private static final Budget MULTI_HIGHLIGHT_BUDGET = new Budget(2, 0, 1.25f);
+    // The scrim and the text
+    private static final Budget LAYERED_BUDGET = new Budget(4, 0, 1.25f);
+    // The scrim, the hole and the text
+    private static final Budget PUNCH_HOLE_BUDGET = new Budget(5, 0, 1.25f);
+    // The scrim, the hole and the bubble
+    private static final Budget PUNCHED_BUBBLE_BUDGET = new Budget(7, 0, 1.25f);
+
+    private CoachMarkFixture mFixture;
+    private Activity mActivity;
+    // Coach marks which cover the screen are anchored to the whole of it, and
+    // point at the target, which the others are anchored to
+    private CoachMarkFixture.AnchorView mScreen;
+    private CoachMarkFixture.AnchorView mTarget;
+
+    @Before
+    public void setUp() {
+        mFixture = new CoachMarkFixture();
+        mActivity = mFixture.activity;
+        mScreen = mFixture.addAnchor(0, 0, SCREEN_WIDTH, SCREEN_HEIGHT);
+        mTarget = mFixture.addAnchor(TARGET_X, TARGET_Y, TARGET_WIDTH, TARGET_HEIGHT);
+        mScreen.setDisplayFrame(SCREEN_WIDTH, SCREEN_HEIGHT);
+        mTarget.setDisplayFrame(SCREEN_WIDTH, SCREEN_HEIGHT);
+    }
+
+    @Test
+    public void testBubbleCoachMarkOverdraw() {
+        assertWithinBudget(BUBBLE_BUDGET, CoachMarkFixture.BUBBLE);
+    }
+
+    @Test
+    public void testHighlightCoachMarkOverdraw() {
+        assertWithinBudget(HIGHLIGHT_BUDGET, CoachMarkFixture.HIGHLIGHT);
+    }
+
+    @Test
+    public void testMultiHighlightCoachMarkOverdraw() {
+        assertWithinBudget(MULTI_HIGHLIGHT_BUDGET, CoachMarkFixture.MULTI_HIGHLIGHT);
+    }
+
+    @Test
+    public void testLayeredCoachMarkOverdraw() {
+        assertWithinBudget(LAYERED_BUDGET, CoachMarkFixture.LAYERED);
+    }
+
+    @Test
+    public void testPunchHoleCoachMarkOverdraw() {
+        assertWithinBudget(PUNCH_HOLE_BUDGET, CoachMarkFixture.PUNCH_HOLE);
+    }
+
+    @Test
+    public void testPunchedBubbleCoachMarkOverdraw() {
+        assertWithinBudget(PUNCHED_BUBBLE_BUDGET, CoachMarkFixture.PUNCHED_BUBBLE);
+    }
+
+    /**
+     * Check that a second scrim, here from a translucent popup window
+     * background behind the layered coach mark's own, breaks its budget
+     */
+    @Test
+    public void testDoubleScrimBreaksBudget() {
+        final DrawRecordingCanvas recording = record(new LayeredCoachMark.LayeredCoachMarkBuilder(
+                mActivity, mScreen, "Layered")
+                .setPopupWindowBackgroundColor(0x80000000)
+                .setTimeout(0)
+                .build());
+
+        assertTrue("Double scrim wasn't caught: " + recording,
+                recording.getOverdraw() > LAYERED_BUDGET.maxOverdraw);
+    }
+
+    @Test
+    public void testLowTierPunchHoleCoachMarkDrawsLess() {
+        assertLowTierDrawsLess(renderTier -> new PunchHoleCoachMark.PunchHoleCoachMarkBuilder(
+                mActivity, mScreen, "Punch hole")
+                .setTargetView(mTarget)
+                .setRenderTier(renderTier)
+                .setTimeout(0)
+                .build());
+    }
+
+    @Test
+    public void testLowTierPunchedBubbleCoachMarkDrawsLess() {
+        assertLowTierDrawsLess(renderTier -> new PunchedBubbleCoachMark.PunchedBubbleCoachMarkBuilder(
+                mActivity, mScreen, "Punched bubble")
+                .setTargetView(mTarget)
+                .setRenderTier(renderTier)
+                .setTimeout(0)
+                .build());
+    }
+
+    /**
+     * Check that on the low tier, where the scrim is drawn around the hole
+     * instead of having the hole punched out of it, fewer pixels are drawn
+     */
+    private static void assertLowTierDrawsLess(CoachMarkFactory factory) {
+        final DrawRecordingCanvas full = record(factory.create(CoachMarkRenderProfile.TIER_FULL));
+        final DrawRecordingCanvas low = record(factory.create(CoachMarkRenderProfile.TIER_LOW));
+
+        assertEquals(0, low.getSaveLayerCount());
+        assertTrue("Low tier drew " + low + ", full tier drew " + full,
+                low.getPixelsDrawn() < full.getPixelsDrawn());
+    }
+
+    private void assertWithinBudget(Budget budget, CoachMarkFixture.CoachMarkType type) {
+        final View anchor = type.anchoredToScreen ? mScreen : mTarget;
+        final DrawRecordingCanvas recording = record(type.builder(mActivity, anchor, mTarget).build());
+
+        assertTrue(type + " drew nothing", recording.getDrawCallCount() > 0);
+        assertTrue(type + " made " + recording.getDrawCallCount() + " draw calls, more than "
+                + budget.maxDrawCalls, recording.getDrawCallCount() <= budget.maxDrawCalls);
+        assertTrue(type + " saved " + recording.getSaveLayerCount() + " layers, more than "
+                + budget.maxSaveLayers, recording.getSaveLayerCount() <= budget.maxSaveLayers);
+        assertTrue(type + " had " + recording.getOverdraw() + "x overdraw, more than "
+                + budget.maxOverdraw + "x", recording.getOverdraw() <= budget.maxOverdraw);
+    }
+
+    /**
+     * Show the coach mark, let it settle, record its popup window and dismiss it
+     */
+    private static DrawRecordingCanvas record(CoachMark coachMark) {
+        coachMark.show();
+        try {
+            assertTrue(coachMark.getClass().getSimpleName() + " is not showing", coachMark.isShowing());
+            ShadowLooper.idleMainLooper(SETTLE_TIME_MS);
+            final View popupRoot = coachMark.mPopup.getContentView().getRootView();
+            final ViewGroup.LayoutParams params = popupRoot.getLayoutParams();
+            popupRoot.measure(getMeasureSpec(params.width, SCREEN_WIDTH),
+                    getMeasureSpec(params.height, SCREEN_HEIGHT));
+            popupRoot.layout(0, 0, popupRoot.getMeasuredWidth(), popupRoot.getMeasuredHeight());
+            return DrawRecordingCanvas.record(popupRoot);
+        } finally {
+            coachMark.dismiss();
+        }
+    }
+
+    private static int getMeasureSpec(int size, int screenSize) {
+        if (size >= 0) {
+            return View.MeasureSpec.makeMeasureSpec(size, View.MeasureSpec.EXACTLY);
+        }
+        return View.MeasureSpec.makeMeasureSpec(screenSize, size == ViewGroup.LayoutParams.MATCH_PARENT
+                ? View.MeasureSpec.EXACTLY : View.MeasureSpec.AT_MOST);
+    }
+}
@@ -0,0 +1,77 @@
+package com.swiftkey.cornedbeef;
+
+import android.view.View;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Replays each {@link AnchorMotionTrace} through each type of coach mark and
+ * records what every frame cost in {@code build/reports/benchmarks/replay.json},
+ * so that changes to how coach marks track their anchors can be compared.
+ * <p>
+ * CPU time varies between runs, but nothing else should, which is checked so
+ * that the benchmark stays deterministic.
+ *
+ * @see BenchmarkReports
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = "src/main/AndroidManifest.xml", packageName = "com.swiftkey.cornedbeef", sdk = 21)
+public class CoachMarkReplayBenchmarkTestCase {
+
+    private CoachMarkReplayer mReplayer;
+
+    @Before
+    public void setUp() {
+        BenchmarkReports.assumeEnabled();
+        final java.lang.management.ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+        assumeTrue(threadMXBean instanceof com.sun.management.ThreadMXBean
+                && threadMXBean.isCurrentThreadCpuTimeSupported()
+                && ((com.sun.management.ThreadMXBean) threadMXBean).isThreadAllocatedMemorySupported());
+        mReplayer = new CoachMarkReplayer();
+    }
+
+    @Test
+    public void testReplayTraces() throws IOException, JSONException {
+        final JSONArray results = new JSONArray();
+        for (AnchorMotionTrace trace : AnchorMotionTrace.all()) {
+            for (CoachMarkFixture.CoachMarkType type : CoachMarkFixture.TYPES) {
+                final CoachMarkReplayer.Result result = replay(type, trace);
+                results.put(result.toJson());
+
+                // Replaying the same trace again must do exactly the same work
+                final CoachMarkReplayer.Result repeat = replay(type, trace);
+                final String what = result.coachMark + " replaying " + trace.name;
+                assertEquals(what, trace.getFrameCount(), result.frames.length);
+                for (int i = 0; i < result.frames.length; i++) {
+                    final CoachMarkReplayer.Frame frame = result.frames[i];
+                    final CoachMarkReplayer.Frame repeatFrame = repeat.frames[i];
+                    assertEquals(what + ", frame " + i, frame.windowUpdated, repeatFrame.windowUpdated);
+                    assertEquals(what + ", frame " + i, frame.laidOut, repeatFrame.laidOut);
+                    assertEquals(what + ", frame " + i, frame.invalidatedArea, repeatFrame.invalidatedArea);
+                }
+            }
+        }
+
+        final JSONObject report = BenchmarkReports.newReport();
+        report.put("results", results);
+        BenchmarkReports.write("replay", report);
+    }
+
+    private CoachMarkReplayer.Result replay(CoachMarkFixture.CoachMarkType type, AnchorMotionTrace trace) {
+        final View anchor = mReplayer.getAnchor();
+        return mReplayer.replay(type.builder(mReplayer.getActivity(), anchor, anchor).build(), trace);
+    }
+}
@@ -0,0 +1,263 @@
+package com.swiftkey.cornedbeef;
+
+import android.app.Activity;
+import android.graphics.Canvas;
+import android.graphics.Rect;
+import android.view.View;
+import android.view.ViewGroup;
+import android.view.WindowManager;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.robolectric.shadows.ShadowLooper;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * Replays {@link AnchorMotionTrace}s through a showing coach mark's per-frame
+ * pipeline ({@link CoachMark#getAnchorDimens}, {@link CoachMark#getPopupDimens}
+ * and {@link CoachMark#updateView}, via its pre-draw listener) on a paused
+ * looper, so that tracking strategies can be compared frame for frame.
+ * <p>
+ * Each frame moves the anchor, advances the looper by one frame interval to
+ * run animations, dispatches the pre-draw pass, lays out the popup if it was
+ * requested and then draws it. The CPU time and bytes allocated by the
+ * pre-draw pass, whether the popup window was updated, whether it was laid out
+ * and the area of the popup which was invalidated are recorded for every frame.
+ * CPU time depends on the machine, but everything else is deterministic.
+ */
+final class CoachMarkReplayer {
+
+    /**
+     * What happened during a replayed frame
+     */
+    static final class Frame {
+        long cpuNanos;
+        long allocatedBytes;
+        boolean windowUpdated;
+        boolean laidOut;
+        long invalidatedArea;
+    }
+
+    /**
+     * The frames of a trace replayed through a coach mark
+     */
+    static final class Result {
+        final String coachMark;
+        final String trace;
+        final Frame[] frames;
+
+        Result(String coachMark, String trace, Frame[] frames) {
+            this.coachMark = coachMark;
+            this.trace = trace;
+            this.frames = frames;
+        }
+
+        long getTotalCpuNanos() {
+            long total = 0;
+            for (Frame frame : frames) {
+                total += frame.cpuNanos;
+            }
+            return total;
+        }
+
+        long getMaxCpuNanos() {
+            long max = 0;
+            for (Frame frame : frames) {
+                max = Math.max(max, frame.cpuNanos);
+            }
+            return max;
+        }
+
+        long getTotalAllocatedBytes() {
+            long total = 0;
+            for (Frame frame : frames) {
+                total += frame.allocatedBytes;
+            }
+            return total;
+        }
+
+        int getWindowUpdateCount() {
+            int count = 0;
+            for (Frame frame : frames) {
+                count += frame.windowUpdated ? 1 : 0;
+            }
+            return count;
+        }
+
+        int getLayoutCount() {
+            int count = 0;
+            for (Frame frame : frames) {
+                count += frame.laidOut ? 1 : 0;
+            }
+            return count;
+        }
+
+        long getTotalInvalidatedArea() {
+            long total = 0;
+            for (Frame frame : frames) {
+                total += frame.invalidatedArea;
+            }
+            return total;
+        }
+
+        JSONObject toJson() throws JSONException {
+            final int count = Math.max(1, frames.length);
+            final JSONObject json = new JSONObject();
+            json.put("coachMark", coachMark);
+            json.put("trace", trace);
+            json.put("frames", frames.length);
+            json.put("cpuNanosPerFrame", getTotalCpuNanos() / count);
+            json.put("maxCpuNanos", getMaxCpuNanos());
+            json.put("allocatedBytesPerFrame", getTotalAllocatedBytes() / count);
+            json.put("windowUpdates", getWindowUpdateCount());
+            json.put("layouts", getLayoutCount());
+            json.put("invalidatedAreaPerFrame", getTotalInvalidatedArea() / count);
+            return json;
+        }
+    }
+
+    private final Activity mActivity;
+    private final CoachMarkFixture.AnchorView mAnchor;
+    private final Canvas mCanvas = new Canvas();
+    private final Rect mDirty = new Rect();
+    private final com.sun.management.ThreadMXBean mThreadMXBean =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    private int mLastWindowX;
+    private int mLastWindowY;
+    private int mLastWindowWidth;
+    private int mLastWindowHeight;
+
+    CoachMarkReplayer() {
+        final CoachMarkFixture fixture = new CoachMarkFixture();
+        mActivity = fixture.activity;
+        mAnchor = fixture.addAnchor(0, 0, AnchorMotionTrace.ANCHOR_WIDTH, AnchorMotionTrace.ANCHOR_HEIGHT);
+    }
+
+    Activity getActivity() {
+        return mActivity;
+    }
+
+    View getAnchor() {
+        return mAnchor;
+    }
+
+    /**
+     * Show the coach mark, replay the trace through it and dismiss it
+     */
+    Result replay(CoachMark coachMark, AnchorMotionTrace trace) {
+        final Frame[] frames = new Frame[trace.getFrameCount()];
+        ShadowLooper.pauseMainLooper();
+        try {
+            applyFrame(trace, 0);
+            coachMark.show();
+            final View popupRoot = coachMark.mPopup.getContentView().getRootView();
+            layout(popupRoot, trace, 0);
+            popupRoot.draw(mCanvas);
+            hasWindowChanged(popupRoot);
+
+            for (int i = 0; i < frames.length; i++) {
+                final Frame frame = frames[i] = new Frame();
+                applyFrame(trace, i);
+                ShadowLooper.idleMainLooper(AnchorMotionTrace.FRAME_INTERVAL_MS);
+
+                final long cpuStartNanos = mThreadMXBean.getCurrentThreadCpuTime();
+                final long allocatedStartBytes = getAllocatedBytes();
+                mAnchor.getViewTreeObserver().dispatchOnPreDraw();
+                frame.allocatedBytes = getAllocatedBytes() - allocatedStartBytes;
+                frame.cpuNanos = mThreadMXBean.getCurrentThreadCpuTime() - cpuStartNanos;
+
+                frame.windowUpdated = hasWindowChanged(popupRoot);
+                if (popupRoot.isLayoutRequested()) {
+                    layout(popupRoot, trace, i);
+                    frame.laidOut = true;
+                }
+                mDirty.setEmpty();
+                collectDirty(popupRoot, 0, 0);
+                frame.invalidatedArea = (long) mDirty.width() * mDirty.height();
+                popupRoot.draw(mCanvas);
+            }
+        } finally {
+            coachMark.dismiss();
+            ShadowLooper.unPauseMainLooper();
+        }
+        return new Result(coachMark.getClass().getSimpleName(), trace.name, frames);
+    }
+
+    private void applyFrame(AnchorMotionTrace trace, int frame) {
+        mAnchor.moveTo(trace.getAnchorX(frame), trace.getAnchorY(frame));
+        final int displayWidth = trace.getDisplayWidth(frame);
+        final int displayHeight = trace.getDisplayHeight(frame);
+        if (mAnchor.setDisplayFrame(displayWidth, displayHeight)) {
+            // Resizing the root is what lets coach marks know the display frame has changed
+            mAnchor.getRootView().layout(0, 0, displayWidth, displayHeight);
+        }
+    }
+
+    private static void layout(View popupRoot, AnchorMotionTrace trace, int frame) {
+        final ViewGroup.LayoutParams params = popupRoot.getLayoutParams();
+        popupRoot.measure(
+                getMeasureSpec(params.width, trace.getDisplayWidth(frame)),
+                getMeasureSpec(params.height, trace.getDisplayHeight(frame)));
+        popupRoot.layout(0, 0, popupRoot.getMeasuredWidth(), popupRoot.getMeasuredHeight());
+    }
+
+    private static int getMeasureSpec(int size, int displaySize) {
+        if (size >= 0) {
+            return View.MeasureSpec.makeMeasureSpec(size, View.MeasureSpec.EXACTLY);
+        }
+        return View.MeasureSpec.makeMeasureSpec(displaySize, size == ViewGroup.LayoutParams.MATCH_PARENT
+                ? View.MeasureSpec.EXACTLY : View.MeasureSpec.AT_MOST);
+    }
+
+    /**
+     * Check whether the popup's window has been moved or resized since the
+     * last call, which is when the window manager has to be updated
+     */
+    private boolean hasWindowChanged(View popupRoot) {
+        if (!(popupRoot.getLayoutParams() instanceof WindowManager.LayoutParams)) {
+            return false;
+        }
+        final WindowManager.LayoutParams params = (WindowManager.LayoutParams) popupRoot.getLayoutParams();
+        final boolean changed = params.x != mLastWindowX || params.y != mLastWindowY
+                || params.width != mLastWindowWidth || params.height != mLastWindowHeight;
+        mLastWindowX = params.x;
+        mLastWindowY = params.y;
+        mLastWindowWidth = params.width;
+        mLastWindowHeight = params.height;
+        return changed;
+    }
+
+    /**
+     * Union the bounds of the views which have been invalidated since they
+     * were last drawn, as the window's dirty region would be. Invalidating a
+     * view also marks its parents as dirty, so a parent only counts in full if
+     * none of its children are dirty.
+     *
+     * @return whether the view or any of its children are dirty
+     */
+    private boolean collectDirty(View view, int offsetX, int offsetY) {
+        if (!view.isDirty()) {
+            return false;
+        }
+        final int left = offsetX + view.getLeft();
+        final int top = offsetY + view.getTop();
+        boolean childDirty = false;
+        if (view instanceof ViewGroup) {
+            final ViewGroup group = (ViewGroup) view;
+            for (int i = 0; i < group.getChildCount(); i++) {
+                childDirty |= collectDirty(group.getChildAt(i),
+                        left - group.getScrollX(), top - group.getScrollY());
+            }
+        }
+        if (!childDirty) {
+            mDirty.union(left, top, left + view.getWidth(), top + view.getHeight());
+        }
+        return true;
+    }
+
+    private long getAllocatedBytes() {
+        return mThreadMXBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+}
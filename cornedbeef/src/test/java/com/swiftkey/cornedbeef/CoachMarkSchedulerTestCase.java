@@ -0,0 +1,161 @@
+package com.swiftkey.cornedbeef;
+
+import android.os.IBinder;
+import android.view.Choreographer;
+import android.view.View;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.InOrder;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowLooper;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Drives the scheduler's idle handler and frame callback directly, as the
+ * main looper doesn't run idle handlers under Robolectric, and uses
+ * {@link ShadowLooper} to advance the clock to deadlines and rate limits.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = "src/main/AndroidManifest.xml", packageName = "com.swiftkey.cornedbeef", sdk = 21)
+public class CoachMarkSchedulerTestCase {
+
+    private static final long FRAME_BUDGET_MS = 20;
+    private static final long FRAME_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(16);
+    private static final long SLOW_FRAME_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+    private static final long LONG_DELAY_MS = 60000;
+
+    private View mAnchor;
+    private long mFrameTimeNanos;
+
+    @Before
+    public void setUp() {
+        mAnchor = mock(View.class);
+        when(mAnchor.getWindowToken()).thenReturn(mock(IBinder.class));
+        when(mAnchor.isShown()).thenReturn(true);
+        mFrameTimeNanos = TimeUnit.SECONDS.toNanos(1);
+    }
+
+    /**
+     * Test that the highest priority coach mark is shown first, and that coach
+     * marks with the same priority are shown in the order they were scheduled
+     */
+    @Test
+    public void testPriorityOrder() {
+        final CoachMarkScheduler scheduler = new CoachMarkScheduler.CoachMarkSchedulerBuilder()
+                .setFrameBudget(FRAME_BUDGET_MS)
+                .build();
+        final CoachMark low = mock(CoachMark.class);
+        final CoachMark firstDefault = mock(CoachMark.class);
+        final CoachMark high = mock(CoachMark.class);
+        final CoachMark secondDefault = mock(CoachMark.class);
+        scheduler.schedule(createBuilder(low), CoachMarkScheduler.PRIORITY_LOW, LONG_DELAY_MS);
+        scheduler.schedule(createBuilder(firstDefault), CoachMarkScheduler.PRIORITY_DEFAULT, LONG_DELAY_MS);
+        scheduler.schedule(createBuilder(high), CoachMarkScheduler.PRIORITY_HIGH, LONG_DELAY_MS);
+        scheduler.schedule(createBuilder(secondDefault), CoachMarkScheduler.PRIORITY_DEFAULT, LONG_DELAY_MS);
+
+        for (int i = 0; i < 4; i++) {
+            drawFrames(scheduler, 2, FRAME_INTERVAL_NANOS);
+            scheduler.mIdleHandler.queueIdle();
+        }
+
+        final InOrder order = inOrder(high, firstDefault, secondDefault, low);
+        order.verify(high).show();
+        order.verify(firstDefault).show();
+        order.verify(secondDefault).show();
+        order.verify(low).show();
+        assertEquals(0, scheduler.getPendingCount());
+    }
+
+    /**
+     * Test that nothing is shown within the minimum interval of the last coach
+     * mark, and that coach marks due after the session limit are dropped
+     */
+    @Test
+    public void testRateLimit() {
+        final long minShowIntervalMs = 1000;
+        final CoachMarkScheduler scheduler = new CoachMarkScheduler.CoachMarkSchedulerBuilder()
+                .setFrameBudget(FRAME_BUDGET_MS)
+                .setMinShowInterval(minShowIntervalMs)
+                .setMaxShowsPerSession(2)
+                .build();
+        final CoachMark first = mock(CoachMark.class);
+        final CoachMark second = mock(CoachMark.class);
+        final CoachMark third = mock(CoachMark.class);
+        scheduler.schedule(createBuilder(first), CoachMarkScheduler.PRIORITY_DEFAULT, LONG_DELAY_MS);
+        scheduler.schedule(createBuilder(second), CoachMarkScheduler.PRIORITY_DEFAULT, LONG_DELAY_MS);
+        scheduler.schedule(createBuilder(third), CoachMarkScheduler.PRIORITY_DEFAULT, LONG_DELAY_MS);
+
+        drawFrames(scheduler, 2, FRAME_INTERVAL_NANOS);
+        scheduler.mIdleHandler.queueIdle();
+        verify(first).show();
+
+        drawFrames(scheduler, 2, FRAME_INTERVAL_NANOS);
+        scheduler.mIdleHandler.queueIdle();
+        verify(second, never()).show();
+
+        ShadowLooper.idleMainLooper(minShowIntervalMs);
+        drawFrames(scheduler, 2, FRAME_INTERVAL_NANOS);
+        scheduler.mIdleHandler.queueIdle();
+        verify(second).show();
+
+        ShadowLooper.idleMainLooper(minShowIntervalMs);
+        drawFrames(scheduler, 2, FRAME_INTERVAL_NANOS);
+        scheduler.mIdleHandler.queueIdle();
+        verify(third, never()).show();
+        assertEquals(0, scheduler.getPendingCount());
+    }
+
+    /**
+     * Test that a coach mark is held back after a frame which missed its
+     * budget, but is still shown once its deadline has passed
+     */
+    @Test
+    public void testDeadlineWhileOverBudget() {
+        final long maxDelayMs = 500;
+        final CoachMarkScheduler scheduler = new CoachMarkScheduler.CoachMarkSchedulerBuilder()
+                .setFrameBudget(FRAME_BUDGET_MS)
+                .build();
+        final CoachMark coachMark = mock(CoachMark.class);
+        scheduler.schedule(createBuilder(coachMark), CoachMarkScheduler.PRIORITY_DEFAULT, maxDelayMs);
+
+        drawFrames(scheduler, 2, SLOW_FRAME_INTERVAL_NANOS);
+        scheduler.mIdleHandler.queueIdle();
+        verify(coachMark, never()).show();
+        assertEquals(1, scheduler.getPendingCount());
+
+        ShadowLooper.idleMainLooper(maxDelayMs);
+        verify(coachMark).show();
+        assertEquals(0, scheduler.getPendingCount());
+    }
+
+    private CoachMark.CoachMarkBuilder createBuilder(CoachMark coachMark) {
+        final CoachMark.CoachMarkBuilder builder = mock(CoachMark.CoachMarkBuilder.class);
+        builder.anchor = mAnchor;
+        when(builder.build()).thenReturn(coachMark);
+        return builder;
+    }
+
+    /**
+     * Draw frames the given interval apart. The scheduler's frame callback is
+     * taken back from the choreographer so that the only frames are these.
+     */
+    private void drawFrames(CoachMarkScheduler scheduler, int count, long intervalNanos) {
+        for (int i = 0; i < count; i++) {
+            Choreographer.getInstance().removeFrameCallback(scheduler.mFrameCallback);
+            mFrameTimeNanos += intervalNanos;
+            scheduler.mFrameCallback.doFrame(mFrameTimeNanos);
+        }
+        Choreographer.getInstance().removeFrameCallback(scheduler.mFrameCallback);
+    }
+}
@@ -0,0 +1,162 @@
+package com.swiftkey.cornedbeef;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.shadows.ShadowLooper;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+public class CoachMarkSeenStoreTestCase {
+
+    @Rule
+    public TemporaryFolder mTemporaryFolder = new TemporaryFolder();
+
+    private File getStoreFile() {
+        return new File(mTemporaryFolder.getRoot(), "seen");
+    }
+
+    @Test
+    public void testRecordShown() throws Exception {
+        final CoachMarkSeenStore store = new CoachMarkSeenStore(getStoreFile());
+        store.awaitLoaded();
+
+        assertFalse(store.hasBeenShown("spam"));
+        store.recordShown("spam");
+        store.recordShown("spam");
+
+        assertTrue(store.hasBeenShown("spam"));
+        assertEquals(2, store.getShowCount("spam"));
+        assertEquals(0, store.getShowCount("eggs"));
+    }
+
+    /**
+     * Test that counts are persisted and loaded by a new store using the same file
+     */
+    @Test
+    public void testCountsPersisted() throws Exception {
+        final CoachMarkSeenStore store = new CoachMarkSeenStore(getStoreFile());
+        store.awaitLoaded();
+        store.recordShown("spam");
+        store.recordShown("eggs");
+        store.recordShown("eggs");
+        store.flush();
+
+        final CoachMarkSeenStore reloaded = new CoachMarkSeenStore(getStoreFile());
+        reloaded.awaitLoaded();
+
+        assertEquals(1, reloaded.getShowCount("spam"));
+        assertEquals(2, reloaded.getShowCount("eggs"));
+    }
+
+    /**
+     * Test that shows recorded before the store has loaded are added to the persisted counts
+     */
+    @Test
+    public void testShowsRecordedBeforeLoadAreMerged() throws Exception {
+        final CoachMarkSeenStore store = new CoachMarkSeenStore(getStoreFile());
+        store.awaitLoaded();
+        store.recordShown("spam");
+        store.flush();
+
+        final CoachMarkSeenStore reloaded = new CoachMarkSeenStore(getStoreFile());
+        reloaded.recordShown("spam");
+        reloaded.awaitLoaded();
+
+        assertEquals(2, reloaded.getShowCount("spam"));
+    }
+
+    /**
+     * Test that the table grows beyond its initial capacity and is persisted in full
+     */
+    @Test
+    public void testManyCoachMarks() throws Exception {
+        final CoachMarkSeenStore store = new CoachMarkSeenStore(getStoreFile());
+        store.awaitLoaded();
+        for (int i = 0; i < 500; i++) {
+            store.recordShown("coach_mark_" + i);
+        }
+        store.flush();
+
+        final CoachMarkSeenStore reloaded = new CoachMarkSeenStore(getStoreFile());
+        reloaded.awaitLoaded();
+        for (int i = 0; i < 500; i++) {
+            assertEquals(1, reloaded.getShowCount("coach_mark_" + i));
+        }
+    }
+
+    @Test
+    public void testReset() throws Exception {
+        final CoachMarkSeenStore store = new CoachMarkSeenStore(getStoreFile());
+        store.awaitLoaded();
+        store.recordShown("spam");
+        store.recordShown("eggs");
+        store.reset("spam");
+        store.flush();
+
+        final CoachMarkSeenStore reloaded = new CoachMarkSeenStore(getStoreFile());
+        reloaded.awaitLoaded();
+
+        assertEquals(0, reloaded.getShowCount("spam"));
+        assertEquals(1, reloaded.getShowCount("eggs"));
+    }
+
+    /**
+     * Test that once loaded, an action is run straight away on the UI thread,
+     * and is posted to the UI thread when called from another thread
+     */
+    @Test
+    public void testRunWhenLoadedOnUiThread() throws Exception {
+        final CoachMarkSeenStore store = new CoachMarkSeenStore(getStoreFile());
+        store.awaitLoaded();
+        final Thread uiThread = Thread.currentThread();
+        final Thread[] ranOn = new Thread[2];
+
+        store.runWhenLoaded(() -> ranOn[0] = Thread.currentThread());
+        assertSame(uiThread, ranOn[0]);
+
+        final Thread caller = new Thread(
+                () -> store.runWhenLoaded(() -> ranOn[1] = Thread.currentThread()));
+        caller.start();
+        caller.join();
+        assertNull(ranOn[1]);
+
+        ShadowLooper.idleMainLooper();
+        assertSame(uiThread, ranOn[1]);
+    }
+
+    /**
+     * Test that a persisted table with every slot occupied, which could never
+     * be written by the store, is discarded rather than probed forever
+     */
+    @Test(timeout = 10000)
+    public void testFullTableDiscarded() throws Exception {
+        final int capacity = 64;
+        final ByteBuffer buffer = ByteBuffer.allocate(16 + capacity * 12);
+        buffer.putInt(0x43425353).putInt(1).putInt(capacity).putInt(capacity);
+        for (int i = 0; i < capacity; i++) {
+            buffer.putLong(i + 1).putInt(1);
+        }
+        try (RandomAccessFile file = new RandomAccessFile(getStoreFile(), "rw")) {
+            file.write(buffer.array());
+        }
+
+        final CoachMarkSeenStore store = new CoachMarkSeenStore(getStoreFile());
+        store.awaitLoaded();
+
+        assertEquals(0, store.getShowCount("spam"));
+        store.recordShown("spam");
+        assertEquals(1, store.getShowCount("spam"));
+    }
+}
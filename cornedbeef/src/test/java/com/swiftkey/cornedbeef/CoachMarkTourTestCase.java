@@ -0,0 +1,215 @@
+package com.swiftkey.cornedbeef;
+
+import android.app.Activity;
+import android.view.View;
+import android.widget.LinearLayout;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.util.ActivityController;
+
+import java.io.File;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Drives the tour's prefetch idle handler directly, as the main looper
+ * doesn't run idle handlers under Robolectric.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = "src/main/AndroidManifest.xml", packageName = "com.swiftkey.cornedbeef", sdk = 21)
+public class CoachMarkTourTestCase {
+
+    private static final int STEP_COUNT = 3;
+
+    @Rule
+    public TemporaryFolder mTemporaryFolder = new TemporaryFolder();
+
+    private Activity mActivity;
+    private View[] mAnchors;
+    private CountingStep[] mSteps;
+    private Boolean mCompleted;
+
+    @Before
+    public void setUp() {
+        final ActivityController<Activity> controller = Robolectric.buildActivity(Activity.class).create();
+        mActivity = controller.get();
+        final LinearLayout root = new LinearLayout(mActivity);
+        mAnchors = new View[STEP_COUNT];
+        mSteps = new CountingStep[STEP_COUNT];
+        for (int i = 0; i < STEP_COUNT; i++) {
+            mAnchors[i] = new View(mActivity);
+            mAnchors[i].setId(i + 1);
+            root.addView(mAnchors[i], new LinearLayout.LayoutParams(100, 100));
+            mSteps[i] = new CountingStep(mAnchors[i], "step" + i);
+        }
+        mActivity.setContentView(root);
+        controller.start().resume().visible();
+    }
+
+    /**
+     * Test that dismissing each step shows the next, and that dismissing the
+     * last step completes the tour
+     */
+    @Test
+    public void testAdvancesOnDismiss() {
+        final CoachMarkTour tour = buildTour();
+        tour.start();
+
+        for (int i = 0; i < STEP_COUNT; i++) {
+            assertEquals(i, tour.getCurrentStepIndex());
+            final CoachMark coachMark = tour.getCurrentCoachMark();
+            assertTrue(coachMark.isShowing());
+            assertEquals(mAnchors[i], coachMark.mAnchor);
+            coachMark.dismiss();
+        }
+
+        assertTrue(tour.isFinished());
+        assertEquals(Boolean.TRUE, mCompleted);
+        assertNull(tour.getCurrentCoachMark());
+    }
+
+    /**
+     * Test that the next step is built when the UI thread is idle, and is not
+     * built again when it is shown
+     */
+    @Test
+    public void testPrefetchesNextStepWhenIdle() {
+        final CoachMarkTour tour = buildTour();
+        tour.start();
+        assertEquals(1, mSteps[0].mCreateCount);
+        assertEquals(0, mSteps[1].mCreateCount);
+
+        assertFalse(tour.mPrefetchIdleHandler.queueIdle());
+        assertEquals(1, mSteps[1].mCreateCount);
+        assertEquals(0, mSteps[2].mCreateCount);
+
+        tour.next();
+        assertEquals(1, tour.getCurrentStepIndex());
+        assertTrue(tour.getCurrentCoachMark().isShowing());
+        assertEquals(1, mSteps[1].mCreateCount);
+    }
+
+    /**
+     * Test that a step which has already been shown as many times as its seen
+     * store allows is skipped
+     */
+    @Test
+    public void testSkipsSuppressedStep() throws Exception {
+        final CoachMarkSeenStore seenStore =
+                new CoachMarkSeenStore(new File(mTemporaryFolder.getRoot(), "seen"));
+        seenStore.awaitLoaded();
+        seenStore.recordShown(mSteps[1].mId);
+        mSteps[1].mSeenStore = seenStore;
+
+        final CoachMarkTour tour = buildTour();
+        tour.start();
+        tour.next();
+
+        assertEquals(2, tour.getCurrentStepIndex());
+        assertTrue(tour.getCurrentCoachMark().isShowing());
+        assertEquals(mAnchors[2], tour.getCurrentCoachMark().mAnchor);
+    }
+
+    /**
+     * Test that a new tour restored from a retained one shows the step which
+     * was showing, without calling the finished listener of either
+     */
+    @Test
+    public void testResumesFromRetainedState() {
+        final CoachMarkTour tour = buildTour();
+        tour.start();
+        tour.next();
+        final CoachMark retainedCoachMark = tour.getCurrentCoachMark();
+
+        final CoachMarkTour.RetainedTour state = tour.retain();
+        assertEquals(1, state.getStepIndex());
+        assertFalse(retainedCoachMark.isShowing());
+        assertTrue(tour.isFinished());
+
+        final CoachMarkTour restored = buildTour();
+        restored.restore(state);
+
+        assertEquals(1, restored.getCurrentStepIndex());
+        assertTrue(restored.getCurrentCoachMark().isShowing());
+        assertEquals(mAnchors[1], restored.getCurrentCoachMark().mAnchor);
+        assertNull(mCompleted);
+
+        restored.next();
+        assertEquals(2, restored.getCurrentStepIndex());
+    }
+
+    /**
+     * Test that a step whose builder is reused by several tours keeps its own
+     * dismiss listener, which is called once each time the step is dismissed
+     */
+    @Test
+    public void testReusedBuilderIsNotModified() {
+        final int[] dismissCount = new int[1];
+        final CoachMark.OnDismissListener listener = () -> dismissCount[0]++;
+        final CoachMark.CoachMarkBuilder builder =
+                new HighlightCoachMark.HighlightCoachMarkBuilder(mActivity, mAnchors[0])
+                        .setTimeout(0)
+                        .setOnDismissListener(listener);
+
+        for (int i = 1; i <= 2; i++) {
+            final CoachMarkTour tour = new CoachMarkTour.CoachMarkTourBuilder()
+                    .addStep(builder)
+                    .build();
+            tour.start();
+            tour.getCurrentCoachMark().dismiss();
+
+            assertTrue(tour.isFinished());
+            assertEquals(i, dismissCount[0]);
+            assertSame(listener, builder.dismissListener);
+        }
+    }
+
+    private CoachMarkTour buildTour() {
+        final CoachMarkTour.CoachMarkTourBuilder builder = new CoachMarkTour.CoachMarkTourBuilder()
+                .setOnTourFinishedListener(completed -> mCompleted = completed);
+        for (CountingStep step : mSteps) {
+            builder.addStep(step);
+        }
+        return builder.build();
+    }
+
+    /**
+     * A step which counts how many times its builder has been created
+     */
+    private class CountingStep implements CoachMarkTour.Step {
+
+        final View mAnchor;
+        final String mId;
+        CoachMarkSeenStore mSeenStore;
+        int mCreateCount;
+
+        CountingStep(View anchor, String id) {
+            mAnchor = anchor;
+            mId = id;
+        }
+
+        @Override
+        public CoachMark.CoachMarkBuilder createBuilder() {
+            mCreateCount++;
+            final CoachMark.CoachMarkBuilder builder =
+                    new HighlightCoachMark.HighlightCoachMarkBuilder(mActivity, mAnchor)
+                            .setTimeout(0)
+                            .setId(mId);
+            if (mSeenStore != null) {
+                builder.setSeenStore(mSeenStore);
+            }
+            return builder;
+        }
+    }
+}
@@ -1,13 +1,23 @@
 package com.swiftkey.cornedbeef;
 
 import android.graphics.Point;
+import android.graphics.Rect;
+
+import com.swiftkey.cornedbeef.geometry.Placement;
 
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.robolectric.RobolectricTestRunner;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
 import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
 import static com.swiftkey.cornedbeef.CoachMark.CoachMarkDimens;
+import static com.swiftkey.cornedbeef.CoachMarkUtils.PopupPlacement;
+import static com.swiftkey.cornedbeef.CoachMarkUtils.PopupRequest;
 
 @RunWith(RobolectricTestRunner.class)
 public class CoachMarkUtilsTestCase {
@@ -447,4 +457,103 @@ public class CoachMarkUtilsTestCase {
         
         assertEquals(1080 - ARROW_WIDTH - 15, margin);
     }
+
+    /**
+     * Test that a popup which would overlap an earlier popup is moved to the other side of its anchor
+     */
+    @Test
+    public void testPlacePopups_overlappingPopupMovedBelow() {
+        final PopupPlacement[] placements = CoachMarkUtils.placePopups(Arrays.asList(
+                new PopupRequest(new CoachMarkDimens<>(100, 500, 50, ANCHOR_HEIGHT),
+                        200, 100, Placement.ABOVE),
+                new PopupRequest(new CoachMarkDimens<>(160, 500, 50, ANCHOR_HEIGHT),
+                        200, 100, Placement.ABOVE)),
+                new Rect(0, 0, SCREEN_WIDTH, SCREEN_HEIGHT), NO_PADDING, false);
+
+        assertEquals(Placement.ABOVE, placements[0].placement);
+        assertEquals(25, placements[0].x);
+        assertEquals(400, placements[0].y);
+        assertEquals(Placement.BELOW, placements[1].placement);
+        assertEquals(85, placements[1].x);
+        assertEquals(510, placements[1].y);
+        assertFalse(placements[0].overlaps);
+        assertFalse(placements[1].overlaps);
+    }
+
+    /**
+     * Test that a popup is moved below its anchor if there is no room above it
+     */
+    @Test
+    public void testPlacePopups_noRoomAbove() {
+        final PopupPlacement[] placements = CoachMarkUtils.placePopups(Arrays.asList(
+                new PopupRequest(new CoachMarkDimens<>(500, 0, 100, ANCHOR_HEIGHT),
+                        200, 100, Placement.ABOVE)),
+                new Rect(0, 0, SCREEN_WIDTH, SCREEN_HEIGHT), NO_PADDING, false);
+
+        assertEquals(Placement.BELOW, placements[0].placement);
+        assertEquals(ANCHOR_HEIGHT, placements[0].y);
+    }
+
+    /**
+     * Test that start and end placements follow the layout direction
+     */
+    @Test
+    public void testPlacePopups_startPlacement() {
+        final List<PopupRequest> popups = Arrays.asList(
+                new PopupRequest(new CoachMarkDimens<>(500, 500, 100, 100),
+                        200, 50, Placement.START));
+        final Rect frame = new Rect(0, 0, SCREEN_WIDTH, SCREEN_HEIGHT);
+
+        final PopupPlacement ltr = CoachMarkUtils.placePopups(popups, frame, NO_PADDING, false)[0];
+        final PopupPlacement rtl = CoachMarkUtils.placePopups(popups, frame, NO_PADDING, true)[0];
+
+        assertEquals(Placement.START, ltr.placement);
+        assertEquals(300, ltr.x);
+        assertEquals(525, ltr.y);
+        assertEquals(Placement.START, rtl.placement);
+        assertEquals(600, rtl.x);
+        assertEquals(525, rtl.y);
+    }
+
+    /**
+     * Test that when many popups are placed together, none of those which are
+     * not flagged as overlapping overlap another popup or anchor
+     */
+    @Test
+    public void testPlacePopups_manyPopups() {
+        final List<PopupRequest> popups = new ArrayList<>();
+        for (int row = 0; row < 8; row++) {
+            for (int column = 0; column < 8; column++) {
+                popups.add(new PopupRequest(
+                        new CoachMarkDimens<>(column * 130 + 10, row * 240 + 100, 60, 40),
+                        150, 80, row % 2 == 0 ? Placement.ABOVE : Placement.BELOW));
+            }
+        }
+
+        final PopupPlacement[] placements = CoachMarkUtils.placePopups(popups,
+                new Rect(0, 0, SCREEN_WIDTH, SCREEN_HEIGHT), NO_PADDING, false);
+
+        for (int i = 0; i < placements.length; i++) {
+            if (placements[i].overlaps) {
+                continue;
+            }
+            final Rect popup = getBounds(placements[i], popups.get(i));
+            for (int j = 0; j < placements.length; j++) {
+                if (i == j) {
+                    continue;
+                }
+                final CoachMarkDimens<Integer> anchor = popups.get(j).anchorDimens;
+                assertFalse(Rect.intersects(popup, new Rect(anchor.x, anchor.y,
+                        anchor.x + anchor.width, anchor.y + anchor.height)));
+                if (j < i) {
+                    assertFalse(Rect.intersects(popup, getBounds(placements[j], popups.get(j))));
+                }
+            }
+        }
+    }
+
+    private static Rect getBounds(PopupPlacement placement, PopupRequest popup) {
+        return new Rect(placement.x, placement.y,
+                placement.x + popup.width, placement.y + popup.height);
+    }
 }
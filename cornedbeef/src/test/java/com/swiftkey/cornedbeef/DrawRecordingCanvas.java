@@ -0,0 +1,754 @@
+package com.swiftkey.cornedbeef;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.Path;
+import android.graphics.Picture;
+import android.graphics.PorterDuff;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.graphics.Region;
+import android.graphics.drawable.Drawable;
+import android.view.View;
+import android.view.ViewGroup;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Locale;
+
+/**
+ * A canvas which records what is drawn into it instead of rasterizing it:
+ * the number of draw calls, the number of offscreen layers saved, and how many
+ * times each pixel is drawn, from the bounds of each draw.
+ * <p>
+ * Pixels count as drawn if their centres are inside a draw's bounds and its
+ * clip. Clips are kept as a rectangle less any rectangles clipped out, and
+ * only translations are applied, which is all that coach marks use. Text,
+ * lines, points, pictures and bitmaps drawn with a matrix count as draw calls
+ * but aren't counted in coverage. Draws which can't change any pixels, such as
+ * a transparent color with the default blend mode, are ignored, as the
+ * framework skips them.
+ * <p>
+ * Robolectric's views only draw their backgrounds, so view hierarchies are
+ * drawn with {@link #drawView}, which walks them in the framework's software
+ * drawing order instead.
+ */
+final class DrawRecordingCanvas extends Canvas {
+
+    private static final Method ON_DRAW = getDeclaredMethod(View.class, "onDraw");
+    private static final Method DISPATCH_DRAW = getDeclaredMethod(ViewGroup.class, "dispatchDraw");
+    private static final Field CHILDREN_COUNT = getDeclaredField(ViewGroup.class, "mChildrenCount");
+
+    /**
+     * The translation and clip in effect between a save and its restore
+     */
+    private static final class State {
+        float dx;
+        float dy;
+        float clipLeft;
+        float clipTop;
+        float clipRight;
+        float clipBottom;
+        final ArrayList<RectF> clipOuts = new ArrayList<>();
+        boolean isLayer;
+        final RectF layerBounds = new RectF();
+
+        State copy() {
+            final State state = new State();
+            state.dx = dx;
+            state.dy = dy;
+            state.clipLeft = clipLeft;
+            state.clipTop = clipTop;
+            state.clipRight = clipRight;
+            state.clipBottom = clipBottom;
+            state.clipOuts.addAll(clipOuts);
+            return state;
+        }
+    }
+
+    private final int mWidth;
+    private final int mHeight;
+    private final int[] mPixelDraws;
+    private final ArrayList<State> mStates = new ArrayList<>();
+
+    private int mDrawCallCount;
+    private int mSaveLayerCount;
+    private long mPixelsDrawn;
+
+    DrawRecordingCanvas(int width, int height) {
+        mWidth = width;
+        mHeight = height;
+        mPixelDraws = new int[width * height];
+        final State state = new State();
+        state.clipRight = width;
+        state.clipBottom = height;
+        mStates.add(state);
+    }
+
+    /**
+     * Record a laid out view hierarchy, such as a coach mark's popup window
+     */
+    static DrawRecordingCanvas record(View root) {
+        final DrawRecordingCanvas canvas = new DrawRecordingCanvas(root.getWidth(), root.getHeight());
+        canvas.drawView(root, true);
+        return canvas;
+    }
+
+    int getDrawCallCount() {
+        return mDrawCallCount;
+    }
+
+    int getSaveLayerCount() {
+        return mSaveLayerCount;
+    }
+
+    /**
+     * Get the number of pixels which were drawn at least once
+     */
+    int getCoveredPixelCount() {
+        int count = 0;
+        for (int draws : mPixelDraws) {
+            count += draws > 0 ? 1 : 0;
+        }
+        return count;
+    }
+
+    /**
+     * Get the number of pixels drawn, counting a pixel every time it is drawn
+     */
+    long getPixelsDrawn() {
+        return mPixelsDrawn;
+    }
+
+    /**
+     * Get the average number of times each pixel of the canvas was drawn
+     */
+    float getOverdraw() {
+        return mPixelDraws.length == 0 ? 0 : (float) mPixelsDrawn / mPixelDraws.length;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US, "%dx%d: %d draw calls, %d save layers, %d px covered, %.2fx overdraw",
+                mWidth, mHeight, getDrawCallCount(), getSaveLayerCount(), getCoveredPixelCount(), getOverdraw());
+    }
+
+    /**
+     * Draw a view and its descendants as the framework's software renderer
+     * would: its background, its own content, then its children in order
+     *
+     * @param clip whether to clip the view to its bounds, which its parent does
+     * unless it has been told not to clip its children
+     */
+    void drawView(View view, boolean clip) {
+        if (view.getVisibility() != View.VISIBLE || view.getAlpha() <= 0) {
+            return;
+        }
+        final int width = view.getWidth();
+        final int height = view.getHeight();
+        final int saveCount = save();
+        translate(view.getLeft() + view.getTranslationX(), view.getTop() + view.getTranslationY());
+        if (clip) {
+            clipRect(0, 0, width, height);
+        }
+        if ((view.getAlpha() < 1 && view.hasOverlappingRendering())
+                || view.getLayerType() != View.LAYER_TYPE_NONE) {
+            // Translucent views are drawn into a layer first, as are views with their own layer
+            saveLayer(0, 0, width, height, null);
+        }
+
+        final Drawable background = view.getBackground();
+        if (background != null) {
+            background.setBounds(0, 0, width, height);
+            background.draw(this);
+        }
+        translate(-view.getScrollX(), -view.getScrollY());
+        if (background != null || !view.willNotDraw()) {
+            invoke(ON_DRAW, view);
+        }
+        if (view instanceof ViewGroup) {
+            dispatchDraw((ViewGroup) view);
+        }
+        restoreToCount(saveCount);
+    }
+
+    private void dispatchDraw(ViewGroup group) {
+        if (hasOwnDispatchDraw(group)) {
+            // Draw what the view group draws itself, without the framework drawing its children
+            final int childCount = getInt(CHILDREN_COUNT, group);
+            setInt(CHILDREN_COUNT, group, 0);
+            try {
+                invoke(DISPATCH_DRAW, group);
+            } finally {
+                setInt(CHILDREN_COUNT, group, childCount);
+            }
+        }
+        final int saveCount = save();
+        if (group.getClipToPadding()) {
+            clipRect(group.getScrollX() + group.getPaddingLeft(),
+                    group.getScrollY() + group.getPaddingTop(),
+                    group.getScrollX() + group.getWidth() - group.getPaddingRight(),
+                    group.getScrollY() + group.getHeight() - group.getPaddingBottom());
+        }
+        for (int i = 0; i < group.getChildCount(); i++) {
+            drawView(group.getChildAt(i), group.getClipChildren());
+        }
+        restoreToCount(saveCount);
+    }
+
+    /**
+     * Check whether one of our view groups overrides dispatchDraw to draw
+     * something besides its children
+     */
+    private static boolean hasOwnDispatchDraw(ViewGroup group) {
+        for (Class<?> c = group.getClass(); !c.getName().startsWith("android."); c = c.getSuperclass()) {
+            try {
+                c.getDeclaredMethod("dispatchDraw", Canvas.class);
+                return true;
+            } catch (NoSuchMethodException e) {
+                // Keep looking in the superclass
+            }
+        }
+        return false;
+    }
+
+    private State getState() {
+        return mStates.get(mStates.size() - 1);
+    }
+
+    @Override
+    public int getWidth() {
+        return mWidth;
+    }
+
+    @Override
+    public int getHeight() {
+        return mHeight;
+    }
+
+    @Override
+    public boolean isHardwareAccelerated() {
+        return false;
+    }
+
+    // Saving and restoring
+
+    @Override
+    public int save() {
+        mStates.add(getState().copy());
+        return mStates.size() - 1;
+    }
+
+    @Override
+    public int getSaveCount() {
+        return mStates.size();
+    }
+
+    @Override
+    public void restore() {
+        if (mStates.size() <= 1) {
+            throw new IllegalStateException("Underflow in restore");
+        }
+        final State state = mStates.remove(mStates.size() - 1);
+        if (state.isLayer) {
+            // Compositing the layer draws over its bounds
+            final State parent = getState();
+            addCoverage(state.layerBounds.left - parent.dx, state.layerBounds.top - parent.dy,
+                    state.layerBounds.right - parent.dx, state.layerBounds.bottom - parent.dy);
+        }
+    }
+
+    @Override
+    public void restoreToCount(int saveCount) {
+        while (mStates.size() > Math.max(1, saveCount)) {
+            restore();
+        }
+    }
+
+    @Override
+    public int saveLayer(RectF bounds, Paint paint, int saveFlags) {
+        return saveLayer(bounds, paint);
+    }
+
+    @Override
+    public int saveLayer(RectF bounds, Paint paint) {
+        if (bounds == null) {
+            return saveLayer(Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY,
+                    Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY, paint);
+        }
+        return saveLayer(bounds.left, bounds.top, bounds.right, bounds.bottom, paint);
+    }
+
+    @Override
+    public int saveLayer(float left, float top, float right, float bottom, Paint paint, int saveFlags) {
+        return saveLayer(left, top, right, bottom, paint);
+    }
+
+    @Override
+    public int saveLayer(float left, float top, float right, float bottom, Paint paint) {
+        final int saveCount = save();
+        final State state = getState();
+        state.isLayer = true;
+        state.layerBounds.set(
+                Math.max(left + state.dx, state.clipLeft), Math.max(top + state.dy, state.clipTop),
+                Math.min(right + state.dx, state.clipRight), Math.min(bottom + state.dy, state.clipBottom));
+        mSaveLayerCount++;
+        mDrawCallCount++;
+        return saveCount;
+    }
+
+    @Override
+    public int saveLayerAlpha(RectF bounds, int alpha, int saveFlags) {
+        return saveLayer(bounds, null);
+    }
+
+    @Override
+    public int saveLayerAlpha(RectF bounds, int alpha) {
+        return saveLayer(bounds, null);
+    }
+
+    @Override
+    public int saveLayerAlpha(float left, float top, float right, float bottom, int alpha, int saveFlags) {
+        return saveLayer(left, top, right, bottom, null);
+    }
+
+    @Override
+    public int saveLayerAlpha(float left, float top, float right, float bottom, int alpha) {
+        return saveLayer(left, top, right, bottom, null);
+    }
+
+    // Transforms
+
+    @Override
+    public void translate(float dx, float dy) {
+        final State state = getState();
+        state.dx += dx;
+        state.dy += dy;
+    }
+
+    @Override
+    public void concat(Matrix matrix) {
+        if (matrix != null) {
+            final float[] values = new float[9];
+            matrix.getValues(values);
+            translate(values[Matrix.MTRANS_X], values[Matrix.MTRANS_Y]);
+        }
+    }
+
+    // Clipping
+
+    @Override
+    public boolean clipRect(float left, float top, float right, float bottom) {
+        return clipRect(left, top, right, bottom, Region.Op.INTERSECT);
+    }
+
+    @Override
+    public boolean clipRect(int left, int top, int right, int bottom) {
+        return clipRect((float) left, top, right, bottom, Region.Op.INTERSECT);
+    }
+
+    @Override
+    public boolean clipRect(Rect rect) {
+        return clipRect((float) rect.left, rect.top, rect.right, rect.bottom, Region.Op.INTERSECT);
+    }
+
+    @Override
+    public boolean clipRect(RectF rect) {
+        return clipRect(rect.left, rect.top, rect.right, rect.bottom, Region.Op.INTERSECT);
+    }
+
+    @Override
+    public boolean clipRect(Rect rect, Region.Op op) {
+        return clipRect((float) rect.left, rect.top, rect.right, rect.bottom, op);
+    }
+
+    @Override
+    public boolean clipRect(RectF rect, Region.Op op) {
+        return clipRect(rect.left, rect.top, rect.right, rect.bottom, op);
+    }
+
+    @Override
+    public boolean clipRect(float left, float top, float right, float bottom, Region.Op op) {
+        final State state = getState();
+        left += state.dx;
+        top += state.dy;
+        right += state.dx;
+        bottom += state.dy;
+        switch (op) {
+            case INTERSECT:
+                state.clipLeft = Math.max(state.clipLeft, left);
+                state.clipTop = Math.max(state.clipTop, top);
+                state.clipRight = Math.min(state.clipRight, right);
+                state.clipBottom = Math.min(state.clipBottom, bottom);
+                break;
+            case DIFFERENCE:
+                state.clipOuts.add(new RectF(left, top, right, bottom));
+                break;
+            case REPLACE:
+                state.clipLeft = left;
+                state.clipTop = top;
+                state.clipRight = right;
+                state.clipBottom = bottom;
+                state.clipOuts.clear();
+                break;
+            default:
+                throw new UnsupportedOperationException("Unsupported clip operation: " + op);
+        }
+        return state.clipLeft < state.clipRight && state.clipTop < state.clipBottom;
+    }
+
+    @Override
+    public boolean clipOutRect(float left, float top, float right, float bottom) {
+        return clipRect(left, top, right, bottom, Region.Op.DIFFERENCE);
+    }
+
+    @Override
+    public boolean clipOutRect(int left, int top, int right, int bottom) {
+        return clipRect((float) left, top, right, bottom, Region.Op.DIFFERENCE);
+    }
+
+    @Override
+    public boolean clipOutRect(Rect rect) {
+        return clipRect((float) rect.left, rect.top, rect.right, rect.bottom, Region.Op.DIFFERENCE);
+    }
+
+    @Override
+    public boolean clipOutRect(RectF rect) {
+        return clipRect(rect.left, rect.top, rect.right, rect.bottom, Region.Op.DIFFERENCE);
+    }
+
+    @Override
+    public boolean clipPath(Path path) {
+        // Paths can't be clipped to exactly, so keep the clip, over-counting coverage
+        return true;
+    }
+
+    @Override
+    public boolean clipPath(Path path, Region.Op op) {
+        return true;
+    }
+
+    @Override
+    public boolean clipOutPath(Path path) {
+        return true;
+    }
+
+    @Override
+    public boolean getClipBounds(Rect bounds) {
+        final State state = getState();
+        bounds.set((int) Math.floor(state.clipLeft - state.dx), (int) Math.floor(state.clipTop - state.dy),
+                (int) Math.ceil(state.clipRight - state.dx), (int) Math.ceil(state.clipBottom - state.dy));
+        return !bounds.isEmpty();
+    }
+
+    @Override
+    public boolean quickReject(float left, float top, float right, float bottom, EdgeType type) {
+        final State state = getState();
+        return left + state.dx >= state.clipRight || right + state.dx <= state.clipLeft
+                || top + state.dy >= state.clipBottom || bottom + state.dy <= state.clipTop;
+    }
+
+    @Override
+    public boolean quickReject(RectF rect, EdgeType type) {
+        return quickReject(rect.left, rect.top, rect.right, rect.bottom, type);
+    }
+
+    @Override
+    public boolean quickReject(Path path, EdgeType type) {
+        return false;
+    }
+
+    // Drawing
+
+    @Override
+    public void drawColor(int color) {
+        drawColor(color, PorterDuff.Mode.SRC_OVER);
+    }
+
+    @Override
+    public void drawColor(int color, PorterDuff.Mode mode) {
+        if ((color >>> 24) == 0 && mode == PorterDuff.Mode.SRC_OVER) {
+            return;
+        }
+        recordFill();
+    }
+
+    @Override
+    public void drawARGB(int a, int r, int g, int b) {
+        drawColor((a << 24) | (r << 16) | (g << 8) | b);
+    }
+
+    @Override
+    public void drawRGB(int r, int g, int b) {
+        drawColor(0xFF000000 | (r << 16) | (g << 8) | b);
+    }
+
+    @Override
+    public void drawPaint(Paint paint) {
+        if (!isInvisible(paint)) {
+            recordFill();
+        }
+    }
+
+    @Override
+    public void drawRect(float left, float top, float right, float bottom, Paint paint) {
+        record(left, top, right, bottom, paint);
+    }
+
+    @Override
+    public void drawRect(Rect rect, Paint paint) {
+        record(rect.left, rect.top, rect.right, rect.bottom, paint);
+    }
+
+    @Override
+    public void drawRect(RectF rect, Paint paint) {
+        record(rect.left, rect.top, rect.right, rect.bottom, paint);
+    }
+
+    @Override
+    public void drawRoundRect(float left, float top, float right, float bottom, float rx, float ry, Paint paint) {
+        record(left, top, right, bottom, paint);
+    }
+
+    @Override
+    public void drawRoundRect(RectF rect, float rx, float ry, Paint paint) {
+        record(rect.left, rect.top, rect.right, rect.bottom, paint);
+    }
+
+    @Override
+    public void drawOval(float left, float top, float right, float bottom, Paint paint) {
+        record(left, top, right, bottom, paint);
+    }
+
+    @Override
+    public void drawOval(RectF oval, Paint paint) {
+        record(oval.left, oval.top, oval.right, oval.bottom, paint);
+    }
+
+    @Override
+    public void drawCircle(float cx, float cy, float radius, Paint paint) {
+        record(cx - radius, cy - radius, cx + radius, cy + radius, paint);
+    }
+
+    @Override
+    public void drawArc(float left, float top, float right, float bottom, float startAngle,
+            float sweepAngle, boolean useCenter, Paint paint) {
+        record(left, top, right, bottom, paint);
+    }
+
+    @Override
+    public void drawArc(RectF oval, float startAngle, float sweepAngle, boolean useCenter, Paint paint) {
+        record(oval.left, oval.top, oval.right, oval.bottom, paint);
+    }
+
+    @Override
+    public void drawPath(Path path, Paint paint) {
+        final RectF bounds = new RectF();
+        path.computeBounds(bounds, true);
+        record(bounds.left, bounds.top, bounds.right, bounds.bottom, paint);
+    }
+
+    @Override
+    public void drawBitmap(Bitmap bitmap, float left, float top, Paint paint) {
+        record(left, top, left + bitmap.getWidth(), top + bitmap.getHeight(), paint);
+    }
+
+    @Override
+    public void drawBitmap(Bitmap bitmap, Rect src, RectF dst, Paint paint) {
+        record(dst.left, dst.top, dst.right, dst.bottom, paint);
+    }
+
+    @Override
+    public void drawBitmap(Bitmap bitmap, Rect src, Rect dst, Paint paint) {
+        record(dst.left, dst.top, dst.right, dst.bottom, paint);
+    }
+
+    @Override
+    public void drawBitmap(Bitmap bitmap, Matrix matrix, Paint paint) {
+        recordWithoutCoverage(paint);
+    }
+
+    @Override
+    public void drawPicture(Picture picture) {
+        mDrawCallCount++;
+    }
+
+    @Override
+    public void drawLine(float startX, float startY, float stopX, float stopY, Paint paint) {
+        recordWithoutCoverage(paint);
+    }
+
+    @Override
+    public void drawLines(float[] pts, int offset, int count, Paint paint) {
+        recordWithoutCoverage(paint);
+    }
+
+    @Override
+    public void drawLines(float[] pts, Paint paint) {
+        recordWithoutCoverage(paint);
+    }
+
+    @Override
+    public void drawPoint(float x, float y, Paint paint) {
+        recordWithoutCoverage(paint);
+    }
+
+    @Override
+    public void drawPoints(float[] pts, int offset, int count, Paint paint) {
+        recordWithoutCoverage(paint);
+    }
+
+    @Override
+    public void drawPoints(float[] pts, Paint paint) {
+        recordWithoutCoverage(paint);
+    }
+
+    @Override
+    public void drawText(char[] text, int index, int count, float x, float y, Paint paint) {
+        recordWithoutCoverage(paint);
+    }
+
+    @Override
+    public void drawText(String text, float x, float y, Paint paint) {
+        recordWithoutCoverage(paint);
+    }
+
+    @Override
+    public void drawText(String text, int start, int end, float x, float y, Paint paint) {
+        recordWithoutCoverage(paint);
+    }
+
+    @Override
+    public void drawText(CharSequence text, int start, int end, float x, float y, Paint paint) {
+        recordWithoutCoverage(paint);
+    }
+
+    @Override
+    public void drawTextRun(char[] text, int index, int count, int contextIndex, int contextCount,
+            float x, float y, boolean isRtl, Paint paint) {
+        recordWithoutCoverage(paint);
+    }
+
+    @Override
+    public void drawTextRun(CharSequence text, int start, int end, int contextStart, int contextEnd,
+            float x, float y, boolean isRtl, Paint paint) {
+        recordWithoutCoverage(paint);
+    }
+
+    @Override
+    public void drawTextOnPath(char[] text, int index, int count, Path path, float hOffset,
+            float vOffset, Paint paint) {
+        recordWithoutCoverage(paint);
+    }
+
+    @Override
+    public void drawTextOnPath(String text, Path path, float hOffset, float vOffset, Paint paint) {
+        recordWithoutCoverage(paint);
+    }
+
+    private static boolean isInvisible(Paint paint) {
+        return paint != null && paint.getAlpha() == 0
+                && paint.getXfermode() == null && paint.getShader() == null;
+    }
+
+    private void recordFill() {
+        final State state = getState();
+        mDrawCallCount++;
+        addCoverage(state.clipLeft - state.dx, state.clipTop - state.dy,
+                state.clipRight - state.dx, state.clipBottom - state.dy);
+    }
+
+    private void record(float left, float top, float right, float bottom, Paint paint) {
+        if (!isInvisible(paint)) {
+            mDrawCallCount++;
+            addCoverage(left, top, right, bottom);
+        }
+    }
+
+    private void recordWithoutCoverage(Paint paint) {
+        if (!isInvisible(paint)) {
+            mDrawCallCount++;
+        }
+    }
+
+    /**
+     * Count the pixels whose centres are inside the given bounds, in the
+     * current coordinates, and inside the current clip
+     */
+    private void addCoverage(float left, float top, float right, float bottom) {
+        final State state = getState();
+        final int l = Math.max(0, Math.round(Math.max(left + state.dx, state.clipLeft)));
+        final int t = Math.max(0, Math.round(Math.max(top + state.dy, state.clipTop)));
+        final int r = Math.min(mWidth, Math.round(Math.min(right + state.dx, state.clipRight)));
+        final int b = Math.min(mHeight, Math.round(Math.min(bottom + state.dy, state.clipBottom)));
+        for (int y = t; y < b; y++) {
+            for (int x = l; x < r; x++) {
+                if (!isClippedOut(state, x + 0.5f, y + 0.5f)) {
+                    mPixelDraws[y * mWidth + x]++;
+                    mPixelsDrawn++;
+                }
+            }
+        }
+    }
+
+    private static boolean isClippedOut(State state, float x, float y) {
+        for (int i = 0; i < state.clipOuts.size(); i++) {
+            if (state.clipOuts.get(i).contains(x, y)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Reflection, to call the drawing methods which views keep to themselves
+
+    private static Method getDeclaredMethod(Class<?> c, String name) {
+        try {
+            final Method method = c.getDeclaredMethod(name, Canvas.class);
+            method.setAccessible(true);
+            return method;
+        } catch (NoSuchMethodException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static Field getDeclaredField(Class<?> c, String name) {
+        try {
+            final Field field = c.getDeclaredField(name);
+            field.setAccessible(true);
+            return field;
+        } catch (NoSuchFieldException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private void invoke(Method method, View view) {
+        try {
+            method.invoke(view, this);
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException(e);
+        } catch (InvocationTargetException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    private static int getInt(Field field, Object object) {
+        try {
+            return field.getInt(object);
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void setInt(Field field, Object object, int value) {
+        try {
+            field.setInt(object, value);
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -1,6 +1,7 @@
 package com.swiftkey.cornedbeef;
 
 import android.content.Context;
+import android.graphics.Rect;
 import android.view.View;
 import android.widget.PopupWindow;
 
@@ -12,6 +13,7 @@ import org.robolectric.RuntimeEnvironment;
 import static org.junit.Assert.assertEquals;
 import static org.mockito.Mockito.mock;
 import static com.swiftkey.cornedbeef.CoachMark.CoachMarkDimens;
+import static com.swiftkey.cornedbeef.CoachMarkFixture.AnchorView;
 
 @RunWith(RobolectricTestRunner.class)
 public class InternallyAnchoredCoachMarkTestCase {
@@ -22,7 +24,7 @@ public class InternallyAnchoredCoachMarkTestCase {
 
     @Test
     public void testGetAnchorDimensNoInternalAnchor() {
-        View mockAnchor = new MockView(getContext(), 0, 0, 300, 200);
+        View mockAnchor = new AnchorView(getContext(), 0, 0, 300, 200);
         CoachMark coachMark = new TestInternallyAnchoredCoachMark
                 .TestInternallyAnchoredCoachMarkBuilder(getContext(), mockAnchor, null).build();
         
@@ -35,7 +37,7 @@ public class InternallyAnchoredCoachMarkTestCase {
 
     @Test
     public void testGetAnchorDimenswithInternalAnchor() {
-        View mockAnchor = new MockView(getContext(), 10, 40, 300, 200);
+        View mockAnchor = new AnchorView(getContext(), 10, 40, 300, 200);
         CoachMark coachMark = new TestInternallyAnchoredCoachMark
                 .TestInternallyAnchoredCoachMarkBuilder(getContext(), mockAnchor, null)
                      .setInternalAnchor(0.1f, 0.3f, 0.1f, 0.2f)
@@ -48,24 +50,41 @@ public class InternallyAnchoredCoachMarkTestCase {
         assertEquals((Integer) 40,      dimens.height);
     }
 
-    private static class MockView extends View {
+    @Test
+    public void testGetAnchorDimensWithAnchorProvider() {
+        View mockAnchor = new AnchorView(getContext(), 10, 40, 300, 200);
+        AnchorProvider provider = new ViewRegionAnchorProvider(
+                mockAnchor, new Rect(20, 30, 120, 80));
+        CoachMark coachMark = new TestInternallyAnchoredCoachMark
+                .TestInternallyAnchoredCoachMarkBuilder(getContext(), mockAnchor, null)
+                     .setAnchorProvider(provider)
+                     .build();
 
-        private final int xLoc;
-        private final int yLoc;
-        
-        public MockView(Context context,  int x, int y, int measuredWidth, int measuredHeight) {
-            super(context);
-            xLoc = x;
-            yLoc = y;
-            setMeasuredDimension(measuredWidth, measuredHeight);
-        }
-        
-        public void getLocationOnScreen(int[] loc) {
-            loc[0] = xLoc;
-            loc[1] = yLoc;
-        }
+        CoachMarkDimens<Integer> dimens = coachMark.getAnchorDimens();
+        assertEquals((Integer) (10+20), dimens.x);      // anchor x-loc + region offset
+        assertEquals((Integer) (40+30), dimens.y);      // anchor y-loc + region offset
+        assertEquals((Integer) 100,     dimens.width);
+        assertEquals((Integer) 50,      dimens.height);
     }
-    
+
+    @Test
+    public void testGetAnchorDimensWithAnchorProviderAndInternalAnchor() {
+        View mockAnchor = new AnchorView(getContext(), 10, 40, 300, 200);
+        AnchorProvider provider = new ViewRegionAnchorProvider(
+                mockAnchor, new Rect(20, 30, 120, 80));
+        CoachMark coachMark = new TestInternallyAnchoredCoachMark
+                .TestInternallyAnchoredCoachMarkBuilder(getContext(), mockAnchor, null)
+                     .setInternalAnchor(0.5f, 0.2f, 0.5f, 0.4f)
+                     .setAnchorProvider(provider)
+                     .build();
+
+        CoachMarkDimens<Integer> dimens = coachMark.getAnchorDimens();
+        assertEquals((Integer) (30+50), dimens.x);      // region x-loc + offset
+        assertEquals((Integer) (70+10), dimens.y);      // region y-loc + offset
+        assertEquals((Integer) 50,      dimens.width);
+        assertEquals((Integer) 20,      dimens.height);
+    }
+
     private static class TestInternallyAnchoredCoachMark extends InternallyAnchoredCoachMark {
 
         protected TestInternallyAnchoredCoachMark(TestInternallyAnchoredCoachMarkBuilder builder) {
@@ -0,0 +1,107 @@
+package com.swiftkey.cornedbeef;
+
+import android.graphics.Rect;
+import android.view.View;
+import android.view.WindowManager;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that every target's outline is drawn in the one popup window, which
+ * covers the union of the targets, at the target's offset within that window.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = "src/main/AndroidManifest.xml", packageName = "com.swiftkey.cornedbeef", sdk = 21)
+public class MultiHighlightCoachMarkTestCase {
+
+    // The left, top, width and height of each target on screen
+    private static final int[][] TARGETS = {
+            {100, 300, 400, 100},
+            {100, 500, 400, 100},
+            {600, 900, 200, 150}
+    };
+
+    private CoachMarkFixture.AnchorView mForm;
+    private CoachMarkFixture.AnchorView[] mTargets;
+    private MultiHighlightCoachMark mCoachMark;
+
+    @Before
+    public void setUp() {
+        final CoachMarkFixture fixture = new CoachMarkFixture();
+        mForm = fixture.addAnchor(0, 0, 1080, 1920);
+        mTargets = new CoachMarkFixture.AnchorView[TARGETS.length];
+        final MultiHighlightCoachMark.MultiHighlightCoachMarkBuilder builder =
+                new MultiHighlightCoachMark.MultiHighlightCoachMarkBuilder(fixture.activity, mForm);
+        for (int i = 0; i < TARGETS.length; i++) {
+            final int[] target = TARGETS[i];
+            mTargets[i] = fixture.addAnchor(target[0], target[1], target[2], target[3]);
+            builder.addTarget(mTargets[i]);
+        }
+        mCoachMark = (MultiHighlightCoachMark) builder.setTimeout(0).build();
+    }
+
+    @Test
+    public void testOutlinesInOneWindow() {
+        mCoachMark.show();
+        try {
+            assertTrue(mCoachMark.isShowing());
+            final int rootY = mCoachMark.getTokenRootViewLocationOnScreen()[1];
+            assertWindowBounds(new Rect(100, 300 - rootY, 800, 1050 - rootY));
+            for (int i = 0; i < TARGETS.length; i++) {
+                final int[] target = TARGETS[i];
+                assertEquals("Outline " + i, new Rect(target[0] - 100, target[1] - 300,
+                        target[0] - 100 + target[2], target[1] - 300 + target[3]),
+                        mCoachMark.getOutline(i));
+            }
+        } finally {
+            mCoachMark.dismiss();
+        }
+    }
+
+    @Test
+    public void testOutlinesFollowTargets() {
+        mCoachMark.show();
+        try {
+            // Move the last target up and left, so that the window shrinks
+            mTargets[2].moveTo(500, 600);
+            mForm.getViewTreeObserver().dispatchOnPreDraw();
+
+            final int rootY = mCoachMark.getTokenRootViewLocationOnScreen()[1];
+            assertWindowBounds(new Rect(100, 300 - rootY, 700, 750 - rootY));
+            assertEquals(new Rect(0, 0, 400, 100), mCoachMark.getOutline(0));
+            assertEquals(new Rect(0, 200, 400, 300), mCoachMark.getOutline(1));
+            assertEquals(new Rect(400, 300, 600, 450), mCoachMark.getOutline(2));
+        } finally {
+            mCoachMark.dismiss();
+        }
+    }
+
+    @Test
+    public void testHiddenTargetHasNoOutline() {
+        mTargets[0].setVisibility(View.GONE);
+        mCoachMark.show();
+        try {
+            final int rootY = mCoachMark.getTokenRootViewLocationOnScreen()[1];
+            assertWindowBounds(new Rect(100, 500 - rootY, 800, 1050 - rootY));
+            assertTrue(mCoachMark.getOutline(0).isEmpty());
+            assertEquals(new Rect(0, 0, 400, 100), mCoachMark.getOutline(1));
+            assertEquals(new Rect(500, 400, 700, 550), mCoachMark.getOutline(2));
+        } finally {
+            mCoachMark.dismiss();
+        }
+    }
+
+    private void assertWindowBounds(Rect expected) {
+        final WindowManager.LayoutParams params = (WindowManager.LayoutParams)
+                mCoachMark.getContentView().getRootView().getLayoutParams();
+        assertEquals(expected, new Rect(params.x, params.y,
+                params.x + params.width, params.y + params.height));
+    }
+}
@@ -0,0 +1,78 @@
+package com.swiftkey.cornedbeef;
+
+import android.graphics.Color;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that the popup window only takes focus when it covers the whole screen.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = "src/main/AndroidManifest.xml", packageName = "com.swiftkey.cornedbeef", sdk = 21)
+public class PunchedBubbleCoachMarkTestCase {
+
+    private CoachMarkFixture mFixture;
+    private CoachMarkFixture.AnchorView mScreen;
+    private CoachMarkFixture.AnchorView mTarget;
+
+    @Before
+    public void setUp() {
+        mFixture = new CoachMarkFixture();
+        mScreen = mFixture.addAnchor(0, 0, 1080, 1920);
+        mTarget = mFixture.addAnchor(100, 800, 300, 200);
+    }
+
+    /**
+     * Test that a coach mark with a scrim covers the screen, and so is focusable
+     */
+    @Test
+    public void testFullScreenIsFocusable() {
+        final CoachMark coachMark = createBuilder().build();
+        coachMark.show();
+        try {
+            assertTrue(coachMark.isPopupFullScreen());
+            assertTrue(coachMark.isFocusable());
+        } finally {
+            coachMark.dismiss();
+        }
+    }
+
+    /**
+     * Test that a coach mark without a scrim is sized to its bubble, and so
+     * isn't focusable unless asked to be
+     */
+    @Test
+    public void testBubbleSizedIsNotFocusable() {
+        final CoachMark coachMark = createBuilder().setOverlayColor(Color.TRANSPARENT).build();
+        coachMark.show();
+        try {
+            assertFalse(coachMark.isPopupFullScreen());
+            assertFalse(coachMark.isFocusable());
+        } finally {
+            coachMark.dismiss();
+        }
+
+        coachMark.setFocusable(true);
+        coachMark.show();
+        try {
+            assertTrue(coachMark.isFocusable());
+        } finally {
+            coachMark.dismiss();
+        }
+    }
+
+    private PunchedBubbleCoachMark.PunchedBubbleCoachMarkBuilder createBuilder() {
+        return new PunchedBubbleCoachMark.PunchedBubbleCoachMarkBuilder(
+                mFixture.activity, mScreen, "spam spam spam")
+                .setTargetView(mTarget)
+                .setPopupWindowFitsSystemWindows(true)
+                .setTimeout(0);
+    }
+}
@@ -0,0 +1,77 @@
+package com.swiftkey.cornedbeef;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Moves the target with {@link CoachMarkFixture.AnchorView#moveTo(int, int)},
+ * which changes its location on screen without a layout, as a translation or
+ * an item animation would.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = "src/main/AndroidManifest.xml", packageName = "com.swiftkey.cornedbeef", sdk = 21)
+public class TargetTrackerTestCase {
+
+    private CoachMarkFixture.AnchorView mAnchor;
+    private CoachMarkFixture.AnchorView mTarget;
+    private TargetTracker mTracker;
+    private int mProviderChangedCount;
+
+    @Before
+    public void setUp() {
+        final CoachMarkFixture fixture = new CoachMarkFixture();
+        mAnchor = fixture.addAnchor(0, 0, 1080, 1920);
+        mTarget = fixture.addAnchor(100, 400, 300, 200);
+        mTracker = new TargetTracker(() -> mProviderChangedCount++);
+        mTracker.start(mAnchor, mTarget, null);
+    }
+
+    /**
+     * Test that a target which hasn't moved isn't reported as changed after
+     * the first frame
+     */
+    @Test
+    public void testStillTarget() {
+        assertTrue(mTracker.consumeChange());
+        for (int i = 0; i < 10; i++) {
+            assertFalse("Frame " + i, mTracker.consumeChange());
+        }
+    }
+
+    /**
+     * Test that moving the target without a layout is reported once, on the
+     * next frame
+     */
+    @Test
+    public void testTargetMovedWithoutLayout() {
+        assertTrue(mTracker.consumeChange());
+
+        mTarget.moveTo(100, 450);
+        assertTrue(mTracker.consumeChange());
+        assertFalse(mTracker.consumeChange());
+
+        mTarget.moveTo(150, 450);
+        assertTrue(mTracker.consumeChange());
+        assertFalse(mTracker.consumeChange());
+        assertEquals(0, mProviderChangedCount);
+    }
+
+    /**
+     * Test that the target's location is no longer read once tracking has stopped
+     */
+    @Test
+    public void testStop() {
+        assertTrue(mTracker.consumeChange());
+        mTracker.stop();
+
+        mTarget.moveTo(100, 450);
+        assertFalse(mTracker.consumeChange());
+    }
+}
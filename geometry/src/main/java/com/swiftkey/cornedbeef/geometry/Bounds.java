@@ -0,0 +1,86 @@
+package com.swiftkey.cornedbeef.geometry;
+
+/**
+ * A mutable rectangle in integer pixel coordinates, used in place of
+ * {@code android.graphics.Rect} so that geometry can be calculated, tested
+ * and benchmarked on a plain JVM. Right and bottom are exclusive.
+ */
+public final class Bounds {
+
+    public int left;
+    public int top;
+    public int right;
+    public int bottom;
+
+    public Bounds() {
+    }
+
+    public Bounds(int left, int top, int right, int bottom) {
+        set(left, top, right, bottom);
+    }
+
+    public Bounds(Bounds other) {
+        set(other);
+    }
+
+    public void set(int left, int top, int right, int bottom) {
+        this.left = left;
+        this.top = top;
+        this.right = right;
+        this.bottom = bottom;
+    }
+
+    public void set(Bounds other) {
+        set(other.left, other.top, other.right, other.bottom);
+    }
+
+    public boolean isEmpty() {
+        return left >= right || top >= bottom;
+    }
+
+    public int width() {
+        return right - left;
+    }
+
+    public int height() {
+        return bottom - top;
+    }
+
+    /**
+     * Move the bounds so that their top left corner is at the given position,
+     * keeping their size
+     */
+    public void offsetTo(int newLeft, int newTop) {
+        right += newLeft - left;
+        bottom += newTop - top;
+        left = newLeft;
+        top = newTop;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof Bounds)) {
+            return false;
+        }
+        final Bounds other = (Bounds) o;
+        return left == other.left && top == other.top
+                && right == other.right && bottom == other.bottom;
+    }
+
+    @Override
+    public int hashCode() {
+        int result = left;
+        result = 31 * result + top;
+        result = 31 * result + right;
+        result = 31 * result + bottom;
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "Bounds(" + left + ", " + top + ", " + right + ", " + bottom + ")";
+    }
+}
@@ -0,0 +1,9 @@
+package com.swiftkey.cornedbeef.geometry;
+
+/**
+ * The side of its anchor on which a popup is placed. START and END are
+ * resolved to left and right according to the layout direction.
+ */
+public enum Placement {
+    ABOVE, BELOW, START, END
+}
@@ -0,0 +1,142 @@
+package com.swiftkey.cornedbeef.geometry;
+
+import java.util.Arrays;
+
+/**
+ * A uniform grid over the display frame used by
+ * {@link PopupPlacer#placePopups} to find the rects overlapping a candidate
+ * popup position without testing it against every rect placed so far.
+ * Each rect is added to every cell it covers, and is tagged with an owner so
+ * that a popup's own anchor can be ignored.
+ */
+class PlacementGrid {
+
+    private static final int MAX_CELLS_PER_SIDE = 16;
+
+    private final int mLeft;
+    private final int mTop;
+    private final int mCellWidth;
+    private final int mCellHeight;
+    private final int mColumns;
+    private final int mRows;
+
+    // The entries in each cell, as indices into mRects
+    private final int[][] mCells;
+    private final int[] mCellSizes;
+
+    private Bounds[] mRects;
+    private int[] mOwners;
+    private int[] mVisited;
+    private int mSize;
+    private int mQuery;
+
+    /**
+     * @param frame the area the rects will mostly lie in
+     * @param expectedRects the number of rects expected to be added, used to size the grid
+     */
+    PlacementGrid(Bounds frame, int expectedRects) {
+        final int side = Math.max(1, Math.min(MAX_CELLS_PER_SIDE,
+                (int) Math.ceil(Math.sqrt(expectedRects))));
+        mLeft = frame.left;
+        mTop = frame.top;
+        mColumns = side;
+        mRows = side;
+        mCellWidth = Math.max(1, (frame.width() + side - 1) / side);
+        mCellHeight = Math.max(1, (frame.height() + side - 1) / side);
+        mCells = new int[side * side][];
+        mCellSizes = new int[side * side];
+
+        final int capacity = Math.max(4, expectedRects);
+        mRects = new Bounds[capacity];
+        mOwners = new int[capacity];
+        mVisited = new int[capacity];
+    }
+
+    /**
+     * Add a rect to the grid
+     *
+     * @param rect the rect, which is copied
+     * @param owner the owner of the rect, which can be ignored when querying
+     */
+    void add(Bounds rect, int owner) {
+        if (rect.isEmpty()) {
+            return;
+        }
+        if (mSize == mRects.length) {
+            mRects = Arrays.copyOf(mRects, mSize * 2);
+            mOwners = Arrays.copyOf(mOwners, mSize * 2);
+            mVisited = Arrays.copyOf(mVisited, mSize * 2);
+        }
+        final int index = mSize++;
+        mRects[index] = new Bounds(rect);
+        mOwners[index] = owner;
+
+        final int left = getColumn(rect.left);
+        final int right = getColumn(rect.right - 1);
+        final int top = getRow(rect.top);
+        final int bottom = getRow(rect.bottom - 1);
+        for (int row = top; row <= bottom; row++) {
+            for (int column = left; column <= right; column++) {
+                addToCell(row * mColumns + column, index);
+            }
+        }
+    }
+
+    /**
+     * Get the total area by which the given rect overlaps the rects in the grid
+     *
+     * @param rect the rect to test
+     * @param ignoredOwner the owner whose rects should not be counted
+     */
+    long getOverlapArea(Bounds rect, int ignoredOwner) {
+        if (rect.isEmpty()) {
+            return 0;
+        }
+        // Rects covering several cells are only counted the first time they are visited
+        final int query = ++mQuery;
+        long area = 0;
+        final int left = getColumn(rect.left);
+        final int right = getColumn(rect.right - 1);
+        final int top = getRow(rect.top);
+        final int bottom = getRow(rect.bottom - 1);
+        for (int row = top; row <= bottom; row++) {
+            for (int column = left; column <= right; column++) {
+                final int cell = row * mColumns + column;
+                final int[] entries = mCells[cell];
+                for (int i = 0; i < mCellSizes[cell]; i++) {
+                    final int index = entries[i];
+                    if (mVisited[index] == query || mOwners[index] == ignoredOwner) {
+                        continue;
+                    }
+                    mVisited[index] = query;
+                    area += getIntersectionArea(rect, mRects[index]);
+                }
+            }
+        }
+        return area;
+    }
+
+    private void addToCell(int cell, int index) {
+        int[] entries = mCells[cell];
+        if (entries == null) {
+            entries = mCells[cell] = new int[4];
+        } else if (mCellSizes[cell] == entries.length) {
+            entries = mCells[cell] = Arrays.copyOf(entries, entries.length * 2);
+        }
+        entries[mCellSizes[cell]++] = index;
+    }
+
+    private int getColumn(int x) {
+        return Math.max(0, Math.min(mColumns - 1, (x - mLeft) / mCellWidth));
+    }
+
+    private int getRow(int y) {
+        return Math.max(0, Math.min(mRows - 1, (y - mTop) / mCellHeight));
+    }
+
+    private static long getIntersectionArea(Bounds a, Bounds b) {
+        final int width = Math.min(a.right, b.right) - Math.max(a.left, b.left);
+        final int height = Math.min(a.bottom, b.bottom) - Math.max(a.top, b.top);
+        return width > 0 && height > 0 ? (long) width * height : 0;
+    }
+}
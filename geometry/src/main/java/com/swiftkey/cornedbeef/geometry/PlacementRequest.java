@@ -0,0 +1,24 @@
+package com.swiftkey.cornedbeef.geometry;
+
+/**
+ * A popup to be placed by {@link PopupPlacer#placePopups}
+ */
+public final class PlacementRequest {
+    public final Bounds anchor;
+    public final int width;
+    public final int height;
+    public final Placement placement;
+
+    /**
+     * @param anchor - the bounds of the anchor, in the same coordinates as the frame
+     * @param width - the width of the popup
+     * @param height - the height of the popup
+     * @param placement - the preferred placement of the popup
+     */
+    public PlacementRequest(Bounds anchor, int width, int height, Placement placement) {
+        this.anchor = anchor;
+        this.width = width;
+        this.height = height;
+        this.placement = placement;
+    }
+}
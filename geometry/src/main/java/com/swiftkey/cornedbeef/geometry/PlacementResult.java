@@ -0,0 +1,18 @@
+package com.swiftkey.cornedbeef.geometry;
+
+/**
+ * The position chosen for a popup by {@link PopupPlacer#placePopups}
+ */
+public final class PlacementResult {
+    public final int x;
+    public final int y;
+    public final Placement placement;
+    public final boolean overlaps;
+
+    public PlacementResult(int x, int y, Placement placement, boolean overlaps) {
+        this.x = x;
+        this.y = y;
+        this.placement = placement;
+        this.overlaps = overlaps;
+    }
+}
@@ -0,0 +1,113 @@
+package com.swiftkey.cornedbeef.geometry;
+
+/**
+ * Calculations for the size and position of a single coach mark popup and its
+ * pointy mark. These only depend on plain ints, so they can be run without
+ * Android and are benchmarked by the {@code benchmark} module.
+ */
+public final class PopupGeometry {
+
+    private PopupGeometry() {
+    }
+
+    /**
+     * The popup width is determined by the minimum width excluding content
+     * (usually the width of the pointy mark and padding), the maximum width
+     * (usually the width of the screen), a desired width (including content),
+     * the width of the anchor and the position along the anchor at which the
+     * pointy mark should point. Normally the popup takes the desired width or
+     * the maximum width, unless the target arrow would otherwise be positioned
+     * outside of the popup, in which case the popup is expanded to include the
+     * pointy mark.
+     *
+     * @param minWidth - the minimum width of the popup (not including content)
+     * @param maxWidth - the maximum width of the popup
+     * @param desiredWidth - the desired with of the popup (including content)
+     * @param anchorWidth - the width of the anchor view
+     * @param target - the position on the anchor at which the pointy mark should point
+     */
+    public static int getPopupWidth(int minWidth, int maxWidth,
+            int desiredWidth, int anchorWidth, float target) {
+        // Minimum width as a percentage of the anchor width
+        final double width = 2 * Math.abs(0.5 - target);
+
+        // Minimum width as an absolute value
+        int popupWidth = (int) (anchorWidth * width) + minWidth;
+
+        // Make sure not smaller than the minimum width
+        popupWidth = popupWidth > desiredWidth ? popupWidth : desiredWidth;
+
+        // Make sure not larger than the max width
+        return popupWidth > maxWidth ? maxWidth : popupWidth;
+    }
+
+    /**
+     * Get the x coordinate of a popup centred on its anchor, shifted left or
+     * right if centering it would move it off-screen
+     *
+     * @param anchorX - the x coordinate of the anchor view
+     * @param anchorWidth - the width of the anchor view
+     * @param popupWidth - the width of the popup
+     * @param screenWidth - the current screen width
+     * @param padding - minimum space between coach mark and screen edges
+     */
+    public static int getPopupX(int anchorX, int anchorWidth,
+            int popupWidth, int screenWidth, int padding) {
+        final int popupX = (anchorWidth - popupWidth) / 2 + anchorX;
+
+        // Constrain popupX to the screen size (minus padding)
+        return popupX < padding ? padding :
+            (popupX + popupWidth > (screenWidth - padding) ?
+                    screenWidth - popupWidth - padding : popupX);
+    }
+
+    /**
+     * Get the y coordinate of a popup. If showBelow is false but there is not
+     * enough room above the anchor then the popup is positioned below it. If
+     * showBelow is true but there is not enough room below the anchor then the
+     * popup is positioned above it.
+     *
+     * @param anchorY - the y coordinate of the anchor view
+     * @param anchorHeight - the height of the anchor view
+     * @param popupHeight - the height of the popup
+     * @param screenHeight - the current screen height
+     * @param showBelow - true if the popup should appear below the anchor
+     */
+    public static int getPopupY(int anchorY, int anchorHeight,
+            int popupHeight, int screenHeight, boolean showBelow) {
+        final int popupAboveY = anchorY - popupHeight;
+        final int popupBelowY = anchorY + anchorHeight;
+
+        if (showBelow) {
+            // If there is not enough room below move the popup above
+            return popupBelowY + popupHeight > screenHeight ? popupAboveY : popupBelowY;
+        } else {
+            // If there is not enough room above move the popup below
+            return popupAboveY < 0 ? popupBelowY : popupAboveY;
+        }
+    }
+
+    /**
+     * Calculate the size of the arrow's left margin
+     *
+     * @param target - the position on the anchor at which the arrow should point
+     * @param anchorWidth - the width of the anchor view
+     * @param arrowWidth - the width of the arrow
+     * @param anchorX - the x coordinate of the anchor view
+     * @param popupX - the x coordinate of the popup view
+     * @param minMargin - minimum accepted value of left margin
+     * @param maxMargin - maximum accepted value of left margin
+     */
+    public static int getArrowLeftMargin(float target, int anchorWidth,
+            int arrowWidth, int anchorX, int popupX, int minMargin, int maxMargin) {
+        int margin = (int) (target * anchorWidth) - (arrowWidth / 2) + anchorX - popupX;
+        return margin < minMargin ? minMargin : (margin > maxMargin ? maxMargin : margin);
+    }
+
+    /**
+     * Constrain a value to a range, preferring the minimum if the range is empty
+     */
+    static int constrain(int value, int min, int max) {
+        return value < min ? min : (value > max ? Math.max(min, max) : value);
+    }
+}
@@ -0,0 +1,122 @@
+package com.swiftkey.cornedbeef.geometry;
+
+import java.util.List;
+
+/**
+ * Places several popups at once so that they do not overlap each other or
+ * each other's anchors.
+ */
+public final class PopupPlacer {
+
+    // The placements to try for a popup, in order of preference, indexed by the preferred placement
+    private static final Placement[][] PLACEMENT_ORDERS = new Placement[Placement.values().length][];
+
+    static {
+        PLACEMENT_ORDERS[Placement.ABOVE.ordinal()] =
+                new Placement[] {Placement.ABOVE, Placement.BELOW, Placement.END, Placement.START};
+        PLACEMENT_ORDERS[Placement.BELOW.ordinal()] =
+                new Placement[] {Placement.BELOW, Placement.ABOVE, Placement.END, Placement.START};
+        PLACEMENT_ORDERS[Placement.START.ordinal()] =
+                new Placement[] {Placement.START, Placement.END, Placement.ABOVE, Placement.BELOW};
+        PLACEMENT_ORDERS[Placement.END.ordinal()] =
+                new Placement[] {Placement.END, Placement.START, Placement.ABOVE, Placement.BELOW};
+    }
+
+    private PopupPlacer() {
+    }
+
+    /**
+     * Place several popups at once so that they do not overlap each other or
+     * each other's anchors. Popups are placed in order, so earlier popups get
+     * their preferred placement in preference to later ones. Each popup tries
+     * its preferred placement, then the opposite side, then the remaining two
+     * sides, taking the first which fits inside the frame without overlapping
+     * anything placed so far. If every placement overlaps something, the one
+     * with the least overlap is used and flagged. Along the side it is placed
+     * on, a popup is centred on its anchor and then shifted to fit the frame.
+     *
+     * @param popups - the popups to place
+     * @param frame - the area the popups must fit in, usually the display frame
+     * @param padding - minimum space between the popups and the sides of the frame
+     * @param isRtl - whether START and END should be resolved right to left
+     * @return the placement of each popup, in the same order as the requests
+     */
+    public static PlacementResult[] placePopups(List<PlacementRequest> popups,
+            Bounds frame, int padding, boolean isRtl) {
+        final int count = popups.size();
+        final PlacementResult[] placements = new PlacementResult[count];
+        final PlacementGrid grid = new PlacementGrid(frame, 2 * count);
+        final Bounds candidate = new Bounds();
+        final Bounds best = new Bounds();
+
+        // Popups should not cover the anchors of other popups, so add them up front
+        for (int i = 0; i < count; i++) {
+            grid.add(popups.get(i).anchor, i);
+        }
+
+        for (int i = 0; i < count; i++) {
+            final PlacementRequest popup = popups.get(i);
+            Placement bestPlacement = null;
+            long bestOverlap = Long.MAX_VALUE;
+            for (Placement placement : PLACEMENT_ORDERS[popup.placement.ordinal()]) {
+                if (!getCandidateBounds(popup, placement, frame, padding, isRtl, candidate)) {
+                    continue;
+                }
+                final long overlap = grid.getOverlapArea(candidate, i);
+                if (overlap < bestOverlap) {
+                    best.set(candidate);
+                    bestPlacement = placement;
+                    bestOverlap = overlap;
+                    if (overlap == 0) {
+                        break;
+                    }
+                }
+            }
+
+            if (bestPlacement == null) {
+                // Nothing fits, so keep the preferred placement and move it inside the frame
+                bestPlacement = popup.placement;
+                getCandidateBounds(popup, bestPlacement, frame, padding, isRtl, best);
+                best.offsetTo(
+                        PopupGeometry.constrain(best.left,
+                                frame.left + padding, frame.right - padding - popup.width),
+                        PopupGeometry.constrain(best.top, frame.top, frame.bottom - popup.height));
+                bestOverlap = grid.getOverlapArea(best, i);
+            }
+
+            grid.add(best, i);
+            placements[i] = new PlacementResult(best.left, best.top, bestPlacement, bestOverlap > 0);
+        }
+        return placements;
+    }
+
+    /**
+     * Get the bounds of a popup placed on the given side of its anchor
+     *
+     * @return false if the popup would not fit between the anchor and the side of the frame
+     */
+    private static boolean getCandidateBounds(PlacementRequest popup, Placement placement,
+            Bounds frame, int padding, boolean isRtl, Bounds outBounds) {
+        final Bounds anchor = popup.anchor;
+        final boolean vertical = placement == Placement.ABOVE || placement == Placement.BELOW;
+        int x;
+        int y;
+        if (vertical) {
+            x = anchor.left + (anchor.width() - popup.width) / 2;
+            y = placement == Placement.ABOVE ? anchor.top - popup.height : anchor.bottom;
+            x = PopupGeometry.constrain(x, frame.left + padding, frame.right - padding - popup.width);
+        } else {
+            final boolean left = (placement == Placement.START) != isRtl;
+            x = left ? anchor.left - popup.width : anchor.right;
+            y = anchor.top + (anchor.height() - popup.height) / 2;
+            y = PopupGeometry.constrain(y, frame.top, frame.bottom - popup.height);
+        }
+        outBounds.set(x, y, x + popup.width, y + popup.height);
+
+        if (vertical) {
+            return outBounds.top >= frame.top && outBounds.bottom <= frame.bottom;
+        } else {
+            return outBounds.left >= frame.left + padding && outBounds.right <= frame.right - padding;
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package com.swiftkey.cornedbeef.geometry;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class PopupPlacerTestCase {
+
+    private static final Bounds FRAME = new Bounds(0, 0, 1080, 1920);
+
+    /**
+     * Test that a popup which fits is centred above its anchor
+     */
+    @Test
+    public void testPlacePopups_preferredPlacement() {
+        final PlacementResult result = PopupPlacer.placePopups(Arrays.asList(
+                new PlacementRequest(new Bounds(400, 500, 600, 550), 100, 50, Placement.ABOVE)),
+                FRAME, 0, false)[0];
+
+        assertEquals(Placement.ABOVE, result.placement);
+        assertEquals(450, result.x);
+        assertEquals(450, result.y);
+        assertFalse(result.overlaps);
+    }
+
+    /**
+     * Test that no two popups in a crowded batch overlap when there is room for them all
+     */
+    @Test
+    public void testPlacePopups_batchDoesNotOverlap() {
+        final List<PlacementRequest> popups = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            final int y = 200 + i * 200;
+            popups.add(new PlacementRequest(new Bounds(440, y, 640, y + 40), 200, 60,
+                    i % 2 == 0 ? Placement.ABOVE : Placement.BELOW));
+        }
+
+        final PlacementResult[] results = PopupPlacer.placePopups(popups, FRAME, 0, false);
+
+        for (int i = 0; i < results.length; i++) {
+            assertFalse(results[i].overlaps);
+            for (int j = 0; j < i; j++) {
+                assertFalse(intersects(getBounds(results[i], popups.get(i)),
+                        getBounds(results[j], popups.get(j))));
+            }
+        }
+    }
+
+    @Test
+    public void testPlacementGrid_ignoresOwner() {
+        final PlacementGrid grid = new PlacementGrid(FRAME, 2);
+        grid.add(new Bounds(0, 0, 100, 100), 0);
+        grid.add(new Bounds(50, 50, 150, 150), 1);
+
+        final Bounds query = new Bounds(0, 0, 100, 100);
+        assertEquals(2500, grid.getOverlapArea(query, 0));
+        assertEquals(10000, grid.getOverlapArea(query, 1));
+        assertEquals(0, grid.getOverlapArea(new Bounds(500, 500, 600, 600), -1));
+    }
+
+    private static Bounds getBounds(PlacementResult result, PlacementRequest popup) {
+        return new Bounds(result.x, result.y, result.x + popup.width, result.y + popup.height);
+    }
+
+    private static boolean intersects(Bounds a, Bounds b) {
+        return a.left < b.right && b.left < a.right && a.top < b.bottom && b.top < a.bottom;
+    }
+}
@@ -24,6 +24,7 @@ import static com.swiftkey.cornedbeef.TestHelper.dismissCoachMark;
 import static com.swiftkey.cornedbeef.TestHelper.showCoachMark;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
@@ -314,9 +315,147 @@ public class CoachMarkTestCase {
         assertFalse(mCoachMark.isFocusable());
     }
 
+    /**
+     * Verify that showAll shows every coach mark, and that dismissAll calls each
+     * onDismiss once however many times the coach marks are dismissed
+     */
+    @Test
+    public void testShowAllAndDismissAll() {
+        final OnDismissListener mockListener1 = mock(OnDismissListener.class);
+        final OnDismissListener mockListener2 = mock(OnDismissListener.class);
+        final CoachMark coachMark1 = new TestCoachMark.TestCoachMarkBuilder(
+                mActivity, mAnchor, "spam spam spam")
+                .setOnDismissListener(mockListener1).build();
+        final CoachMark coachMark2 = new TestCoachMark.TestCoachMarkBuilder(
+                mActivity, mAnchor, "eggs and spam")
+                .setOnDismissListener(mockListener2).build();
+
+        getInstrumentation().runOnMainSync(() -> CoachMark.showAll(coachMark1, coachMark2));
+        getInstrumentation().waitForIdleSync();
+
+        assertTrue(coachMark1.isShowing());
+        assertTrue(coachMark2.isShowing());
+
+        getInstrumentation().runOnMainSync(() -> {
+            CoachMark.dismissAll(coachMark1, coachMark2);
+            CoachMark.dismissAll(coachMark1, coachMark2);
+            coachMark1.dismiss();
+        });
+        getInstrumentation().waitForIdleSync();
+
+        assertFalse(coachMark1.isShowing());
+        assertFalse(coachMark2.isShowing());
+        verify(mockListener1).onDismiss();
+        verify(mockListener2).onDismiss();
+    }
+
+    /**
+     * Verify that coach marks shown together are dismissed together after the
+     * shortest of their timeouts, and that those without a timeout are kept
+     * @throws InterruptedException
+     */
+    @Test
+    public void testShowAllSharesTimeout() throws InterruptedException {
+        final OnTimeoutListener mockListener = mock(OnTimeoutListener.class);
+        final CoachMark coachMark1 = new TestCoachMark.TestCoachMarkBuilder(
+                mActivity, mAnchor, "spam spam spam")
+                .setTimeout(50).build();
+        final CoachMark coachMark2 = new TestCoachMark.TestCoachMarkBuilder(
+                mActivity, mAnchor, "eggs and spam")
+                .setOnTimeoutListener(mockListener)
+                .setTimeout(10000).build();
+        mCoachMark = new TestCoachMark.TestCoachMarkBuilder(
+                mActivity, mAnchor, "spam, spam, spam and spam")
+                .setTimeout(0).build();
+
+        getInstrumentation().runOnMainSync(() -> CoachMark.showAll(coachMark1, coachMark2, mCoachMark));
+        getInstrumentation().waitForIdleSync();
+
+        Thread.sleep(500);
+
+        assertFalse(coachMark1.isShowing());
+        assertFalse(coachMark2.isShowing());
+        assertTrue(mCoachMark.isShowing());
+        verify(mockListener).onTimeout();
+    }
+
+    /**
+     * Verify that showing a coach mark twice only shows it once, and that a
+     * coach mark which was never shown isn't dismissed
+     */
+    @Test
+    public void testShowTwiceAndDismissBeforeShow() {
+        final OnShowListener mockShowListener = mock(OnShowListener.class);
+        final OnDismissListener mockDismissListener = mock(OnDismissListener.class);
+        mCoachMark = new TestCoachMark.TestCoachMarkBuilder(
+                mActivity, mAnchor, "spam spam spam")
+                .setOnShowListener(mockShowListener)
+                .setOnDismissListener(mockDismissListener).build();
+
+        dismissCoachMark(getInstrumentation(), mCoachMark);
+        verify(mockDismissListener, never()).onDismiss();
+
+        showCoachMark(getInstrumentation(), mCoachMark);
+        showCoachMark(getInstrumentation(), mCoachMark);
+        dismissCoachMark(getInstrumentation(), mCoachMark);
+
+        assertFalse(mCoachMark.isShowing());
+        verify(mockShowListener).onShow();
+        verify(mockDismissListener).onDismiss();
+    }
+
+    /**
+     * Verify that if a coach mark fails to show, showAll dismisses the others
+     * without calling their onDismiss, and they can still be shown afterwards
+     */
+    @Test
+    public void testShowAllDismissesOnFailure() {
+        final OnDismissListener mockListener = mock(OnDismissListener.class);
+        mCoachMark = new TestCoachMark.TestCoachMarkBuilder(
+                mActivity, mAnchor, "spam spam spam")
+                .setOnDismissListener(mockListener).build();
+        final CoachMark failing = new TestCoachMark.TestCoachMarkBuilder(
+                mActivity, mAnchor, "eggs and spam") {
+            @Override
+            public CoachMark build() {
+                return new FailingCoachMark(this);
+            }
+        }.build();
+
+        getInstrumentation().runOnMainSync(() -> {
+            try {
+                CoachMark.showAll(mCoachMark, failing);
+                fail("showAll should rethrow the failure");
+            } catch (IllegalStateException e) {
+                // Expected
+            }
+        });
+        getInstrumentation().waitForIdleSync();
+
+        assertFalse(mCoachMark.isActive());
+        assertFalse(mCoachMark.isShowing());
+        assertFalse(failing.isActive());
+        verify(mockListener, never()).onDismiss();
+
+        showCoachMark(getInstrumentation(), mCoachMark);
+        assertTrue(mCoachMark.isShowing());
+    }
+
     /*
      * HELPERS
      */
+
+    private static class FailingCoachMark extends TestCoachMark {
+
+        FailingCoachMark(CoachMarkBuilder builder) {
+            super(builder);
+        }
+
+        @Override
+        protected void updateView(CoachMarkDimens<Integer> popupDimens, CoachMarkDimens<Integer> anchorDimens) {
+            throw new IllegalStateException("Failed to lay out the coach mark");
+        }
+    }
     
     private static class TestCoachMark extends CoachMark {
 
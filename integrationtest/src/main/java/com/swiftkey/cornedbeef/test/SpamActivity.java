@@ -16,12 +16,14 @@ import com.swiftkey.cornedbeef.BubbleCoachMark;
 import com.swiftkey.cornedbeef.CoachMark;
 import com.swiftkey.cornedbeef.HighlightCoachMark;
 import com.swiftkey.cornedbeef.LayeredCoachMark;
+import com.swiftkey.cornedbeef.MultiHighlightCoachMark;
 import com.swiftkey.cornedbeef.PunchHoleCoachMark;
 
 public class SpamActivity extends Activity {
 
     private CoachMark mBubbleCoachMark;
     private CoachMark mHighlightCoachMark;
+    private CoachMark mMultiHighlightCoachMark;
     private CoachMark mPunchHoleCoachMark;
     private CoachMark mLayeredCoachMark;
 
@@ -35,6 +37,7 @@ public class SpamActivity extends Activity {
 
         final View anchorTextView = findViewById(R.id.hello_world);
         final View anchorTextViewForHighlight = findViewById(R.id.highlight_target);
+        final View anchorLinearLayoutForMultiHighlight = findViewById(R.id.multi_highlight_anchor);
         final View anchorLinearLayoutHoldButton = findViewById(R.id.anchor_with_button);
         final View anchorEmptyLinearLayout = findViewById(R.id.empty_anchor);
 
@@ -50,6 +53,12 @@ public class SpamActivity extends Activity {
         mHighlightCoachMark = new HighlightCoachMark.HighlightCoachMarkBuilder(
                 context, anchorTextViewForHighlight).build();
 
+        mMultiHighlightCoachMark = new MultiHighlightCoachMark.MultiHighlightCoachMarkBuilder(
+                context, anchorLinearLayoutForMultiHighlight)
+                .addTarget(findViewById(R.id.multi_highlight_first))
+                .addTarget(findViewById(R.id.multi_highlight_second))
+                .build();
+
         // Prepare the sample PunchHoleCoachMark
         TextView punchholeContent = (TextView) LayoutInflater.from(context).inflate(R.layout.sample_customised_punchhole_content, null);
         punchholeContent.setText(R.string.punchhole_message_text);
@@ -78,20 +87,16 @@ public class SpamActivity extends Activity {
                 .setTimeout(0)
                 .build();
 
-        getWindow().getDecorView().getRootView().post(() -> {
-            mBubbleCoachMark.show();
-            mHighlightCoachMark.show();
-            mPunchHoleCoachMark.show();
-            mLayeredCoachMark.show();
-        });
+        getWindow().getDecorView().getRootView().post(() -> CoachMark.showAll(
+                mBubbleCoachMark, mHighlightCoachMark, mMultiHighlightCoachMark,
+                mPunchHoleCoachMark, mLayeredCoachMark));
     }
 
     @Override
     public void onDestroy() {
-        mHighlightCoachMark.dismiss();
-        mBubbleCoachMark.dismiss();
-        mPunchHoleCoachMark.dismiss();
-        mLayeredCoachMark.dismiss();
+        CoachMark.dismissAll(
+                mHighlightCoachMark, mMultiHighlightCoachMark, mBubbleCoachMark,
+                mPunchHoleCoachMark, mLayeredCoachMark);
         super.onDestroy();
     }
 }
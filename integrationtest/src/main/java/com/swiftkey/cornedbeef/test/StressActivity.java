@@ -0,0 +1,65 @@
+package com.swiftkey.cornedbeef.test;
+
+import android.app.Activity;
+import android.os.Bundle;
+import android.util.Log;
+import android.view.Choreographer;
+import android.view.Window;
+
+/**
+ * Runs the {@link StressScenario} given in its intent on every frame, and
+ * logs the {@link StressReport} once scrolling has finished
+ */
+public class StressActivity extends Activity implements Choreographer.FrameCallback {
+
+    private static final String TAG = "StressActivity";
+
+    private StressRunner mRunner;
+    private long mLastFrameTimeNanos;
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        requestWindowFeature(Window.FEATURE_NO_TITLE);
+        mRunner = new StressRunner(this, StressScenario.fromIntent(getIntent()));
+        setContentView(mRunner.getView());
+    }
+
+    @Override
+    protected void onResume() {
+        super.onResume();
+        if (!mRunner.isFinished()) {
+            // Start once the first items, and their coach marks, have been shown
+            getWindow().getDecorView().post(() -> {
+                mRunner.start();
+                Choreographer.getInstance().postFrameCallback(this);
+            });
+        }
+    }
+
+    @Override
+    protected void onPause() {
+        Choreographer.getInstance().removeFrameCallback(this);
+        mLastFrameTimeNanos = 0;
+        super.onPause();
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        mRunner.doFrame(mLastFrameTimeNanos > 0 ? frameTimeNanos - mLastFrameTimeNanos : 0);
+        mLastFrameTimeNanos = frameTimeNanos;
+        if (mRunner.isFinished()) {
+            Log.i(TAG, mRunner.finish().toString());
+        } else {
+            Choreographer.getInstance().postFrameCallback(this);
+        }
+    }
+
+    @Override
+    protected void onDestroy() {
+        if (!mRunner.isFinished()) {
+            mRunner.finish();
+        }
+        super.onDestroy();
+    }
+}
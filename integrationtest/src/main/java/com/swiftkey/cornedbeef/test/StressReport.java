@@ -0,0 +1,131 @@
+package com.swiftkey.cornedbeef.test;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * The frame times, memory growth and popup counts of a stress run
+ */
+public class StressReport {
+
+    private static final long JANK_THRESHOLD_NANOS = 25_000_000;
+
+    private final StressScenario mScenario;
+    private long[] mFrameNanos = new long[256];
+    private int mFrameCount;
+    private long mStartUsedMemory;
+    private long mEndUsedMemory;
+    private int mShownCount;
+    private int mShowingCount;
+    private int mMaxShowingCount;
+
+    StressReport(StressScenario scenario) {
+        mScenario = scenario;
+    }
+
+    void addFrame(long durationNanos) {
+        if (mFrameCount == mFrameNanos.length) {
+            mFrameNanos = Arrays.copyOf(mFrameNanos, mFrameCount * 2);
+        }
+        mFrameNanos[mFrameCount++] = durationNanos;
+    }
+
+    void onCoachMarkShown() {
+        mShownCount++;
+        mShowingCount++;
+        mMaxShowingCount = Math.max(mMaxShowingCount, mShowingCount);
+    }
+
+    void onCoachMarkDismissed() {
+        mShowingCount--;
+    }
+
+    void onStart() {
+        mStartUsedMemory = getUsedMemory();
+    }
+
+    void onFinish() {
+        mEndUsedMemory = getUsedMemory();
+    }
+
+    private static long getUsedMemory() {
+        final Runtime runtime = Runtime.getRuntime();
+        runtime.gc();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    public StressScenario getScenario() {
+        return mScenario;
+    }
+
+    public int getFrameCount() {
+        return mFrameCount;
+    }
+
+    public long getMeanFrameNanos() {
+        long total = 0;
+        for (int i = 0; i < mFrameCount; i++) {
+            total += mFrameNanos[i];
+        }
+        return mFrameCount > 0 ? total / mFrameCount : 0;
+    }
+
+    /**
+     * @param percentile the percentile, between 0 and 100
+     */
+    public long getFrameNanosPercentile(int percentile) {
+        if (mFrameCount == 0) {
+            return 0;
+        }
+        final long[] sorted = Arrays.copyOf(mFrameNanos, mFrameCount);
+        Arrays.sort(sorted);
+        return sorted[Math.min(mFrameCount - 1, mFrameCount * percentile / 100)];
+    }
+
+    public int getJankyFrameCount() {
+        int count = 0;
+        for (int i = 0; i < mFrameCount; i++) {
+            count += mFrameNanos[i] > JANK_THRESHOLD_NANOS ? 1 : 0;
+        }
+        return count;
+    }
+
+    /**
+     * The growth of the used Java heap over the run, after collecting garbage
+     */
+    public long getMemoryGrowthBytes() {
+        return mEndUsedMemory - mStartUsedMemory;
+    }
+
+    /**
+     * The number of times a coach mark was shown, as items scrolled into view
+     */
+    public int getShownCount() {
+        return mShownCount;
+    }
+
+    /**
+     * The number of coach marks showing now
+     */
+    public int getShowingCount() {
+        return mShowingCount;
+    }
+
+    /**
+     * The largest number of coach marks showing at once
+     */
+    public int getMaxShowingCount() {
+        return mMaxShowingCount;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US,
+                "%s: %d frames, mean %.2f ms, p90 %.2f ms, p99 %.2f ms, %d janky;"
+                        + " memory growth %d KB; %d popups shown, at most %d at once",
+                mScenario, mFrameCount, getMeanFrameNanos() / 1e6,
+                getFrameNanosPercentile(90) / 1e6, getFrameNanosPercentile(99) / 1e6,
+                getJankyFrameCount(), getMemoryGrowthBytes() / 1024,
+                mShownCount, mMaxShowingCount);
+    }
+}
@@ -0,0 +1,133 @@
+package com.swiftkey.cornedbeef.test;
+
+import android.content.Context;
+import android.util.TypedValue;
+import android.view.ViewGroup;
+import android.widget.TextView;
+
+import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.RecyclerView;
+
+import com.swiftkey.cornedbeef.CoachMark;
+
+/**
+ * Runs a {@link StressScenario}: a list whose first items each have a coach
+ * mark, which is shown when the item is attached and dismissed when it is
+ * detached, and which is scrolled by a fixed distance every frame.
+ * <p>
+ * Frames are driven by calling {@link #doFrame(long)}, by
+ * {@link StressActivity} from a {@link android.view.Choreographer} on a
+ * device, or by a test when running headless.
+ */
+public class StressRunner {
+
+    private final StressScenario mScenario;
+    private final StressReport mReport;
+    private final RecyclerView mRecyclerView;
+    private int mFrame;
+
+    public StressRunner(Context context, StressScenario scenario) {
+        mScenario = scenario;
+        mReport = new StressReport(scenario);
+        mRecyclerView = new RecyclerView(context);
+        mRecyclerView.setLayoutManager(new LinearLayoutManager(context));
+        mRecyclerView.setAdapter(new StressAdapter());
+    }
+
+    public RecyclerView getView() {
+        return mRecyclerView;
+    }
+
+    public StressReport getReport() {
+        return mReport;
+    }
+
+    public boolean isFinished() {
+        return mFrame >= mScenario.scrollFrames;
+    }
+
+    public void start() {
+        mReport.onStart();
+    }
+
+    /**
+     * Scroll for a frame
+     *
+     * @param frameNanos the duration of the previous frame, which is recorded
+     */
+    public void doFrame(long frameNanos) {
+        if (mFrame > 0) {
+            mReport.addFrame(frameNanos);
+        }
+        if (isFinished()) {
+            return;
+        }
+        // Scroll down for the first half of the run and back up for the second
+        final int direction = mFrame < mScenario.scrollFrames / 2 ? 1 : -1;
+        mRecyclerView.scrollBy(0, direction * mScenario.scrollDistance);
+        mFrame++;
+    }
+
+    /**
+     * Dismiss the coach marks which are still showing and finish the report
+     */
+    public StressReport finish() {
+        mRecyclerView.setAdapter(null);
+        mReport.onFinish();
+        return mReport;
+    }
+
+    private class StressAdapter extends RecyclerView.Adapter<ItemViewHolder> {
+
+        @NonNull
+        @Override
+        public ItemViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
+            final TextView view = new TextView(parent.getContext());
+            view.setMinHeight((int) TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_DIP, 72,
+                    parent.getResources().getDisplayMetrics()));
+            view.setLayoutParams(new RecyclerView.LayoutParams(
+                    ViewGroup.LayoutParams.MATCH_PARENT, ViewGroup.LayoutParams.WRAP_CONTENT));
+            return new ItemViewHolder(view);
+        }
+
+        @Override
+        public void onBindViewHolder(@NonNull ItemViewHolder holder, int position) {
+            ((TextView) holder.itemView).setText("Item " + position);
+        }
+
+        @Override
+        public int getItemCount() {
+            return mScenario.itemCount;
+        }
+
+        @Override
+        public void onViewAttachedToWindow(@NonNull ItemViewHolder holder) {
+            final int position = holder.getBindingAdapterPosition();
+            if (position != RecyclerView.NO_POSITION && position < mScenario.markCount) {
+                holder.mCoachMark = mScenario.type.build(
+                        holder.itemView.getContext(), holder.itemView, position);
+                holder.mCoachMark.show();
+                mReport.onCoachMarkShown();
+            }
+        }
+
+        @Override
+        public void onViewDetachedFromWindow(@NonNull ItemViewHolder holder) {
+            if (holder.mCoachMark != null) {
+                holder.mCoachMark.dismiss();
+                holder.mCoachMark = null;
+                mReport.onCoachMarkDismissed();
+            }
+        }
+    }
+
+    private static class ItemViewHolder extends RecyclerView.ViewHolder {
+
+        private CoachMark mCoachMark;
+
+        ItemViewHolder(@NonNull TextView itemView) {
+            super(itemView);
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package com.swiftkey.cornedbeef.test;
+
+import android.content.Context;
+import android.content.Intent;
+import android.view.View;
+
+import com.swiftkey.cornedbeef.BubbleCoachMark;
+import com.swiftkey.cornedbeef.CoachMark;
+import com.swiftkey.cornedbeef.HighlightCoachMark;
+import com.swiftkey.cornedbeef.LayeredCoachMark;
+import com.swiftkey.cornedbeef.MultiHighlightCoachMark;
+import com.swiftkey.cornedbeef.PunchHoleCoachMark;
+import com.swiftkey.cornedbeef.PunchedBubbleCoachMark;
+
+/**
+ * The parameters of a stress run: how many coach marks of which type are
+ * anchored to the items of a list, and how the list is scrolled. Passed to
+ * {@link StressActivity} as intent extras, e.g.
+ * <pre>
+ * adb shell am start -n com.swiftkey.cornedbeef.test/.StressActivity \
+ *     --es type BUBBLE --ei markCount 50 --ei scrollFrames 600
+ * </pre>
+ */
+public class StressScenario {
+
+    public static final int MIN_MARK_COUNT = 1;
+    public static final int MAX_MARK_COUNT = 100;
+
+    private static final String EXTRA_TYPE = "type";
+    private static final String EXTRA_MARK_COUNT = "markCount";
+    private static final String EXTRA_ITEM_COUNT = "itemCount";
+    private static final String EXTRA_SCROLL_FRAMES = "scrollFrames";
+    private static final String EXTRA_SCROLL_DISTANCE = "scrollDistance";
+
+    /**
+     * The type of coach mark to show
+     */
+    public enum Type {
+        BUBBLE, HIGHLIGHT, MULTI_HIGHLIGHT, LAYERED, PUNCH_HOLE, PUNCHED_BUBBLE;
+
+        CoachMark build(Context context, View anchor, int position) {
+            final String message = "Coach mark " + position;
+            switch (this) {
+                case HIGHLIGHT:
+                    return new HighlightCoachMark.HighlightCoachMarkBuilder(context, anchor)
+                            .setTimeout(0).build();
+                case MULTI_HIGHLIGHT:
+                    return new MultiHighlightCoachMark.MultiHighlightCoachMarkBuilder(context, anchor)
+                            .addTarget(anchor)
+                            .setTimeout(0).build();
+                case LAYERED:
+                    return new LayeredCoachMark.LayeredCoachMarkBuilder(context, anchor, message)
+                            .setTimeout(0).build();
+                case PUNCH_HOLE:
+                    return new PunchHoleCoachMark.PunchHoleCoachMarkBuilder(context, anchor, message)
+                            .setTargetView(anchor)
+                            .setTimeout(0).build();
+                case PUNCHED_BUBBLE:
+                    return new PunchedBubbleCoachMark.PunchedBubbleCoachMarkBuilder(context, anchor, message)
+                            .setTargetView(anchor)
+                            .setTimeout(0).build();
+                case BUBBLE:
+                default:
+                    return new BubbleCoachMark.BubbleCoachMarkBuilder(context, anchor, message)
+                            .setTimeout(0).build();
+            }
+        }
+    }
+
+    public final Type type;
+    public final int markCount;
+    public final int itemCount;
+    public final int scrollFrames;
+    public final int scrollDistance;
+
+    /**
+     * @param type the type of coach mark to show
+     * @param markCount the number of list items with a coach mark, between 1 and 100
+     * @param itemCount the number of items in the list, which is at least the number of marks
+     * @param scrollFrames the number of frames to scroll for, half down and half back up
+     * @param scrollDistance the distance to scroll each frame, in pixels
+     */
+    public StressScenario(Type type, int markCount, int itemCount, int scrollFrames, int scrollDistance) {
+        if (markCount < MIN_MARK_COUNT || markCount > MAX_MARK_COUNT) {
+            throw new IllegalArgumentException("markCount must be between "
+                    + MIN_MARK_COUNT + " and " + MAX_MARK_COUNT + ", but was " + markCount);
+        }
+        this.type = type;
+        this.markCount = markCount;
+        this.itemCount = Math.max(itemCount, markCount);
+        this.scrollFrames = scrollFrames;
+        this.scrollDistance = scrollDistance;
+    }
+
+    public static StressScenario fromIntent(Intent intent) {
+        final String type = intent.getStringExtra(EXTRA_TYPE);
+        return new StressScenario(
+                type != null ? Type.valueOf(type) : Type.BUBBLE,
+                intent.getIntExtra(EXTRA_MARK_COUNT, 10),
+                intent.getIntExtra(EXTRA_ITEM_COUNT, 200),
+                intent.getIntExtra(EXTRA_SCROLL_FRAMES, 600),
+                intent.getIntExtra(EXTRA_SCROLL_DISTANCE, 20));
+    }
+
+    public Intent toIntent(Context context) {
+        return new Intent(context, StressActivity.class)
+                .putExtra(EXTRA_TYPE, type.name())
+                .putExtra(EXTRA_MARK_COUNT, markCount)
+                .putExtra(EXTRA_ITEM_COUNT, itemCount)
+                .putExtra(EXTRA_SCROLL_FRAMES, scrollFrames)
+                .putExtra(EXTRA_SCROLL_DISTANCE, scrollDistance);
+    }
+
+    @Override
+    public String toString() {
+        return type + " x" + markCount + " (" + itemCount + " items, "
+                + scrollFrames + " frames of " + scrollDistance + "px)";
+    }
+}
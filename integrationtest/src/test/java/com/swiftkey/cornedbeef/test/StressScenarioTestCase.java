@@ -0,0 +1,115 @@
+package com.swiftkey.cornedbeef.test;
+
+import android.app.Activity;
+import android.view.View;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Runs stress scenarios headless, laying out and scrolling the list by hand
+ * in place of the Choreographer. Frame times are the time taken to scroll,
+ * lay out and pre-draw each frame, rather than the time between vsyncs.
+ * <p>
+ * The scenarios only run when asked for, with
+ * {@code ./gradlew :integrationtest:testDebugUnitTest -Pbenchmarks}, and their
+ * reports are written to {@code build/reports/benchmarks/stress.json}.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = "src/main/AndroidManifest.xml", packageName = "com.swiftkey.cornedbeef.test", sdk = 21)
+public class StressScenarioTestCase {
+
+    private static final int SCREEN_WIDTH = 1080;
+    private static final int SCREEN_HEIGHT = 1920;
+    private static final File REPORT_FILE = new File("build/reports/benchmarks/stress.json");
+
+    @Test
+    public void testStressScenarios() throws IOException, JSONException {
+        assumeTrue("Benchmarks are only run with -Pbenchmarks", Boolean.getBoolean("cornedbeef.benchmarks"));
+        final JSONArray results = new JSONArray();
+        for (StressScenario.Type type : StressScenario.Type.values()) {
+            for (int markCount : new int[] {1, 10, 100}) {
+                final StressReport report = run(new StressScenario(type, markCount, 200, 120, 40));
+                results.put(toJson(report));
+
+                assertEquals(120, report.getFrameCount());
+                assertTrue(report + " showed no coach marks", report.getShownCount() > 0);
+                assertTrue(report + " showed more coach marks at once than were anchored",
+                        report.getMaxShowingCount() <= markCount);
+                assertEquals(report + " left coach marks showing", 0, report.getShowingCount());
+            }
+        }
+
+        final JSONObject json = new JSONObject();
+        json.put("results", results);
+        //noinspection ResultOfMethodCallIgnored
+        REPORT_FILE.getParentFile().mkdirs();
+        try (Writer writer = new FileWriter(REPORT_FILE)) {
+            writer.write(json.toString(2));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testTooManyMarks() {
+        new StressScenario(StressScenario.Type.BUBBLE, StressScenario.MAX_MARK_COUNT + 1, 200, 120, 40);
+    }
+
+    private static StressReport run(StressScenario scenario) {
+        final Activity activity = Robolectric.buildActivity(Activity.class).create().start().resume().visible().get();
+        final StressRunner runner = new StressRunner(activity, scenario);
+        activity.setContentView(runner.getView());
+        final View root = activity.getWindow().getDecorView();
+        layout(root);
+
+        runner.start();
+        long frameNanos = 0;
+        while (!runner.isFinished()) {
+            final long startNanos = System.nanoTime();
+            runner.doFrame(frameNanos);
+            layout(root);
+            root.getViewTreeObserver().dispatchOnPreDraw();
+            frameNanos = System.nanoTime() - startNanos;
+        }
+        runner.doFrame(frameNanos);
+        final StressReport report = runner.finish();
+        activity.finish();
+        return report;
+    }
+
+    private static JSONObject toJson(StressReport report) throws JSONException {
+        final StressScenario scenario = report.getScenario();
+        final JSONObject json = new JSONObject();
+        json.put("type", scenario.type.name());
+        json.put("markCount", scenario.markCount);
+        json.put("frames", report.getFrameCount());
+        json.put("meanFrameNanos", report.getMeanFrameNanos());
+        json.put("p90FrameNanos", report.getFrameNanosPercentile(90));
+        json.put("p99FrameNanos", report.getFrameNanosPercentile(99));
+        json.put("jankyFrames", report.getJankyFrameCount());
+        json.put("memoryGrowthBytes", report.getMemoryGrowthBytes());
+        json.put("shown", report.getShownCount());
+        json.put("maxShowing", report.getMaxShowingCount());
+        return json;
+    }
+
+    private static void layout(View root) {
+        root.measure(View.MeasureSpec.makeMeasureSpec(SCREEN_WIDTH, View.MeasureSpec.EXACTLY),
+                View.MeasureSpec.makeMeasureSpec(SCREEN_HEIGHT, View.MeasureSpec.EXACTLY));
+        root.layout(0, 0, SCREEN_WIDTH, SCREEN_HEIGHT);
+    }
+}